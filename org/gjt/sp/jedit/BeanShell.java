@@ -248,10 +248,10 @@ public class BeanShell
 					return;
 				}
 
-				if(buffer != null)
+				if(buffer != null && !buffer.isLoadDeferred())
 				{
 					if(!buffer.isLoaded())
-						VFSManager.waitForRequests();
+						VFSManager.waitForRequests(path);
 
 					in = new StringReader(buffer.getText(0,
 						buffer.getLength()));
@@ -30,6 +30,7 @@ import javax.swing.event.*;
 import javax.swing.text.*;
 import java.awt.Toolkit;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import org.gjt.sp.jedit.browser.VFSBrowser;
 import org.gjt.sp.jedit.buffer.*;
@@ -157,6 +158,14 @@ public class Buffer implements EBComponent
 	 */
 	public boolean load(final View view, final boolean reload)
 	{
+		// a buffer whose loading was deferred looks like it is
+		// being loaded, but nothing has been requested yet
+		if(getFlag(DEFERRED))
+		{
+			setFlag(DEFERRED,false);
+			setFlag(LOADING,false);
+		}
+
 		if(isPerformingIO())
 		{
 			GUIUtilities.error(view,"buffer-multiple-io",null);
@@ -174,6 +183,7 @@ public class Buffer implements EBComponent
 			EditBus.send(new BufferUpdate(this,view,BufferUpdate.LOAD_STARTED));
 
 		final boolean loadAutosave;
+		boolean replayJournal = false;
 
 		if(reload || !getFlag(NEW_FILE))
 		{
@@ -182,7 +192,18 @@ public class Buffer implements EBComponent
 
 			// Only on initial load
 			if(!reload && autosaveFile != null && autosaveFile.exists())
-				loadAutosave = recoverAutosave(view);
+			{
+				if(AutosaveJournal.isJournal(autosaveFile))
+				{
+					// the edits in the journal are
+					// replayed once the file itself
+					// is loaded
+					replayJournal = confirmAutosave(view);
+					loadAutosave = false;
+				}
+				else
+					loadAutosave = recoverAutosave(view);
+			}
 			else
 			{
 				if(autosaveFile != null)
@@ -237,7 +258,8 @@ public class Buffer implements EBComponent
 						// SegmentBuffer never does that
 						contentMgr._setContent(seg.array,seg.count);
 
-						contentInserted(0,seg.count,endOffsets);
+						contentInserted(0,seg.count,endOffsets,
+							false);
 					}
 					catch(OutOfMemoryError oom)
 					{
@@ -283,6 +305,12 @@ public class Buffer implements EBComponent
 				if(!loadAutosave && newPath != null && !path.equals(newPath))
 					setPath(newPath);
 
+				// the autosave journal starts over from
+				// the file just loaded
+				resetJournal(loadAutosave);
+
+				FileWatcher.watch(Buffer.this);
+
 				// if loadAutosave is false, we loaded an
 				// autosave file, so we set 'dirty' to true
 
@@ -306,14 +334,46 @@ public class Buffer implements EBComponent
 			}
 		}; //}}}
 
+		// only waits for the requests for this file, so a buffer
+		// is ready as soon as its own file has been read
 		if(getFlag(TEMPORARY))
 			runnable.run();
 		else
-			VFSManager.runInAWTThread(runnable);
+			VFSManager.runInAWTThread(path,runnable);
+
+		if(replayJournal)
+		{
+			VFSManager.runInAWTThread(path,new Runnable()
+			{
+				public void run()
+				{
+					replayJournal(view);
+				}
+			});
+		}
 
 		return true;
 	} //}}}
 
+	//{{{ loadIfDeferred() method
+	/**
+	 * Loads the buffer if it was restored from the previous session
+	 * and has not been loaded yet. This must be called from the event
+	 * dispatch thread before the buffer is shown or its text is used;
+	 * as with {@link #load(View,boolean)}, the text is only available
+	 * once all I/O requests are complete.
+	 * @param view The view
+	 * @return False if the buffer could not be loaded
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean loadIfDeferred(View view)
+	{
+		if(getFlag(DEFERRED))
+			return load(view,false);
+		else
+			return true;
+	} //}}}
+
 	//{{{ insertFile() method
 	/**
 	 * Loads a file from disk, and inserts it into this buffer.
@@ -333,8 +393,10 @@ public class Buffer implements EBComponent
 
 		path = MiscUtilities.constructPath(this.path,path);
 
+		// a buffer that has not been loaded yet has the same
+		// text as the file
 		Buffer buffer = jEdit.getBuffer(path);
-		if(buffer != null)
+		if(buffer != null && !buffer.isLoadDeferred())
 		{
 			view.getTextArea().setSelectedText(
 				buffer.getText(0,buffer.getLength()));
@@ -355,7 +417,7 @@ public class Buffer implements EBComponent
 		}
 
 		// Do some stuff once loading is finished
-		VFSManager.runInAWTThread(new Runnable()
+		VFSManager.runInAWTThread(path,new Runnable()
 		{
 			public void run()
 			{
@@ -384,12 +446,26 @@ public class Buffer implements EBComponent
 		if(autosaveFile == null || !getFlag(AUTOSAVE_DIRTY)
 			|| !getFlag(DIRTY)
 			|| getFlag(LOADING)
-			|| getFlag(IO))
+			|| getFlag(IO)
+			|| getFlag(SAVING))
 			return;
 
 		setFlag(AUTOSAVE_DIRTY,false);
 
-		VFSManager.runInWorkThread(new BufferIORequest(
+		// only the edits made since the last autosave are written
+		try
+		{
+			writeLock();
+			journal.autosave(contentMgr);
+		}
+		finally
+		{
+			writeUnlock();
+		}
+
+		// ordered with saves of the buffer, which delete the
+		// autosave file
+		VFSManager.runInWorkThread(path,new BufferIORequest(
 			BufferIORequest.AUTOSAVE,null,this,null,
 			VFSManager.getFileVFS(),autosaveFile.getPath()));
 	} //}}}
@@ -468,29 +544,51 @@ public class Buffer implements EBComponent
 			}
 		}
 
-		setFlag(IO,true);
+		// requests for the old path, such as an autosave, would not
+		// be ordered with the save to the new path
+		if(path != null && !path.equals(this.path))
+			VFSManager.waitForRequests(this.path);
+
+		// the buffer remains editable while it is being saved; what
+		// gets written is a snapshot of the text as it is now
+		setFlag(SAVING,true);
 		EditBus.send(new BufferUpdate(this,view,BufferUpdate.SAVING));
 
 		final String oldPath = this.path;
 		final String newPath = (path == null ? this.path : path);
 
+		// the markers are saved with the positions they have in
+		// the snapshot
+		final ContentManager snapshot = getSnapshot();
+		final int savedModCount = snapshot.getModCount();
+		setProperty(BufferIORequest.SAVE_DATA,snapshot);
+		setProperty(BufferIORequest.SAVE_MARKERS,
+			BufferIORequest.getMarkersText(this));
+
 		VFS vfs = VFSManager.getVFSForPath(newPath);
 
 		if(!vfs.save(view,this,newPath))
 		{
-			setFlag(IO,false);
+			setFlag(SAVING,false);
+			unsetProperty(BufferIORequest.SAVE_DATA);
+			unsetProperty(BufferIORequest.SAVE_MARKERS);
+			snapshot.release();
 			return false;
 		}
 
 		// Once save is complete, do a few other things
-		VFSManager.runInAWTThread(new Runnable()
+		VFSManager.runInAWTThread(newPath,new Runnable()
 		{
 			public void run()
 			{
-				setFlag(IO,false);
+				setFlag(SAVING,false);
+				unsetProperty(BufferIORequest.SAVE_DATA);
+				unsetProperty(BufferIORequest.SAVE_MARKERS);
+				snapshot.release();
 				finishSaving(view,oldPath,newPath,rename,
 					getBooleanProperty(BufferIORequest
-					.ERROR_OCCURRED));
+					.ERROR_OCCURRED),
+					contentMgr.getModCount() != savedModCount);
 			}
 		});
 
@@ -499,17 +597,36 @@ public class Buffer implements EBComponent
 
 	//{{{ checkModTime() method
 	/**
-	 * Check if the buffer has changed on disk.
+	 * Check if the buffer has changed on disk. The file is looked at by
+	 * a background thread, so this does not need to access the disk.
 	 */
 	public void checkModTime(View view)
 	{
 		// don't do these checks while a save is in progress,
 		// because for a moment newModTime will be greater than
 		// oldModTime, due to the multithreading
-		if(file == null || getFlag(NEW_FILE) || getFlag(IO))
+		if(file == null || getFlag(NEW_FILE) || getFlag(IO)
+			|| getFlag(SAVING) || getFlag(DEFERRED))
 			return;
 
-		boolean newReadOnly = (file.exists() && !file.canWrite());
+		long newModTime;
+		boolean exists, canWrite;
+
+		FileWatcher.Status status = FileWatcher.getStatus(this);
+		if(status == null)
+		{
+			newModTime = file.lastModified();
+			exists = file.exists();
+			canWrite = file.canWrite();
+		}
+		else
+		{
+			newModTime = status.modTime;
+			exists = status.exists;
+			canWrite = status.canWrite;
+		}
+
+		boolean newReadOnly = (exists && !canWrite);
 		if(newReadOnly != getFlag(READ_ONLY))
 		{
 			setFlag(READ_ONLY,newReadOnly);
@@ -521,13 +638,12 @@ public class Buffer implements EBComponent
 			return;
 
 		long oldModTime = modTime;
-		long newModTime = file.lastModified();
 
 		if(newModTime != oldModTime)
 		{
 			modTime = newModTime;
 
-			if(!file.exists())
+			if(!exists)
 			{
 				setFlag(NEW_FILE,true);
 				EditBus.send(new BufferUpdate(this,
@@ -537,6 +653,14 @@ public class Buffer implements EBComponent
 				return;
 			}
 
+			// text appended to a followed file is added to the
+			// buffer without asking
+			if(getFlag(FOLLOWING) && !isDirty())
+			{
+				follow(view);
+				return;
+			}
+
 			String prop = (isDirty() ? "filechanged-dirty"
 				: "filechanged-focus");
 
@@ -549,6 +673,15 @@ public class Buffer implements EBComponent
 				view.getEditPane().saveCaretInfo();
 				load(view,true);
 			}
+			else
+			{
+				// the journal was written for the old
+				// contents of the file, so the next autosave
+				// must write the whole text
+				resetJournal(true);
+				if(isDirty())
+					setFlag(AUTOSAVE_DIRTY,true);
+			}
 		}
 	} //}}}
 
@@ -605,6 +738,17 @@ public class Buffer implements EBComponent
 		return autosaveFile;
 	} //}}}
 
+	//{{{ getAutosaveJournal() method
+	/**
+	 * Returns the journal of edits written to the autosave file. This
+	 * method is only used by the autosave I/O request.
+	 * @since jEdit 4.1pre1
+	 */
+	public final AutosaveJournal getAutosaveJournal()
+	{
+		return journal;
+	} //}}}
+
 	//{{{ getName() method
 	/**
 	 * Returns the name of this buffer.
@@ -642,6 +786,19 @@ public class Buffer implements EBComponent
 		return !getFlag(LOADING);
 	} //}}}
 
+	//{{{ isLoadDeferred() method
+	/**
+	 * Returns true if the buffer was restored from the previous session
+	 * and has not been loaded yet. Such a buffer only knows its path and
+	 * properties; it is empty, and {@link #isLoaded()} returns false,
+	 * until {@link #loadIfDeferred(View)} is called.
+	 * @since jEdit 4.1pre1
+	 */
+	public final boolean isLoadDeferred()
+	{
+		return getFlag(DEFERRED);
+	} //}}}
+
 	//{{{ isPerformingIO() method
 	/**
 	 * Returns true if the buffer is currently performing I/O.
@@ -649,7 +806,7 @@ public class Buffer implements EBComponent
 	 */
 	public final boolean isPerformingIO()
 	{
-		return getFlag(LOADING) || getFlag(IO);
+		return getFlag(LOADING) || getFlag(IO) || getFlag(SAVING);
 	} //}}}
 
 	//{{{ isNewFile() method
@@ -755,6 +912,49 @@ public class Buffer implements EBComponent
 		}
 	} //}}}
 
+	//{{{ isFollowing() method
+	/**
+	 * Returns if this buffer is following its file. When another
+	 * program appends text to a followed file, only the new text is
+	 * read, and it is added to the end of the buffer without asking.
+	 * Text areas with the caret at the end of the buffer scroll to
+	 * show it.
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean isFollowing()
+	{
+		return getFlag(FOLLOWING);
+	} //}}}
+
+	//{{{ setFollowing() method
+	/**
+	 * Starts or stops following this buffer's file. Only local files
+	 * can be followed.
+	 * @param view The view
+	 * @param following True to follow the file, false to stop
+	 * @since jEdit 4.1pre1
+	 */
+	public void setFollowing(View view, boolean following)
+	{
+		if(following && file == null)
+		{
+			Toolkit.getDefaultToolkit().beep();
+			return;
+		}
+
+		setFlag(FOLLOWING,following);
+
+		if(following)
+		{
+			JEditTextArea textArea = view.getTextArea();
+			if(textArea.getBuffer() == this)
+				textArea.setCaretPosition(getLength());
+
+			// catch up with text appended so far
+			FileWatcher.checkNow();
+		}
+	} //}}}
+
 	//{{{ isTemporary() method
 	/**
 	 * Returns if this is a temporary buffer.
@@ -1049,6 +1249,30 @@ public class Buffer implements EBComponent
 		}
 	} //}}}
 
+	//{{{ getSnapshot() method
+	/**
+	 * Returns a copy of the buffer text that is not affected by later
+	 * changes to the buffer, and can be read from any thread without
+	 * locking. Taking a snapshot is cheap; the text is only copied
+	 * if the buffer is changed before the snapshot is released. The
+	 * returned object must not be changed, and its
+	 * <code>release()</code> method must be called once it is no
+	 * longer needed.
+	 * @since jEdit 4.1pre1
+	 */
+	public ContentManager getSnapshot()
+	{
+		try
+		{
+			readLock();
+			return contentMgr.snapshot();
+		}
+		finally
+		{
+			readUnlock();
+		}
+	} //}}}
+
 	//}}}
 
 	//{{{ Text writing methods
@@ -1076,6 +1300,7 @@ public class Buffer implements EBComponent
 				throw new ArrayIndexOutOfBoundsException(offset);
 
 			contentMgr.insert(offset,str);
+			journal.contentInserted(offset,str);
 
 			integerArray.clear();
 
@@ -1091,7 +1316,7 @@ public class Buffer implements EBComponent
 					!getFlag(DIRTY));
 			}
 
-			contentInserted(offset,str.length(),integerArray);
+			contentInserted(offset,str.length(),integerArray,true);
 		}
 		finally
 		{
@@ -1122,6 +1347,7 @@ public class Buffer implements EBComponent
 				throw new ArrayIndexOutOfBoundsException(offset);
 
 			contentMgr.insert(offset,seg);
+			journal.contentInserted(offset,seg);
 
 			integerArray.clear();
 
@@ -1137,7 +1363,7 @@ public class Buffer implements EBComponent
 					seg.toString(),!getFlag(DIRTY));
 			}
 
-			contentInserted(offset,seg.count,integerArray);
+			contentInserted(offset,seg.count,integerArray,true);
 		}
 		finally
 		{
@@ -1184,19 +1410,22 @@ public class Buffer implements EBComponent
 			}
 
 			contentMgr.remove(offset,length);
+			journal.contentRemoved(offset,length);
 
-			if(lastTokenizedLine >= startLine)
-				lastTokenizedLine = -1;
+			tokenCache.linesRemoved(startLine,numLines);
+			bracketIndex.linesRemoved(startLine,numLines);
 
 			offsetMgr.contentRemoved(startLine,offset,numLines,length);
 
-			if(numLines > 0)
+			for(int i = 0; i < inUseFVMs.length; i++)
 			{
-				for(int i = 0; i < inUseFVMs.length; i++)
-				{
-					if(inUseFVMs[i] != null)
-						inUseFVMs[i]._invalidate(startLine);
-				}
+				if(inUseFVMs[i] == null)
+					continue;
+
+				if(numLines > 0)
+					inUseFVMs[i]._linesRemoved(startLine,numLines);
+				else
+					inUseFVMs[i]._screenLineCountChanged(startLine);
 			}
 
 			fireContentRemoved(startLine,offset,numLines,length);
@@ -1526,6 +1755,18 @@ public class Buffer implements EBComponent
 	{
 		parseFully = jEdit.getBooleanProperty("parseFully");
 
+		int _longLineLength = getIntegerProperty("longLineLength",0);
+		if(_longLineLength != longLineLength)
+		{
+			longLineLength = _longLineLength;
+			if(tokenMarker != null)
+			{
+				offsetMgr.lineInfoChangedFrom(0);
+				tokenCache.invalidate(0);
+				bracketIndex.invalidate(0);
+			}
+		}
+
 		setTokenMarker(mode.getTokenMarker());
 
 		String folding = getStringProperty("folding");
@@ -1851,8 +2092,8 @@ public class Buffer implements EBComponent
 
 	//{{{ setMode() method
 	/**
-	 * Sets this buffer's edit mode by calling the accept() method
-	 * of each registered edit mode.
+	 * Sets this buffer's edit mode by looking for the first registered
+	 * edit mode that accepts the buffer's name and first line.
 	 */
 	public void setMode()
 	{
@@ -1869,17 +2110,11 @@ public class Buffer implements EBComponent
 
 		String nogzName = name.substring(0,name.length() -
 			(name.endsWith(".gz") ? 3 : 0));
-		Mode[] modes = jEdit.getModes();
-
-		String firstLine = getLineText(0);
-
-		for(int i = 0; i < modes.length; i++)
+		Mode mode = jEdit.getModeForFile(nogzName,getLineText(0));
+		if(mode != null)
 		{
-			if(modes[i].accept(nogzName,firstLine))
-			{
-				setMode(modes[i]);
-				return;
-			}
+			setMode(mode);
+			return;
 		}
 
 		Mode defaultMode = jEdit.getMode(jEdit.getProperty("buffer.defaultMode"));
@@ -2182,7 +2417,9 @@ public class Buffer implements EBComponent
 
 	//{{{ markTokens() method
 	/**
-	 * Returns the syntax tokens for the specified line.
+	 * Returns the syntax tokens for the specified line. The tokens of
+	 * recently used lines are cached, so the returned token list might
+	 * be shared with other callers and must not be modified.
 	 * @param lineIndex The line number
 	 * @since jEdit 4.0pre1
 	 */
@@ -2196,8 +2433,13 @@ public class Buffer implements EBComponent
 				throw new ArrayIndexOutOfBoundsException(lineIndex);
 
 			/* If cached tokens are valid, return 'em */
-			if(lastTokenizedLine == lineIndex)
-				return tokenList;
+			if(offsetMgr.isLineContextValid(lineIndex))
+			{
+				TokenList tokens = tokenCache.get(lineIndex);
+				if(tokens != null && tokens.context
+					== offsetMgr.getLineContext(lineIndex))
+					return tokens;
+			}
 
 			/*
 			 * Else, go up back, looking for a line with
@@ -2224,16 +2466,13 @@ public class Buffer implements EBComponent
 				}
 			}
 
+			TokenList tokens = null;
+
 			for(int i = start + 1; i <= lineIndex; i++)
 			{
-				getLineText(i,seg);
-
 				TokenMarker.LineContext prevContext = (i == 0 ? null
 					: offsetMgr.getLineContext(i - 1));
 
-				/* Prepare tokenization */
-				tokenList.lastToken = null;
-
 				TokenMarker.LineContext context = offsetMgr.getLineContext(i);
 				ParserRule oldRule;
 				ParserRuleSet oldRules;
@@ -2248,7 +2487,27 @@ public class Buffer implements EBComponent
 					oldRules = context.rules;
 				}
 
-				context = tokenMarker.markTokens(prevContext,tokenList,seg);
+				/* The line's text hasn't changed since it was
+				 * cached, so if it starts in the same context,
+				 * its tokens are still valid */
+				tokens = tokenCache.get(i);
+				if(tokens == null || tokens.prevContext != prevContext)
+				{
+					getLineText(i,seg);
+
+					tokens = new TokenList();
+					tokens.prevContext = prevContext;
+					if(longLineLength > 0 && seg.count > longLineLength)
+						markLongLine(tokens);
+					else
+					{
+						tokens.context = tokenMarker.markTokens(
+							prevContext,tokens,seg);
+					}
+					tokenCache.put(i,tokens);
+				}
+
+				context = tokens.context;
 				offsetMgr.setLineContext(i,context);
 
 				// Could incorrectly be set to 'false' with
@@ -2258,19 +2517,194 @@ public class Buffer implements EBComponent
 					nextLineRequested = true;
 				else if(oldRules != context.rules)
 					nextLineRequested = true;
-				//else if(i != lastTokenizedLine)
-				//	nextLineRequested = false;
 			}
 
-			lastTokenizedLine = lineIndex;
+			int lineCount = offsetMgr.getLineCount();
+			if(nextLineRequested && lineCount - lineIndex > 1)
+			{
+				offsetMgr.lineContextChangedFrom(lineIndex + 1);
+				bracketIndex.invalidate(lineIndex + 1);
+			}
+
+			return tokens;
+		}
+		finally
+		{
+			writeUnlock();
+		}
+	} //}}}
+
+	//{{{ markTokens() method
+	/**
+	 * Computes the syntax tokens for the specified line into a token
+	 * list owned by the caller, without storing them in the cache of
+	 * recently used lines. This is meant for going through many lines
+	 * that are not being painted, such as when computing screen line
+	 * counts, which would otherwise push the lines on screen out of the
+	 * cache. The previous line should have been tokenized already.
+	 * @param lineIndex The line number
+	 * @param tokens The token list to reuse, which is cleared first
+	 * @since jEdit 4.1pre1
+	 */
+	public TokenList markTokens(int lineIndex, TokenList tokens)
+	{
+		try
+		{
+			writeLock();
+
+			if(lineIndex < 0 || lineIndex >= offsetMgr.getLineCount())
+				throw new ArrayIndexOutOfBoundsException(lineIndex);
+
+			TokenMarker.LineContext prevContext;
+			if(lineIndex == 0)
+				prevContext = null;
+			else
+			{
+				// this does use the cache, but only if lines
+				// are not tokenized in order
+				if(!offsetMgr.isLineContextValid(lineIndex - 1))
+					markTokens(lineIndex - 1);
+				prevContext = offsetMgr.getLineContext(lineIndex - 1);
+			}
+
+			TokenMarker.LineContext context = offsetMgr.getLineContext(lineIndex);
+			ParserRule oldRule;
+			ParserRuleSet oldRules;
+			if(context == null)
+			{
+				oldRule = null;
+				oldRules = null;
+			}
+			else
+			{
+				oldRule = context.inRule;
+				oldRules = context.rules;
+			}
+
+			getLineText(lineIndex,seg);
+
+			// addToken() reuses the existing tokens
+			tokens.lastToken = null;
+			tokens.prevContext = prevContext;
+			tokens.chunkContexts = null;
+			if(longLineLength > 0 && seg.count > longLineLength)
+				markLongLine(tokens);
+			else
+			{
+				tokens.context = tokenMarker.markTokens(
+					prevContext,tokens,seg);
+			}
+
+			context = tokens.context;
+			offsetMgr.setLineContext(lineIndex,context);
+
+			// see above
+			if(oldRule != context.inRule)
+				nextLineRequested = true;
+			else if(oldRules != context.rules)
+				nextLineRequested = true;
 
 			int lineCount = offsetMgr.getLineCount();
 			if(nextLineRequested && lineCount - lineIndex > 1)
 			{
-				offsetMgr.lineInfoChangedFrom(lineIndex + 1);
+				offsetMgr.lineContextChangedFrom(lineIndex + 1);
+				bracketIndex.invalidate(lineIndex + 1);
+			}
+
+			return tokens;
+		}
+		finally
+		{
+			writeUnlock();
+		}
+	} //}}}
+
+	//{{{ markTokens() method
+	/**
+	 * Returns the syntax tokens for part of the specified line. The
+	 * first token starts at <code>start</code>, and the last token
+	 * ends at <code>end</code>.<p>
+	 *
+	 * Lines longer than the <code>longLineLength</code> buffer property
+	 * are not tokenized as a whole; <code>markTokens(int)</code> returns
+	 * a single token for them. This method tokenizes only the parts of
+	 * such a line around the specified range, in pieces of a few
+	 * thousand characters. The context at the start of each piece is
+	 * remembered, so that tokenizing can resume from there later. Rules
+	 * that stop at the end of a line also stop at the end of a piece,
+	 * and if the parse fully option is off, only a limited number of
+	 * pieces before the range are looked at, so highlighting of long
+	 * lines is not always exact.<p>
+	 *
+	 * The returned token list is not shared and may be modified.
+	 *
+	 * @param lineIndex The line number
+	 * @param start The start offset, from the start of the line
+	 * @param end The end offset, from the start of the line
+	 * @since jEdit 4.1pre1
+	 */
+	public TokenList markTokens(int lineIndex, int start, int end)
+	{
+		try
+		{
+			writeLock();
+
+			TokenList lineTokens = markTokens(lineIndex);
+			TokenList tokens = new TokenList();
+
+			ParserRuleSet rules = lineTokens.context.rules;
+
+			if(lineTokens.chunkContexts == null)
+			{
+				copyTokens(lineTokens.firstToken,0,start,end,tokens);
+				tokens.addToken(0,Token.END,rules);
+				return tokens;
 			}
 
-			return tokenList;
+			getLineText(lineIndex,seg);
+
+			TokenMarker.LineContext[] contexts = lineTokens.chunkContexts;
+
+			int firstChunk = start / LONG_LINE_CHUNK;
+			int lastChunk = Math.min(contexts.length - 2,Math.max(
+				firstChunk,(end - 1) / LONG_LINE_CHUNK));
+
+			// go back to a piece whose starting context is known
+			int limit = (parseFully ? 0 : Math.max(0,
+				firstChunk - LONG_LINE_LOOKBACK));
+			int chunk = firstChunk;
+			while(chunk > limit && contexts[chunk] == null)
+				chunk--;
+
+			TokenMarker.LineContext context = contexts[chunk];
+			if(context == null)
+				context = contexts[0];
+
+			TokenList chunkTokens = new TokenList();
+			Segment chunkSeg = new Segment(seg.array,0,0);
+
+			for(; chunk <= lastChunk; chunk++)
+			{
+				int chunkStart = chunk * LONG_LINE_CHUNK;
+				chunkSeg.offset = seg.offset + chunkStart;
+				chunkSeg.count = Math.min(LONG_LINE_CHUNK,
+					seg.count - chunkStart);
+
+				chunkTokens.lastToken = null;
+				context = tokenMarker.markTokens(context,
+					chunkTokens,chunkSeg);
+				if(contexts[chunk + 1] == null)
+					contexts[chunk + 1] = context;
+
+				if(chunk >= firstChunk)
+				{
+					copyTokens(chunkTokens.firstToken,chunkStart,
+						start,end,tokens);
+				}
+			}
+
+			tokens.addToken(0,Token.END,rules);
+			return tokens;
 		}
 		finally
 		{
@@ -2278,6 +2712,20 @@ public class Buffer implements EBComponent
 		}
 	} //}}}
 
+	//{{{ isLongLine() method
+	/**
+	 * Returns true if the specified line is longer than the
+	 * <code>longLineLength</code> buffer property. Such lines are only
+	 * tokenized and laid out around the part that is visible.
+	 * @param lineIndex The line number
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean isLongLine(int lineIndex)
+	{
+		return longLineLength > 0
+			&& getLineLength(lineIndex) > longLineLength;
+	} //}}}
+
 	//{{{ isNextLineRequested() method
 	/**
 	 * Returns true if the next line should be repainted. This
@@ -2353,7 +2801,7 @@ public class Buffer implements EBComponent
 	 */
 	public final boolean isSaving()
 	{
-		return getFlag(IO);
+		return getFlag(IO) || getFlag(SAVING);
 	} //}}}
 
 	//{{{ tokenizeLines() method
@@ -2510,43 +2958,57 @@ public class Buffer implements EBComponent
 			if(line < 0 || line >= offsetMgr.getLineCount())
 				throw new ArrayIndexOutOfBoundsException(line);
 
-			if(offsetMgr.isFoldLevelValid(line))
+			int start = offsetMgr.getFirstInvalidFoldLevel();
+			if(line < start)
 			{
 				//System.err.println("level valid: " + line + ":"
 				//	+ offsetMgr.getFoldLevel(line));
 				return offsetMgr.getFoldLevel(line);
 			}
-			else
+
+			/*
+			 * Only lines whose 'fold level valid' flag is cleared
+			 * need to be recomputed. If a line's fold level
+			 * changes, the next line is invalidated too; as soon
+			 * as a recomputed fold level is the same as before,
+			 * the lines after it are known to be up to date.
+			 */
+			int firstChanged = -1;
+			int lastChanged = -1;
+
+			for(int i = start; i <= line; i++)
 			{
-				int start = 0;
-				for(int i = line - 1; i >= 0; i--)
-				{
-					if(offsetMgr.isFoldLevelValid(i))
-					{
-						start = i + 1;
-						break;
-					}
-				}
+				if(offsetMgr.isFoldLevelValid(i))
+					continue;
 
-				int newFoldLevel = 0;
-				boolean changed = false;
+				// fold handlers call getFoldLevel() on the
+				// previous line, which is valid now
+				offsetMgr.setFirstInvalidFoldLevel(i);
 
-				for(int i = start; i <= line; i++)
-				{
-					newFoldLevel = foldHandler.getFoldLevel(this,i,seg);
-					if(newFoldLevel != offsetMgr.getFoldLevel(i))
-						changed = true;
-					offsetMgr.setFoldLevel(i,newFoldLevel);
-				}
+				int oldFoldLevel = offsetMgr.getFoldLevel(i);
+				int newFoldLevel = foldHandler.getFoldLevel(this,i,seg);
+				offsetMgr.setFoldLevel(i,newFoldLevel);
 
-				if(changed && !getFlag(INSIDE_INSERT))
+				if(newFoldLevel != oldFoldLevel)
 				{
-					//System.err.println("fold level changed: " + start + ":" + line);
-					fireFoldLevelChanged(start,line);
+					if(firstChanged == -1)
+						firstChanged = i;
+					lastChanged = i;
+
+					if(i != offsetMgr.getLineCount() - 1)
+						offsetMgr.invalidateFoldLevel(i + 1);
 				}
+			}
 
-				return newFoldLevel;
+			offsetMgr.setFirstInvalidFoldLevel(line + 1);
+
+			if(firstChanged != -1 && !getFlag(INSIDE_INSERT))
+			{
+				//System.err.println("fold level changed: " + firstChanged + ":" + lastChanged);
+				fireFoldLevelChanged(firstChanged,lastChanged);
 			}
+
+			return offsetMgr.getFoldLevel(line);
 		}
 		finally
 		{
@@ -2941,6 +3403,40 @@ public class Buffer implements EBComponent
 		throw new InternalError("Too many text areas editing this buffer");
 	} //}}}
 
+	//{{{ _setScreenLineCount() method
+	/**
+	 * Plugins and macros should not call this method.
+	 * @param line The physical line
+	 * @param count The number of screen lines the line is split into by
+	 * soft wrap
+	 * @return True if the count changed
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean _setScreenLineCount(int line, int count)
+	{
+		try
+		{
+			writeLock();
+
+			if(offsetMgr.getScreenLineCount(line) == count)
+				return false;
+
+			offsetMgr.setScreenLineCount(line,count);
+
+			for(int i = 0; i < inUseFVMs.length; i++)
+			{
+				if(inUseFVMs[i] != null)
+					inUseFVMs[i]._screenLineCountChanged(line);
+			}
+
+			return true;
+		}
+		finally
+		{
+			writeUnlock();
+		}
+	} //}}}
+
 	//{{{ _releaseFoldVisibilityManager() method
 	/**
 	 * Plugins and macros should not call this method.
@@ -2959,6 +3455,18 @@ public class Buffer implements EBComponent
 	Buffer prev;
 	Buffer next;
 
+	//{{{ getBracketIndex() method
+	/**
+	 * Used by the <code>TextUtilities</code> class. The buffer must be
+	 * write locked while the bracket index is in use, since searching
+	 * it tokenizes lines.
+	 * @since jEdit 4.1pre1
+	 */
+	BracketIndex getBracketIndex()
+	{
+		return bracketIndex;
+	} //}}}
+
 	//{{{ Buffer constructor
 	Buffer(String path, boolean newFile, boolean temp, Hashtable props)
 	{
@@ -2973,14 +3481,15 @@ public class Buffer implements EBComponent
 
 		lock = new ReadWriteLock();
 		contentMgr = new ContentManager();
+		journal = new AutosaveJournal();
 		offsetMgr = new OffsetManager(this);
 		integerArray = new IntegerArray();
 		undoMgr = new UndoManager(this);
 		bufferListeners = new Vector();
 
 		seg = new Segment();
-		lastTokenizedLine = -1;
-		tokenList = new TokenList();
+		tokenCache = new TokenListCache(TOKEN_CACHE_SIZE);
+		bracketIndex = new BracketIndex(this);
 
 		inUseFVMs = new FoldVisibilityManager[8];
 
@@ -3025,6 +3534,21 @@ public class Buffer implements EBComponent
 		EditBus.addToBus(this);
 
 		finishLoading();
+
+		FileWatcher.watch(this);
+	} //}}}
+
+	//{{{ deferLoad() method
+	/**
+	 * Marks a buffer restored from the previous session as not loaded,
+	 * without reading the file. The edit mode is chosen from the file
+	 * name, and chosen again once the buffer is loaded.
+	 */
+	void deferLoad()
+	{
+		setFlag(LOADING,true);
+		setFlag(DEFERRED,true);
+		setMode();
 	} //}}}
 
 	//{{{ close() method
@@ -3032,9 +3556,13 @@ public class Buffer implements EBComponent
 	{
 		setFlag(CLOSED,true);
 
-		if(autosaveFile != null)
+		// a deferred buffer has not offered to recover its autosave
+		// file yet
+		if(autosaveFile != null && !getFlag(DEFERRED))
 			autosaveFile.delete();
 
+		FileWatcher.unwatch(this);
+
 		EditBus.removeFromBus(this);
 	} //}}}
 
@@ -3072,12 +3600,21 @@ public class Buffer implements EBComponent
 	private static final int UNDO_IN_PROGRESS = 8;
 	private static final int TEMPORARY = 9;
 	private static final int INSIDE_INSERT = 10;
+	private static final int SAVING = 11;
+	private static final int FOLLOWING = 12;
+	private static final int DEFERRED = 13;
 	//}}}
 
 	private int flags;
 
 	//}}}
 
+	/**
+	 * Number of lines whose syntax tokens are cached. Should be a
+	 * few times the number of lines visible in a text area.
+	 */
+	private static final int TOKEN_CACHE_SIZE = 512;
+
 	//{{{ Instance variables
 	private VFS vfs;
 	private String path;
@@ -3093,6 +3630,7 @@ public class Buffer implements EBComponent
 	private OffsetManager offsetMgr;
 	private IntegerArray integerArray;
 	private UndoManager undoMgr;
+	private AutosaveJournal journal;
 	private Vector bufferListeners;
 
 	private Vector markers;
@@ -3101,9 +3639,16 @@ public class Buffer implements EBComponent
 	private boolean parseFully;
 	private TokenMarker tokenMarker;
 	private Segment seg;
-	private int lastTokenizedLine;
+	private TokenListCache tokenCache;
 	private boolean nextLineRequested;
-	private TokenList tokenList;
+
+	// Long lines are tokenized in pieces of this many characters
+	private static final int LONG_LINE_CHUNK = 4096;
+	private static final int LONG_LINE_LOOKBACK = 16;
+	private int longLineLength;
+
+	// Bracket matching
+	private BracketIndex bracketIndex;
 
 	// Folding
 	private FoldHandler foldHandler;
@@ -3111,6 +3656,52 @@ public class Buffer implements EBComponent
 
 	//}}}
 
+	//{{{ markLongLine() method
+	/**
+	 * Long lines are returned as a single token by markTokens(), and
+	 * are assumed to end in the same context that they start in. The
+	 * line text must be in <code>seg</code>.
+	 */
+	private void markLongLine(TokenList tokens)
+	{
+		TokenMarker.LineContext context = tokens.prevContext;
+		if(context == null)
+		{
+			context = new TokenMarker.LineContext(
+				tokenMarker.getMainRuleSet(),null).intern();
+		}
+
+		tokens.addToken(seg.count,Token.NULL,context.rules);
+		tokens.addToken(0,Token.END,context.rules);
+		tokens.context = context;
+
+		tokens.chunkContexts = new TokenMarker.LineContext[
+			(seg.count + LONG_LINE_CHUNK - 1) / LONG_LINE_CHUNK + 1];
+		tokens.chunkContexts[0] = context;
+	} //}}}
+
+	//{{{ copyTokens() method
+	/**
+	 * Adds the parts of the tokens that are between <code>start</code>
+	 * and <code>end</code> to a token list.
+	 * @param tokens The first token
+	 * @param tokenStart The offset of the first token
+	 */
+	private static void copyTokens(Token tokens, int tokenStart,
+		int start, int end, TokenList out)
+	{
+		for(; tokens.id != Token.END && tokenStart < end;
+			tokens = tokens.next)
+		{
+			int tokenEnd = tokenStart + tokens.length;
+			int from = Math.max(start,tokenStart);
+			int to = Math.min(end,tokenEnd);
+			if(from < to)
+				out.addToken(to - from,tokens.id,tokens.rules);
+			tokenStart = tokenEnd;
+		}
+	} //}}}
+
 	//{{{ setPath() method
 	private void setPath(String path)
 	{
@@ -3133,8 +3724,11 @@ public class Buffer implements EBComponent
 		}
 	} //}}}
 
-	//{{{ recoverAutosave() method
-	private boolean recoverAutosave(final View view)
+	//{{{ confirmAutosave() method
+	/**
+	 * Asks the user if the autosave file should be recovered.
+	 */
+	private boolean confirmAutosave(View view)
 	{
 		if(!autosaveFile.canRead())
 			return false;
@@ -3142,12 +3736,24 @@ public class Buffer implements EBComponent
 		// this method might get called at startup
 		GUIUtilities.hideSplashScreen();
 
-		final Object[] args = { autosaveFile.getPath() };
+		Object[] args = { autosaveFile.getPath() };
 		int result = GUIUtilities.confirm(view,"autosave-found",args,
 			JOptionPane.YES_NO_OPTION,JOptionPane.WARNING_MESSAGE);
 
-		if(result == JOptionPane.YES_OPTION)
+		return (result == JOptionPane.YES_OPTION);
+	} //}}}
+
+	//{{{ recoverAutosave() method
+	/**
+	 * Loads an autosave file written by an older version of jEdit,
+	 * which holds a copy of the buffer text instead of a journal.
+	 */
+	private boolean recoverAutosave(final View view)
+	{
+		if(confirmAutosave(view))
 		{
+			final Object[] args = { autosaveFile.getPath() };
+
 			vfs.load(view,this,autosaveFile.getPath());
 
 			// show this message when all I/O requests are
@@ -3166,6 +3772,204 @@ public class Buffer implements EBComponent
 			return false;
 	} //}}}
 
+	//{{{ replayJournal() method
+	/**
+	 * Applies the edits in the autosave journal to the file just
+	 * loaded.
+	 */
+	private void replayJournal(View view)
+	{
+		if(file == null || getBooleanProperty(
+			BufferIORequest.ERROR_OCCURRED))
+			return;
+
+		// below insert() and remove() calls only work if read only
+		// is false
+		boolean readOnly = isReadOnly();
+		setFlag(READ_ONLY,false);
+
+		Object[] args = { autosaveFile.getPath(), null, null };
+
+		try
+		{
+			beginCompoundEdit();
+			AutosaveJournal.replay(autosaveFile,this,modTime,
+				file.length());
+			GUIUtilities.message(view,"autosave-loaded",args);
+		}
+		catch(IOException io)
+		{
+			Log.log(Log.ERROR,this,io);
+
+			// the journal would be overwritten by the next
+			// autosave, so it is kept under another name for
+			// the user to recover the edits by hand
+			File keep = new File(autosaveFile.getParent(),
+				'#' + name + "#journal#");
+			keep.delete();
+			if(autosaveFile.renameTo(keep))
+				args[2] = keep.getPath();
+			else
+				args[2] = autosaveFile.getPath();
+
+			args[1] = io.getMessage();
+			GUIUtilities.error(view,"autosave-journal-error",args);
+		}
+		finally
+		{
+			endCompoundEdit();
+			setFlag(READ_ONLY,readOnly);
+		}
+	} //}}}
+
+	//{{{ resetJournal() method
+	/**
+	 * Starts a new autosave journal after the buffer has been loaded
+	 * or saved.
+	 * @param checkpoint True if the buffer text is not the same as the
+	 * file on disk
+	 */
+	private void resetJournal(boolean checkpoint)
+	{
+		try
+		{
+			writeLock();
+
+			if(file == null)
+				journal.reset(0L,0L,true,getLength());
+			else
+			{
+				journal.reset(modTime,file.length(),checkpoint,
+					getLength());
+			}
+		}
+		finally
+		{
+			writeUnlock();
+		}
+	} //}}}
+
+	//{{{ follow() method
+	/**
+	 * Reads the text appended to the file since it was last read.
+	 */
+	private void follow(final View view)
+	{
+		setBooleanProperty(BufferIORequest.ERROR_OCCURRED,false);
+		setFlag(IO,true);
+
+		VFSManager.runInWorkThread(path,new BufferIORequest(
+			BufferIORequest.APPEND,view,this,null,
+			VFSManager.getFileVFS(),path));
+
+		VFSManager.runInAWTThread(path,new Runnable()
+		{
+			public void run()
+			{
+				setFlag(IO,false);
+				finishFollowing(view);
+			}
+		});
+	} //}}}
+
+	//{{{ finishFollowing() method
+	private void finishFollowing(View view)
+	{
+		if(getBooleanProperty(BufferIORequest.ERROR_OCCURRED))
+			return;
+
+		String text = (String)getProperty(BufferIORequest.APPEND_DATA);
+		unsetProperty(BufferIORequest.APPEND_DATA);
+
+		// the file was truncated or replaced, or can't be read
+		// incrementally
+		if(text == null)
+		{
+			load(view,true);
+			return;
+		}
+
+		if(text.length() != 0)
+			appendFollowedText(text);
+
+		// the file might have changed again while it was being
+		// read
+		checkModTime(view);
+	} //}}}
+
+	//{{{ appendFollowedText() method
+	private void appendFollowedText(String text)
+	{
+		// text areas with the caret at the end stay at the end
+		Vector following = new Vector();
+		View[] views = jEdit.getViews();
+		for(int i = 0; i < views.length; i++)
+		{
+			EditPane[] editPanes = views[i].getEditPanes();
+			for(int j = 0; j < editPanes.length; j++)
+			{
+				JEditTextArea textArea = editPanes[j].getTextArea();
+				if(textArea.getBuffer() == this
+					&& textArea.getCaretPosition() == getLength())
+					following.addElement(textArea);
+			}
+		}
+
+		appendText(text);
+
+		// the journal applies to the file as it is now
+		resetJournal(false);
+
+		for(int i = 0; i < following.size(); i++)
+		{
+			((JEditTextArea)following.elementAt(i))
+				.setCaretPosition(getLength());
+		}
+	} //}}}
+
+	//{{{ appendText() method
+	/**
+	 * Adds text read from the file to the end of the buffer. This
+	 * cannot be undone, and does not make the buffer dirty.
+	 * @param text The text; it always ends with a newline
+	 */
+	private void appendText(String text)
+	{
+		try
+		{
+			writeLock();
+
+			int offset = contentMgr.getLength();
+
+			// if the file ended with a newline, the appended
+			// text starts a new line; the newline at the end
+			// of the appended text is not stored in the buffer
+			String str = text.substring(0,text.length() - 1);
+			if(getBooleanProperty(TRAILING_EOL))
+				str = "\n" + str;
+			setBooleanProperty(TRAILING_EOL,true);
+
+			if(str.length() == 0)
+				return;
+
+			contentMgr.insert(offset,str);
+
+			integerArray.clear();
+
+			for(int i = 0; i < str.length(); i++)
+			{
+				if(str.charAt(i) == '\n')
+					integerArray.add(i);
+			}
+
+			contentInserted(offset,str.length(),integerArray,false);
+		}
+		finally
+		{
+			writeUnlock();
+		}
+	} //}}}
+
 	//{{{ finishLoading() method
 	private void finishLoading()
 	{
@@ -3181,7 +3985,7 @@ public class Buffer implements EBComponent
 
 	//{{{ finishSaving() method
 	private void finishSaving(View view, String oldPath, String path,
-		boolean rename, boolean error)
+		boolean rename, boolean error, boolean changed)
 	{
 		//{{{ Set the buffer's path
 		// Caveat: won't work if save() called with a relative path.
@@ -3236,19 +4040,32 @@ public class Buffer implements EBComponent
 				{
 					writeLock();
 
-					if(autosaveFile != null)
-						autosaveFile.delete();
-
-					setFlag(AUTOSAVE_DIRTY,false);
 					setFlag(READ_ONLY,false);
 					setFlag(NEW_FILE,false);
 					setFlag(UNTITLED,false);
-					setFlag(DIRTY,false);
 
-					// this ensures that undo can clear
-					// the dirty flag properly when all
-					// edits up to a save are undone
-					undoMgr.bufferSaved();
+					// the autosave journal applies to the
+					// old contents of the file
+					if(autosaveFile != null)
+						autosaveFile.delete();
+
+					// if the buffer was edited while it
+					// was being saved, the edits are not
+					// in the file, so it is still dirty
+					if(changed)
+						setFlag(AUTOSAVE_DIRTY,true);
+					else
+					{
+						setFlag(AUTOSAVE_DIRTY,false);
+						setFlag(DIRTY,false);
+
+						// this ensures that undo can clear
+						// the dirty flag properly when all
+						// edits up to a save are undone
+						undoMgr.bufferSaved();
+					}
+
+					resetJournal(changed);
 				}
 				finally
 				{
@@ -3272,6 +4089,14 @@ public class Buffer implements EBComponent
 				EditBus.send(new BufferUpdate(Buffer.this,
 					view,BufferUpdate.SAVED));
 			}
+
+			// the position up to which the file was read no
+			// longer applies, so the next change is followed
+			// by reloading the file
+			unsetProperty(BufferIORequest.FOLLOW_OFFSET);
+			unsetProperty(BufferIORequest.FOLLOW_TAIL);
+
+			FileWatcher.watch(this);
 		} //}}}
 	} //}}}
 
@@ -3404,7 +4229,8 @@ public class Buffer implements EBComponent
 		if(oldTokenMarker != null && tokenMarker != oldTokenMarker)
 		{
 			offsetMgr.lineInfoChangedFrom(0);
-			lastTokenizedLine = -1;
+			tokenCache.invalidate(0);
+			bracketIndex.invalidate(0);
 		}
 	} //}}}
 
@@ -3435,7 +4261,7 @@ public class Buffer implements EBComponent
 
 	//{{{ contentInserted() method
 	private void contentInserted(int offset, int length,
-		IntegerArray endOffsets)
+		IntegerArray endOffsets, boolean dirty)
 	{
 		try
 		{
@@ -3447,20 +4273,23 @@ public class Buffer implements EBComponent
 			offsetMgr.contentInserted(startLine,offset,numLines,length,
 				endOffsets);
 
-			if(numLines > 0)
+			// notify fold visibility managers
+			for(int i = 0; i < inUseFVMs.length; i++)
 			{
-				// notify fold visibility managers
-				for(int i = 0; i < inUseFVMs.length; i++)
-				{
-					if(inUseFVMs[i] != null)
-						inUseFVMs[i]._invalidate(startLine);
-				}
+				if(inUseFVMs[i] == null)
+					continue;
+
+				if(numLines > 0)
+					inUseFVMs[i]._linesInserted(startLine,numLines);
+				else
+					inUseFVMs[i]._screenLineCountChanged(startLine);
 			}
 
-			if(lastTokenizedLine >= startLine)
-				lastTokenizedLine = -1;
+			tokenCache.linesInserted(startLine,numLines);
+			bracketIndex.linesInserted(startLine,numLines);
 
-			setDirty(true);
+			if(dirty)
+				setDirty(true);
 
 			if(!getFlag(LOADING))
 				fireContentInserted(startLine,offset,numLines,length);
@@ -3623,5 +4452,13 @@ public class Buffer implements EBComponent
 
 		private Token firstToken;
 		private Token lastToken;
+
+		// contexts at the start and end of the line
+		private TokenMarker.LineContext prevContext;
+		private TokenMarker.LineContext context;
+
+		// for long lines, the contexts at the start of each piece
+		// that has been tokenized, or null
+		private TokenMarker.LineContext[] chunkContexts;
 	} //}}}
 }
@@ -81,6 +81,10 @@ public class EditPane extends JPanel implements EBComponent
 			saveCaretInfo();
 		this.buffer = buffer;
 
+		// buffers restored from the previous session are
+		// loaded when they are first shown
+		buffer.loadIfDeferred(view);
+
 		textArea.setBuffer(buffer);
 
 		if(!init)
@@ -111,6 +115,8 @@ public class EditPane extends JPanel implements EBComponent
 			}
 		});
 
+		FileWatcher.checkNow();
+
 		// Only do this after all I/O requests are complete
 		Runnable runnable = new Runnable()
 		{
@@ -122,7 +128,7 @@ public class EditPane extends JPanel implements EBComponent
 		};
 
 		if(buffer.isPerformingIO())
-			VFSManager.runInAWTThread(runnable);
+			VFSManager.runInAWTThread(buffer.getPath(),runnable);
 		else
 			runnable.run();
 	} //}}}
@@ -366,6 +372,8 @@ public class EditPane extends JPanel implements EBComponent
 			"view.antiAlias"));
 		painter.setFractionalFontMetricsEnabled(jEdit.getBooleanProperty(
 			"view.fracFontMetrics"));
+		painter.setScrollBlittingEnabled(jEdit.getBooleanProperty(
+			"view.scrollBlitting"));
 		painter.setStyles(GUIUtilities.loadStyles(
 			jEdit.getProperty("view.font"),
 			jEdit.getIntegerProperty("view.fontsize",12)));
@@ -0,0 +1,325 @@
+/*
+ * FileWatcher.java - Watches the files of open buffers for changes
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit;
+
+//{{{ Imports
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.util.*;
+import org.gjt.sp.jedit.io.DirectoryCache;
+import org.gjt.sp.util.Log;
+//}}}
+
+/**
+ * Looks at the files of open buffers from a background thread, so that
+ * checking if they have been changed by another program does not have
+ * to touch the disk in the event dispatch thread.<p>
+ *
+ * The thread looks at every watched file every few seconds, and also
+ * as soon as a view is activated or a buffer is selected. The results
+ * are stored, and read by {@link Buffer#checkModTime(View)}. If a file
+ * has changed and its buffer is showing in the focused view, the user
+ * is asked about it straight away; otherwise, this happens the next
+ * time the buffer is brought into view, as before. Buffers following
+ * their files are updated as soon as a change is seen.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class FileWatcher
+{
+	//{{{ watch() method
+	/**
+	 * Starts watching the file of a buffer, or records that it has just
+	 * been loaded or saved. Called from the event dispatch thread.
+	 */
+	static void watch(Buffer buffer)
+	{
+		File file = buffer.getFile();
+		if(file == null || buffer.isTemporary())
+		{
+			unwatch(buffer);
+			return;
+		}
+
+		Status status = new Status(file,buffer.getLastModified(),
+			!buffer.isNewFile(),!buffer.isReadOnly());
+
+		synchronized(lock)
+		{
+			Entry entry = (Entry)entries.get(buffer);
+			if(entry == null)
+			{
+				entry = new Entry(buffer);
+				entries.put(buffer,entry);
+			}
+
+			entry.status = status;
+			entry.version++;
+
+			if(thread == null)
+			{
+				thread = new WatchThread();
+				thread.start();
+			}
+		}
+	} //}}}
+
+	//{{{ unwatch() method
+	/**
+	 * Stops watching the file of a buffer.
+	 */
+	static void unwatch(Buffer buffer)
+	{
+		synchronized(lock)
+		{
+			entries.remove(buffer);
+		}
+	} //}}}
+
+	//{{{ getStatus() method
+	/**
+	 * Returns what is known about the file of a buffer, or null if it
+	 * is not being watched.
+	 */
+	static Status getStatus(Buffer buffer)
+	{
+		synchronized(lock)
+		{
+			Entry entry = (Entry)entries.get(buffer);
+			if(entry == null || !entry.status.file.equals(
+				buffer.getFile()))
+				return null;
+			else
+				return entry.status;
+		}
+	} //}}}
+
+	//{{{ checkNow() method
+	/**
+	 * Makes the thread look at all watched files without waiting.
+	 */
+	static void checkNow()
+	{
+		synchronized(lock)
+		{
+			checkNow = true;
+			lock.notify();
+		}
+	} //}}}
+
+	//{{{ Status class
+	/**
+	 * The state of a file when it was last looked at.
+	 */
+	static class Status
+	{
+		File file;
+		long modTime;
+		boolean exists;
+		boolean canWrite;
+
+		Status(File file, long modTime, boolean exists,
+			boolean canWrite)
+		{
+			this.file = file;
+			this.modTime = modTime;
+			this.exists = exists;
+			this.canWrite = canWrite;
+		}
+	} //}}}
+
+	//{{{ Private members
+
+	// how often files are looked at, in milliseconds
+	private static final int CHECK_INTERVAL = 5000;
+
+	private static Object lock = new Object();
+	private static Hashtable entries = new Hashtable();
+	private static WatchThread thread;
+	private static boolean checkNow;
+
+	private FileWatcher() {}
+
+	//{{{ check() method
+	/**
+	 * Looks at all watched files, and reports those that have changed.
+	 */
+	private static void check()
+	{
+		Entry[] entryArray;
+		synchronized(lock)
+		{
+			entryArray = new Entry[entries.size()];
+			entries.values().toArray(entryArray);
+		}
+
+		for(int i = 0; i < entryArray.length; i++)
+		{
+			Entry entry = entryArray[i];
+
+			Status oldStatus;
+			int version;
+			synchronized(lock)
+			{
+				oldStatus = entry.status;
+				version = entry.version;
+			}
+
+			File file = oldStatus.file;
+			long modTime = file.lastModified();
+			boolean exists = (modTime != 0L || file.exists());
+			boolean canWrite = (exists && file.canWrite());
+
+			if(modTime == oldStatus.modTime
+				&& exists == oldStatus.exists
+				&& canWrite == oldStatus.canWrite)
+				continue;
+
+			synchronized(lock)
+			{
+				// the buffer was saved or closed while the
+				// file was being looked at
+				if(entry.version != version
+					|| entries.get(entry.buffer) != entry)
+					continue;
+
+				entry.status = new Status(file,modTime,exists,
+					canWrite);
+			}
+
+			DirectoryCache.invalidate(file.getPath());
+
+			fileChanged(entry.buffer);
+		}
+	} //}}}
+
+	//{{{ fileChanged() method
+	/**
+	 * If the buffer is showing in the focused view, asks the user
+	 * about the change. Buffers following their files are updated
+	 * straight away, whether they are showing or not.
+	 */
+	private static void fileChanged(final Buffer buffer)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				View showing = null;
+
+				View[] views = jEdit.getViews();
+				for(int i = 0; i < views.length; i++)
+				{
+					View view = views[i];
+
+					EditPane[] editPanes = view.getEditPanes();
+					for(int j = 0; j < editPanes.length; j++)
+					{
+						if(editPanes[j].getBuffer() != buffer)
+							continue;
+
+						if(view.getFocusOwner() != null)
+						{
+							buffer.checkModTime(view);
+							return;
+						}
+						else if(showing == null)
+							showing = view;
+					}
+				}
+
+				if(buffer.isFollowing())
+				{
+					if(showing == null)
+						showing = jEdit.getFirstView();
+					if(showing != null)
+						buffer.checkModTime(showing);
+				}
+			}
+		});
+	} //}}}
+
+	//}}}
+
+	//{{{ Entry class
+	static class Entry
+	{
+		Buffer buffer;
+		Status status;
+
+		// incremented when the buffer is loaded or saved, so that
+		// the thread does not replace the new status with an old
+		// one
+		int version;
+
+		Entry(Buffer buffer)
+		{
+			this.buffer = buffer;
+		}
+	} //}}}
+
+	//{{{ WatchThread class
+	static class WatchThread extends Thread
+	{
+		WatchThread()
+		{
+			super("File watcher");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+		public void run()
+		{
+			for(;;)
+			{
+				synchronized(lock)
+				{
+					if(!checkNow)
+					{
+						try
+						{
+							lock.wait(CHECK_INTERVAL);
+						}
+						catch(InterruptedException e)
+						{
+							return;
+						}
+					}
+
+					checkNow = false;
+				}
+
+				try
+				{
+					check();
+				}
+				catch(Throwable t)
+				{
+					Log.log(Log.ERROR,FileWatcher.class,t);
+				}
+			}
+		}
+	} //}}}
+}
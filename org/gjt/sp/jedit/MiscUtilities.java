@@ -1066,35 +1066,40 @@ loop:		for(int i = 0; i < str.length(); i++)
 		else
 			stack.addElement(directory);
 
-		File[] _files = directory.listFiles();
+		// directories that have not changed since they were last
+		// listed come from the directory cache
+		VFS.DirectoryEntry[] _files = FileVFS.listDirectory(
+			directory.getPath());
 		if(_files == null)
 			return;
 
 		for(int i = 0; i < _files.length; i++)
 		{
-			File file = _files[i];
-			if(file.isDirectory())
+			VFS.DirectoryEntry file = _files[i];
+			if(file.type == VFS.DirectoryEntry.DIRECTORY)
 			{
 				if(recurse)
 				{
+					File dir = new File(file.path);
+
 					// resolve symlinks to avoid loops
 					try
 					{
-						file = new File(file.getCanonicalPath());
+						dir = new File(dir.getCanonicalPath());
 					}
 					catch(IOException io)
 					{
 					}
 
-					listDirectory(stack,files,file,filter,recurse);
+					listDirectory(stack,files,dir,filter,recurse);
 				}
 			}
 			else
 			{
-				if(!filter.isMatch(file.getName()))
+				if(!filter.isMatch(file.name))
 					continue;
 
-				String path = file.getPath();
+				String path = file.path;
 				Log.log(Log.DEBUG,MiscUtilities.class,path);
 
 				files.addElement(path);
@@ -60,6 +60,9 @@ public class Mode
 	 */
 	public void init()
 	{
+		filenameGlob = firstlineGlob = null;
+		filenameRE = firstlineRE = null;
+
 		try
 		{
 			String filenameGlob = (String)getProperty("filenameGlob");
@@ -67,6 +70,7 @@ public class Mode
 			{
 				filenameRE = new RE(MiscUtilities.globToRE(
 					filenameGlob),RE.REG_ICASE);
+				this.filenameGlob = filenameGlob;
 			}
 
 			String firstlineGlob = (String)getProperty("firstlineGlob");
@@ -74,6 +78,7 @@ public class Mode
 			{
 				firstlineRE = new RE(MiscUtilities.globToRE(
 					firstlineGlob),RE.REG_ICASE);
+				this.firstlineGlob = firstlineGlob;
 			}
 		}
 		catch(REException re)
@@ -82,6 +87,8 @@ public class Mode
 				+ " globs in mode " + name);
 			Log.log(Log.ERROR,this,re);
 		}
+
+		jEdit.resetModeMatcher();
 	} //}}}
 
 	//{{{ getTokenMarker() method
@@ -242,6 +249,26 @@ public class Mode
 		return false;
 	} //}}}
 
+	//{{{ getFilenameGlob() method
+	/**
+	 * Returns the file name glob that <code>accept()</code> checks,
+	 * or null.
+	 */
+	/* package-private */ String getFilenameGlob()
+	{
+		return filenameGlob;
+	} //}}}
+
+	//{{{ getFirstlineGlob() method
+	/**
+	 * Returns the first line glob that <code>accept()</code> checks,
+	 * or null.
+	 */
+	/* package-private */ String getFirstlineGlob()
+	{
+		return firstlineGlob;
+	} //}}}
+
 	//{{{ getName() method
 	/**
 	 * Returns the internal name of this edit mode.
@@ -263,7 +290,9 @@ public class Mode
 	//{{{ Private members
 	private String name;
 	private Hashtable props;
+	private String firstlineGlob;
 	private RE firstlineRE;
+	private String filenameGlob;
 	private RE filenameRE;
 	private TokenMarker marker;
 	//}}}
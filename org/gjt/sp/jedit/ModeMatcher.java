@@ -0,0 +1,264 @@
+/*
+ * ModeMatcher.java - Finds the edit mode for a buffer
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit;
+
+//{{{ Imports
+import java.util.Hashtable;
+import java.util.Vector;
+//}}}
+
+/**
+ * Finds the edit mode for a file name and first line.<p>
+ *
+ * Most modes only have a file name glob of the form <code>*.ext</code>
+ * or <code>*.{ext1,ext2}</code>; those are expanded into a table keyed
+ * by lower case extension, so that looking up a mode does not need to
+ * run a regular expression for every installed mode. The remaining modes
+ * (first line globs and more complex file name globs) are still checked
+ * with <code>Mode.accept()</code>, but only those that come before the
+ * extension match in catalog order, so the result is the same as trying
+ * every mode in turn.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class ModeMatcher
+{
+	//{{{ ModeMatcher constructor
+	ModeMatcher(Mode[] modes)
+	{
+		extensions = new Hashtable();
+		Vector others = new Vector();
+		Vector othersIndex = new Vector();
+
+		for(int i = 0; i < modes.length; i++)
+		{
+			Mode mode = modes[i];
+
+			String firstlineGlob = mode.getFirstlineGlob();
+			String filenameGlob = mode.getFilenameGlob();
+
+			Vector exts = null;
+			if(filenameGlob != null)
+				exts = expandExtensionGlob(filenameGlob);
+
+			if(exts != null)
+			{
+				for(int j = 0; j < exts.size(); j++)
+				{
+					// first mode in the catalog wins
+					Object ext = exts.elementAt(j);
+					if(extensions.get(ext) == null)
+						extensions.put(ext,new Entry(mode,i));
+				}
+			}
+
+			if(firstlineGlob != null
+				|| (filenameGlob != null && exts == null))
+			{
+				others.addElement(mode);
+				othersIndex.addElement(new Integer(i));
+			}
+		}
+
+		otherModes = new Mode[others.size()];
+		others.copyInto(otherModes);
+		otherModesIndex = new int[othersIndex.size()];
+		for(int i = 0; i < otherModesIndex.length; i++)
+		{
+			otherModesIndex[i] = ((Integer)othersIndex.elementAt(i))
+				.intValue();
+		}
+	} //}}}
+
+	//{{{ getMode() method
+	/**
+	 * Returns the first mode that accepts the specified file name and
+	 * first line, or null.
+	 * @param fileName The buffer's name
+	 * @param firstLine The first line of the buffer
+	 */
+	Mode getMode(String fileName, String firstLine)
+	{
+		Entry entry = null;
+		int dot = fileName.lastIndexOf('.');
+		if(dot != -1)
+		{
+			entry = (Entry)extensions.get(fileName.substring(dot + 1)
+				.toLowerCase());
+		}
+
+		for(int i = 0; i < otherModes.length; i++)
+		{
+			if(entry != null && otherModesIndex[i] > entry.index)
+				break;
+
+			if(otherModes[i].accept(fileName,firstLine))
+				return otherModes[i];
+		}
+
+		return (entry == null ? null : entry.mode);
+	} //}}}
+
+	//{{{ Private members
+
+	/**
+	 * Upper bound on the number of extensions a single glob can expand
+	 * to before we give up and treat it as a regular expression.
+	 */
+	private static final int MAX_EXTENSIONS = 64;
+
+	private Hashtable extensions;
+	private Mode[] otherModes;
+	private int[] otherModesIndex;
+
+	//{{{ expandExtensionGlob() method
+	/**
+	 * If the glob is of the form <code>*.</code> followed by literal
+	 * characters, <code>{a,b}</code> alternatives and <code>[ab]</code>
+	 * character sets, returns a vector of lower case extensions it
+	 * matches. Otherwise returns null.
+	 */
+	private static Vector expandExtensionGlob(String glob)
+	{
+		if(!glob.startsWith("*."))
+			return null;
+
+		Vector exts = new Vector();
+		exts.addElement("");
+
+		int i = 2;
+		while(i < glob.length())
+		{
+			char ch = glob.charAt(i);
+			Vector choices = new Vector();
+
+			if(ch == '{' || ch == '[')
+			{
+				char close = (ch == '{' ? '}' : ']');
+				int end = glob.indexOf(close,i + 1);
+				if(end == -1 || end == i + 1)
+					return null;
+
+				String group = glob.substring(i + 1,end);
+				if(ch == '{')
+				{
+					int start = 0;
+					for(;;)
+					{
+						int comma = group.indexOf(',',start);
+						String choice = group.substring(start,
+							comma == -1 ? group.length() : comma);
+						if(!isLiteral(choice))
+							return null;
+						choices.addElement(choice);
+						if(comma == -1)
+							break;
+						start = comma + 1;
+					}
+				}
+				else
+				{
+					for(int j = 0; j < group.length(); j++)
+					{
+						// no ranges or negation
+						char c = group.charAt(j);
+						if(!Character.isLetterOrDigit(c))
+							return null;
+						choices.addElement(String.valueOf(c));
+					}
+				}
+
+				i = end + 1;
+			}
+			else if(isLiteral(ch))
+			{
+				choices.addElement(String.valueOf(ch));
+				i++;
+			}
+			else
+				return null;
+
+			if(exts.size() * choices.size() > MAX_EXTENSIONS)
+				return null;
+
+			Vector newExts = new Vector();
+			for(int j = 0; j < exts.size(); j++)
+			{
+				String prefix = (String)exts.elementAt(j);
+				for(int k = 0; k < choices.size(); k++)
+					newExts.addElement(prefix + choices.elementAt(k));
+			}
+			exts = newExts;
+		}
+
+		for(int j = 0; j < exts.size(); j++)
+		{
+			String ext = (String)exts.elementAt(j);
+			if(ext.length() == 0)
+				return null;
+			exts.setElementAt(ext.toLowerCase(),j);
+		}
+
+		return exts;
+	} //}}}
+
+	//{{{ isLiteral() method
+	private static boolean isLiteral(String str)
+	{
+		for(int i = 0; i < str.length(); i++)
+		{
+			if(!isLiteral(str.charAt(i)))
+				return false;
+		}
+		return true;
+	} //}}}
+
+	//{{{ isLiteral() method
+	/**
+	 * An extension character that is matched literally by the regular
+	 * expression <code>MiscUtilities.globToRE()</code> creates, and
+	 * cannot be confused with the extension separator.
+	 */
+	private static boolean isLiteral(char ch)
+	{
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '-'
+			|| ch == '~';
+	} //}}}
+
+	//}}}
+
+	//{{{ Entry class
+	static class Entry
+	{
+		Mode mode;
+		int index;
+
+		Entry(Mode mode, int index)
+		{
+			this.mode = mode;
+			this.index = index;
+		}
+	} //}}}
+}
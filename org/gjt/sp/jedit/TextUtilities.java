@@ -97,12 +97,10 @@ public class TextUtilities
 	 * @param buffer The buffer
 	 * @param line The line
 	 * @param offset The offset within that line
-	 * @param startLine The first line to scan. This is used to speed up
-	 * on-screen bracket matching because only visible lines need to be
-	 * scanned
-	 * @param endLine The last line to scan. This is used to speed up
-	 * on-screen bracket matching because only visible lines need to be
-	 * scanned
+	 * @param startLine Matching brackets before this line are ignored.
+	 * As of jEdit 4.1pre1, brackets are found using an index maintained
+	 * by the buffer, so limiting the search no longer speeds it up
+	 * @param endLine Matching brackets after this line are ignored
 	 * @since jEdit 2.7pre3
 	 */
 	public static int findMatchingBracket(Buffer buffer, int line, int offset,
@@ -114,131 +112,83 @@ public class TextUtilities
 				+ buffer.getLineLength(line));
 		}
 
-		Segment lineText = new Segment();
-		buffer.getLineText(line,lineText);
-
-		char c = lineText.array[lineText.offset + offset];
-		char cprime; // corresponding character
-		boolean direction; // false - backwards, true - forwards
-
-		switch(c)
+		try
 		{
-		case '(': cprime = ')'; direction = true;  break;
-		case ')': cprime = '('; direction = false; break;
-		case '[': cprime = ']'; direction = true;  break;
-		case ']': cprime = '['; direction = false; break;
-		case '{': cprime = '}'; direction = true;  break;
-		case '}': cprime = '{'; direction = false; break;
-		default: return -1;
+			// searching the bracket index tokenizes lines, which
+			// needs the write lock
+			buffer.writeLock();
+
+			int match = buffer.getBracketIndex().findMatchingBracket(
+				line,offset);
+			if(match == -1)
+				return -1;
+
+			// the bracket index does not need to scan lines, so
+			// the range is only there for compatibility
+			int matchLine = buffer.getLineOfOffset(match);
+			if(matchLine < startLine || matchLine > endLine)
+				return -1;
+			else
+				return match;
 		}
-
-		// 1 because we've already 'seen' the first bracket
-		int count = 1;
-
-		Buffer.TokenList tokenList = buffer.markTokens(line);
-
-		// Get the syntax token at 'offset'
-		// only tokens with the same type will be checked for
-		// the corresponding bracket
-		byte idOfBracket = getTokenAtOffset(tokenList.getFirstToken(),offset).id;
-
-		boolean haveTokens = true;
-
-		//{{{ Forward search
-		if(direction)
+		finally
 		{
-			offset++;
-
-			for(;;)
-			{
-				for(int i = offset; i < lineText.count; i++)
-				{
-					char ch = lineText.array[lineText.offset + i];
-					if(ch == c)
-					{
-						if(!haveTokens)
-						{
-							tokenList = buffer.markTokens(line);
-							haveTokens = true;
-						}
-						if(getTokenAtOffset(tokenList.getFirstToken(),i).id == idOfBracket)
-							count++;
-					}
-					else if(ch == cprime)
-					{
-						if(!haveTokens)
-						{
-							tokenList = buffer.markTokens(line);
-							haveTokens = true;
-						}
-						if(getTokenAtOffset(tokenList.getFirstToken(),i).id == idOfBracket)
-						{
-							count--;
-							if(count == 0)
-								return buffer.getLineStartOffset(line) + i;
-						}
-					}
-				}
+			buffer.writeUnlock();
+		}
+	} //}}}
 
-				//{{{ Go on to next line
-				line++;
-				if(line > endLine)
-					break;
-				buffer.getLineText(line,lineText);
-				offset = 0;
-				haveTokens = false;
-				//}}}
-			}
-		} //}}}
-		//{{{ Backward search
-		else
+	//{{{ findEnclosingBracket() method
+	/**
+	 * Returns the offset of the closest opening bracket before the
+	 * specified offset of the buffer that is not closed before it, or
+	 * -1 if there is none. Each kind of bracket is matched separately,
+	 * and brackets in comments and literals are not skipped.
+	 * @param buffer The buffer
+	 * @param line The line
+	 * @param offset The offset within that line
+	 * @since jEdit 4.1pre1
+	 */
+	public static int findEnclosingBracket(Buffer buffer, int line,
+		int offset)
+	{
+		try
 		{
-			offset--;
-
-			for(;;)
-			{
-				for(int i = offset; i >= 0; i--)
-				{
-					char ch = lineText.array[lineText.offset + i];
-					if(ch == c)
-					{
-						if(!haveTokens)
-						{
-							tokenList = buffer.markTokens(line);
-							haveTokens = true;
-						}
-						if(getTokenAtOffset(tokenList.getFirstToken(),i).id == idOfBracket)
-							count++;
-					}
-					else if(ch == cprime)
-					{
-						if(!haveTokens)
-						{
-							tokenList = buffer.markTokens(line);
-							haveTokens = true;
-						}
-						if(getTokenAtOffset(tokenList.getFirstToken(),i).id == idOfBracket)
-						{
-							count--;
-							if(count == 0)
-								return buffer.getLineStartOffset(line) + i;
-						}
-					}
-				}
-
-				//{{{ Go on to next line
-				line--;
-				if(line < startLine)
-					break;
-				buffer.getLineText(line,lineText);
-				offset = lineText.count - 1;
-				haveTokens = false;
-				//}}}
-			}
-		} //}}}
+			buffer.writeLock();
+			return buffer.getBracketIndex().findEnclosingBracket(
+				line,offset);
+		}
+		finally
+		{
+			buffer.writeUnlock();
+		}
+	} //}}}
 
-		// Nothing found
-		return -1;
+	//{{{ findClosingBracket() method
+	/**
+	 * Returns the offset of the first bracket at or after the specified
+	 * offset of the buffer that closes the specified opening bracket,
+	 * skipping over nested pairs, or -1 if there is none. Brackets in
+	 * comments and literals are not skipped.
+	 * @param buffer The buffer
+	 * @param line The line
+	 * @param offset The offset within that line
+	 * @param openBracket One of <code>(</code>, <code>[</code> and
+	 * <code>{</code>
+	 * @since jEdit 4.1pre1
+	 */
+	public static int findClosingBracket(Buffer buffer, int line,
+		int offset, char openBracket)
+	{
+		try
+		{
+			buffer.writeLock();
+			return buffer.getBracketIndex().findClosingBracket(
+				line,offset,openBracket);
+		}
+		finally
+		{
+			buffer.writeUnlock();
+		}
 	} //}}}
 
 	//{{{ findWordStart() method
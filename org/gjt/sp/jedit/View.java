@@ -1292,6 +1292,10 @@ public class View extends JFrame implements EBComponent
 					buffers.addElement(buffer);
 			}
 
+			// look for files changed by other programs while
+			// the view was inactive
+			FileWatcher.checkNow();
+
 			// People have reported hangs with JDK 1.4; might be
 			// caused by modal dialogs being displayed from
 			// windowActivated()
@@ -25,6 +25,7 @@ package org.gjt.sp.jedit.browser;
 //{{{ Imports
 import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.*;
+import java.util.Vector;
 import org.gjt.sp.jedit.io.*;
 import org.gjt.sp.jedit.jEdit;
 import org.gjt.sp.jedit.MiscUtilities;
@@ -147,6 +148,11 @@ public class BrowserIORequest extends WorkRequest
 	//}}}
 
 	//{{{ listDirectory() method
+	/**
+	 * Lists the directory a batch at a time, showing each batch in the
+	 * browser as it is read. Once the whole directory has been read,
+	 * the browser sorts it and shows it again.
+	 */
 	private void listDirectory()
 	{
 		VFS.DirectoryEntry[] directory = null;
@@ -161,7 +167,27 @@ public class BrowserIORequest extends WorkRequest
 
 			canonPath = vfs._canonPath(session,path1,browser);
 
-			directory = vfs._listDirectory(session,canonPath,browser);
+			final String path = canonPath;
+			final Vector entries = new Vector();
+
+			VFS.DirectoryListener listener = new VFS.DirectoryListener()
+			{
+				public boolean entriesListed(VFS.DirectoryEntry[] list)
+				{
+					browser.directoryListed(node,path,list,
+						entries.size() == 0);
+					for(int i = 0; i < list.length; i++)
+						entries.addElement(list[i]);
+					return !isAborted();
+				}
+			};
+
+			if(vfs._listDirectory(session,canonPath,listener,browser)
+				&& !isAborted())
+			{
+				directory = new VFS.DirectoryEntry[entries.size()];
+				entries.copyInto(directory);
+			}
 		}
 		catch(IOException io)
 		{
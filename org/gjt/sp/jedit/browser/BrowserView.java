@@ -156,38 +156,54 @@ public class BrowserView extends JPanel
 		tree.setSelectionPaths(new TreePath[0]);
 	} //}}}
 
-	//{{{ directoryLoaded() method
-	public void directoryLoaded(DefaultMutableTreeNode node,
-		String path, Vector directory)
+	//{{{ directoryListed() method
+	/**
+	 * Adds a batch of entries to a directory that is still being
+	 * listed. The entries are added to the end; they are put in order
+	 * by {@link #directoryLoaded(DefaultMutableTreeNode,String,Vector)}
+	 * once the whole directory has been listed.
+	 * @param first True if this is the first batch, in which case the
+	 * previous contents of the directory are removed
+	 * @since jEdit 4.1pre1
+	 */
+	public void directoryListed(DefaultMutableTreeNode node,
+		String path, Vector directory, boolean first)
 	{
-		if(node == rootNode)
+		if(first)
 		{
-			parentModel.removeAllElements();
-			String parent = path;
-
-			if(parent.length() != 1 && (parent.endsWith("/")
-				|| parent.endsWith(File.separator)))
-				parent = parent.substring(0,parent.length() - 1);
+			if(node == rootNode)
+				setParentDirectories(path);
 
-			for(;;)
-			{
-				parentModel.insertElementAt(parent,0);
-				String newParent = MiscUtilities.getParentOfPath(parent);
-				if(newParent.length() != 1 && (newParent.endsWith("/")
-					|| newParent.endsWith(File.separator)))
-					newParent = newParent.substring(0,newParent.length() - 1);
+			node.removeAllChildren();
+			model.reload(node);
+		}
 
-				if(newParent == null || parent.equals(newParent))
-					break;
-				else
-					parent = newParent;
-			}
+		if(directory.size() == 0)
+			return;
 
-			int index = parentModel.getSize() - 1;
-			parentDirectories.setSelectedIndex(index);
-			parentDirectories.ensureIndexIsVisible(parentModel.getSize() - 1);
+		int start = node.getChildCount();
+		int[] indices = new int[directory.size()];
+		for(int i = 0; i < directory.size(); i++)
+		{
+			VFS.DirectoryEntry file = (VFS.DirectoryEntry)
+				directory.elementAt(i);
+			boolean allowsChildren = (file.type != VFS.DirectoryEntry.FILE);
+			node.add(new DefaultMutableTreeNode(file,allowsChildren));
+			indices[i] = start + i;
 		}
 
+		model.nodesWereInserted(node,indices);
+		if(first)
+			tree.expandPath(new TreePath(node.getPath()));
+	} //}}}
+
+	//{{{ directoryLoaded() method
+	public void directoryLoaded(DefaultMutableTreeNode node,
+		String path, Vector directory)
+	{
+		if(node == rootNode)
+			setParentDirectories(path);
+
 		node.removeAllChildren();
 
 		Vector toExpand = new Vector();
@@ -384,6 +400,35 @@ public class BrowserView extends JPanel
 		browser.loadDirectory(node,path,node == rootNode);
 	} //}}}
 
+	//{{{ setParentDirectories() method
+	private void setParentDirectories(String path)
+	{
+		parentModel.removeAllElements();
+		String parent = path;
+
+		if(parent.length() != 1 && (parent.endsWith("/")
+			|| parent.endsWith(File.separator)))
+			parent = parent.substring(0,parent.length() - 1);
+
+		for(;;)
+		{
+			parentModel.insertElementAt(parent,0);
+			String newParent = MiscUtilities.getParentOfPath(parent);
+			if(newParent.length() != 1 && (newParent.endsWith("/")
+				|| newParent.endsWith(File.separator)))
+				newParent = newParent.substring(0,newParent.length() - 1);
+
+			if(newParent == null || parent.equals(newParent))
+				break;
+			else
+				parent = newParent;
+		}
+
+		int index = parentModel.getSize() - 1;
+		parentDirectories.setSelectedIndex(index);
+		parentDirectories.ensureIndexIsVisible(parentModel.getSize() - 1);
+	} //}}}
+
 	//{{{ showFilePopup() method
 	private void showFilePopup(VFS.DirectoryEntry file, Point point)
 	{
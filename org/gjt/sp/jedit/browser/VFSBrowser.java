@@ -491,6 +491,7 @@ public class VFSBrowser extends JPanel implements EBComponent
 	{
 		// used by FTP plugin to clear directory cache
 		VFSManager.getVFSForPath(path).reloadDirectory(path);
+		DirectoryCache.invalidate(path);
 
 		browserView.loadDirectory(path);
 	} //}}}
@@ -726,6 +727,26 @@ public class VFSBrowser extends JPanel implements EBComponent
 			session,vfs,path,null,node));
 	} //}}}
 
+	//{{{ directoryListed() method
+	/**
+	 * Called from the I/O thread with each batch of entries as the
+	 * directory is being listed. The entries are shown unsorted until
+	 * the whole directory has been listed.
+	 * @param first True if this is the first batch
+	 */
+	void directoryListed(final DefaultMutableTreeNode node, final String path,
+		final VFS.DirectoryEntry[] list, final boolean first)
+	{
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				browserView.directoryListed(node,path,
+					filterDirectory(list),first);
+			}
+		});
+	} //}}}
+
 	//{{{ directoryLoaded() method
 	void directoryLoaded(final DefaultMutableTreeNode node, final String path,
 		final VFS.DirectoryEntry[] list)
@@ -743,47 +764,12 @@ public class VFSBrowser extends JPanel implements EBComponent
 					pathField.addCurrentToHistory();
 				}
 
-				boolean filterEnabled = filterCheckbox.isSelected();
-
-				Vector directoryVector = new Vector();
-
-				int directories = 0;
-				int files = 0;
-				int invisible = 0;
+				Vector directoryVector = filterDirectory(list);
 
-				if(list != null)
+				if(sortFiles)
 				{
-					for(int i = 0; i < list.length; i++)
-					{
-						VFS.DirectoryEntry file = list[i];
-						if(file.hidden && !showHiddenFiles)
-						{
-							invisible++;
-							continue;
-						}
-
-						if(file.type == VFS.DirectoryEntry.FILE
-							&& filterEnabled
-							&& filenameFilter != null
-							&& !filenameFilter.isMatch(file.name))
-						{
-							invisible++;
-							continue;
-						}
-
-						if(file.type == VFS.DirectoryEntry.FILE)
-							files++;
-						else
-							directories++;
-
-						directoryVector.addElement(file);
-					}
-
-					if(sortFiles)
-					{
-						MiscUtilities.quicksort(directoryVector,
-							new FileCompare());
-					}
+					MiscUtilities.quicksort(directoryVector,
+						new FileCompare());
 				}
 
 				browserView.directoryLoaded(node,path,
@@ -926,6 +912,36 @@ public class VFSBrowser extends JPanel implements EBComponent
 	private boolean loadingRoot;
 	//}}}
 
+	//{{{ filterDirectory() method
+	/**
+	 * Returns the entries that are not hidden or filtered out.
+	 */
+	private Vector filterDirectory(VFS.DirectoryEntry[] list)
+	{
+		Vector directoryVector = new Vector();
+		if(list == null)
+			return directoryVector;
+
+		boolean filterEnabled = filterCheckbox.isSelected();
+
+		for(int i = 0; i < list.length; i++)
+		{
+			VFS.DirectoryEntry file = list[i];
+			if(file.hidden && !showHiddenFiles)
+				continue;
+
+			if(file.type == VFS.DirectoryEntry.FILE
+				&& filterEnabled
+				&& filenameFilter != null
+				&& !filenameFilter.isMatch(file.name))
+				continue;
+
+			directoryVector.addElement(file);
+		}
+
+		return directoryVector;
+	} //}}}
+
 	//{{{ createMenuBar() method
 	private JToolBar createMenuBar()
 	{
@@ -0,0 +1,545 @@
+/*
+ * AutosaveJournal.java - Records buffer edits for crash recovery
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.buffer;
+
+//{{{ Imports
+import javax.swing.text.Segment;
+import java.io.*;
+import java.util.Vector;
+import org.gjt.sp.jedit.Buffer;
+//}}}
+
+/**
+ * A class internal to jEdit's document model. You should not use it
+ * directly.<p>
+ *
+ * Autosave files are journals of the edits made to a buffer since it
+ * was loaded or saved, so autosaving only has to append the edits made
+ * since the last autosave, instead of writing out the whole buffer. To
+ * recover from a crash, the edits are replayed onto the file on disk.<p>
+ *
+ * The journal starts with a header recording the modification time and
+ * length of the file the edits apply to, followed by insert and remove
+ * records. If the buffer text is not the same as the file on disk, for
+ * example because the buffer was changed while it was being saved, the
+ * next autosave writes a checkpoint record holding the whole text. This
+ * is also done once the journal becomes larger than the text, so that
+ * it does not grow without bounds.<p>
+ *
+ * Edits are recorded by the buffer with its write lock held, and
+ * encoded in memory straight away. Autosaving takes the recorded edits
+ * in the event dispatch thread, and writes them from an I/O thread.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class AutosaveJournal
+{
+	/**
+	 * Autosave files starting with this number are journals; older
+	 * autosave files hold a copy of the buffer text.
+	 */
+	public static final int MAGIC = 0x6a454a31;
+
+	//{{{ AutosaveJournal constructor
+	public AutosaveJournal()
+	{
+		pending = new ByteArrayOutputStream();
+		pendingOut = new DataOutputStream(pending);
+		chunks = new Vector();
+		checkpoint = true;
+	} //}}}
+
+	//{{{ isJournal() method
+	/**
+	 * Returns if the specified autosave file is a journal.
+	 * @param file The autosave file
+	 */
+	public static boolean isJournal(File file)
+	{
+		DataInputStream in = null;
+
+		try
+		{
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		}
+		catch(IOException io)
+		{
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				if(in != null)
+					in.close();
+			}
+			catch(IOException io)
+			{
+			}
+		}
+	} //}}}
+
+	//{{{ reset() method
+	/**
+	 * Starts a new journal. Called when the buffer is loaded or saved;
+	 * the journal file is rewritten by the next autosave.
+	 * @param baseModTime The modification time of the file on disk
+	 * @param baseLength The length of the file on disk, in bytes
+	 * @param checkpoint True if the buffer text is not the same as the
+	 * file on disk
+	 * @param textLength The length of the buffer text
+	 */
+	public synchronized void reset(long baseModTime, long baseLength,
+		boolean checkpoint, int textLength)
+	{
+		this.baseModTime = baseModTime;
+		this.baseLength = baseLength;
+		this.checkpoint = checkpoint;
+		pending.reset();
+		discardChunks();
+		started = false;
+		failed = false;
+		size = 0;
+		setCompactSize(textLength);
+	} //}}}
+
+	//{{{ contentInserted() method
+	/**
+	 * Records an insertion.
+	 * @param offset The offset
+	 * @param str The inserted text
+	 */
+	public void contentInserted(int offset, String str)
+	{
+		if(checkpoint)
+			return;
+
+		try
+		{
+			pendingOut.writeByte(INSERT);
+			pendingOut.writeInt(offset);
+			pendingOut.writeInt(str.length());
+			pendingOut.writeChars(str);
+		}
+		catch(IOException io)
+		{
+			// can't happen with a ByteArrayOutputStream
+		}
+
+		checkSize();
+	} //}}}
+
+	//{{{ contentInserted() method
+	/**
+	 * Records an insertion.
+	 * @param offset The offset
+	 * @param seg The inserted text
+	 */
+	public void contentInserted(int offset, Segment seg)
+	{
+		if(checkpoint)
+			return;
+
+		try
+		{
+			pendingOut.writeByte(INSERT);
+			pendingOut.writeInt(offset);
+			pendingOut.writeInt(seg.count);
+			int end = seg.offset + seg.count;
+			for(int i = seg.offset; i < end; i++)
+				pendingOut.writeChar(seg.array[i]);
+		}
+		catch(IOException io)
+		{
+			// can't happen with a ByteArrayOutputStream
+		}
+
+		checkSize();
+	} //}}}
+
+	//{{{ contentRemoved() method
+	/**
+	 * Records a removal.
+	 * @param offset The offset
+	 * @param length The number of characters removed
+	 */
+	public void contentRemoved(int offset, int length)
+	{
+		if(checkpoint)
+			return;
+
+		try
+		{
+			pendingOut.writeByte(REMOVE);
+			pendingOut.writeInt(offset);
+			pendingOut.writeInt(length);
+		}
+		catch(IOException io)
+		{
+			// can't happen with a ByteArrayOutputStream
+		}
+
+		checkSize();
+	} //}}}
+
+	//{{{ autosave() method
+	/**
+	 * Takes the edits recorded since the last autosave, to be written
+	 * out by the next call to {@link #write(File)}. Must be called with
+	 * the buffer's write lock held.
+	 * @param text The buffer text, used if a checkpoint is needed
+	 */
+	public synchronized void autosave(ContentManager text)
+	{
+		Chunk chunk = new Chunk();
+
+		if(checkpoint || failed)
+		{
+			chunk.truncate = true;
+			chunk.text = text.snapshot();
+			size = HEADER_SIZE + 5 + text.getLength() * 2;
+			checkpoint = failed = false;
+			setCompactSize(text.getLength());
+		}
+		else
+		{
+			chunk.truncate = !started;
+			chunk.edits = pending.toByteArray();
+			if(chunk.truncate)
+				size = HEADER_SIZE;
+			size += chunk.edits.length;
+		}
+
+		chunk.baseModTime = baseModTime;
+		chunk.baseLength = baseLength;
+
+		pending.reset();
+		chunks.addElement(chunk);
+		started = true;
+	} //}}}
+
+	//{{{ write() method
+	/**
+	 * Writes the edits taken by previous calls to
+	 * {@link #autosave(ContentManager)} to the journal file. Called
+	 * from an I/O thread.
+	 * @param file The journal file
+	 */
+	public void write(File file) throws IOException
+	{
+		synchronized(writeLock)
+		{
+			for(;;)
+			{
+				Chunk chunk;
+				synchronized(this)
+				{
+					if(chunks.size() == 0)
+						return;
+					chunk = (Chunk)chunks.elementAt(0);
+					chunks.removeElementAt(0);
+				}
+
+				boolean done = false;
+
+				try
+				{
+					writeChunk(file,chunk);
+					done = true;
+				}
+				finally
+				{
+					if(chunk.text != null)
+						chunk.text.release();
+
+					// if the write was interrupted, the
+					// journal might end with a partial
+					// record, so the next autosave must
+					// rewrite it from scratch
+					if(!done)
+					{
+						synchronized(this)
+						{
+							failed = true;
+							discardChunks();
+						}
+					}
+				}
+			}
+		}
+	} //}}}
+
+	//{{{ replay() method
+	/**
+	 * Applies the edits in a journal to a buffer. The buffer must hold
+	 * the contents of the file the journal was written for. A partial
+	 * record at the end of the journal, left by a crash while it was
+	 * being written, is ignored.
+	 * @param file The journal file
+	 * @param buffer The buffer
+	 * @param baseModTime The modification time of the file the buffer
+	 * was loaded from
+	 * @param baseLength The length of that file, in bytes
+	 * @exception IOException If the journal cannot be read, or was
+	 * written for a different version of the file
+	 */
+	public static void replay(File file, Buffer buffer, long baseModTime,
+		long baseLength) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(file)));
+
+		try
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException(file + ": not a journal");
+
+			long journalModTime = in.readLong();
+			long journalLength = in.readLong();
+			boolean first = true;
+
+			for(;;)
+			{
+				int type = in.read();
+				if(type == -1)
+					break;
+
+				if(first && type != CHECKPOINT
+					&& (journalModTime != baseModTime
+					|| journalLength != baseLength))
+				{
+					throw new IOException(file
+						+ ": file has changed since"
+						+ " the journal was written");
+				}
+
+				first = false;
+
+				try
+				{
+					switch(type)
+					{
+					case INSERT:
+						int offset = in.readInt();
+						String str = readChars(in,in.readInt());
+						buffer.insert(offset,str);
+						break;
+					case REMOVE:
+						buffer.remove(in.readInt(),in.readInt());
+						break;
+					case CHECKPOINT:
+						String text = readChars(in,in.readInt());
+						buffer.remove(0,buffer.getLength());
+						buffer.insert(0,text);
+						break;
+					default:
+						throw new IOException(file
+							+ ": corrupt journal");
+					}
+				}
+				catch(EOFException eof)
+				{
+					// partial record at the end
+					break;
+				}
+				catch(ArrayIndexOutOfBoundsException e)
+				{
+					throw new IOException(file
+						+ ": corrupt journal");
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	} //}}}
+
+	//{{{ Private members
+
+	// record types
+	private static final byte INSERT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte CHECKPOINT = 3;
+
+	// magic number, base modification time and length
+	private static final int HEADER_SIZE = 20;
+
+	// the journal is not compacted until it is at least this large
+	private static final int MIN_COMPACT_SIZE = 65536;
+
+	private static final int IOBUFSIZE = 32768;
+
+	private Object writeLock = new Object();
+
+	// edits recorded since the last autosave
+	private ByteArrayOutputStream pending;
+	private DataOutputStream pendingOut;
+
+	// edits taken by autosave() but not written yet
+	private Vector chunks;
+
+	private long baseModTime;
+	private long baseLength;
+
+	// if set, edits are not recorded, and the next autosave writes
+	// the whole text
+	private boolean checkpoint;
+
+	// set if the journal file was started since the last reset
+	private boolean started;
+
+	// set if a write failed
+	private boolean failed;
+
+	// size of the journal file after the chunks are written
+	private long size;
+
+	// once the journal is larger than this, a checkpoint is smaller
+	private long compactSize;
+
+	//{{{ setCompactSize() method
+	private void setCompactSize(int textLength)
+	{
+		compactSize = Math.max(MIN_COMPACT_SIZE,
+			HEADER_SIZE + 5 + textLength * 2L);
+	} //}}}
+
+	//{{{ discardChunks() method
+	/**
+	 * Forgets the chunks that have not been written yet, releasing
+	 * their snapshots of the buffer text.
+	 */
+	private void discardChunks()
+	{
+		for(int i = 0; i < chunks.size(); i++)
+		{
+			Chunk chunk = (Chunk)chunks.elementAt(i);
+			if(chunk.text != null)
+				chunk.text.release();
+		}
+		chunks.removeAllElements();
+	} //}}}
+
+	//{{{ checkSize() method
+	/**
+	 * Stops recording edits once writing a checkpoint would be cheaper
+	 * than appending them to the journal.
+	 */
+	private void checkSize()
+	{
+		if(size + pending.size() > compactSize)
+		{
+			checkpoint = true;
+			pending.reset();
+		}
+	} //}}}
+
+	//{{{ writeChunk() method
+	private static void writeChunk(File file, Chunk chunk)
+		throws IOException
+	{
+		// the journal file is deleted when the buffer is saved;
+		// appending to it after that would leave edits without a
+		// header, so they are dropped
+		if(!chunk.truncate && !file.exists())
+			return;
+
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(
+			file.getPath(),!chunk.truncate),IOBUFSIZE));
+
+		try
+		{
+			if(chunk.truncate)
+			{
+				out.writeInt(MAGIC);
+				out.writeLong(chunk.baseModTime);
+				out.writeLong(chunk.baseLength);
+			}
+
+			if(chunk.text != null)
+			{
+				ContentManager text = chunk.text;
+				int length = text.getLength();
+
+				out.writeByte(CHECKPOINT);
+				out.writeInt(length);
+
+				Segment seg = new Segment();
+				for(int start = 0; start < length; start += IOBUFSIZE)
+				{
+					text.getText(start,Math.min(IOBUFSIZE,
+						length - start),seg);
+					int end = seg.offset + seg.count;
+					for(int i = seg.offset; i < end; i++)
+						out.writeChar(seg.array[i]);
+				}
+			}
+			else
+				out.write(chunk.edits);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		// the file was deleted while the edits were being appended
+		if(!chunk.truncate && file.length() == chunk.edits.length)
+			file.delete();
+	} //}}}
+
+	//{{{ readChars() method
+	private static String readChars(DataInputStream in, int length)
+		throws IOException
+	{
+		if(length < 0)
+			throw new IOException("corrupt journal");
+
+		char[] chars = new char[length];
+		for(int i = 0; i < length; i++)
+			chars[i] = in.readChar();
+		return new String(chars);
+	} //}}}
+
+	//}}}
+
+	//{{{ Chunk class
+	/**
+	 * Edits taken by an autosave.
+	 */
+	static class Chunk
+	{
+		// if set, the journal file is started over
+		boolean truncate;
+		long baseModTime;
+		long baseLength;
+
+		// either a checkpoint, or encoded edits
+		ContentManager text;
+		byte[] edits;
+	} //}}}
+}
@@ -0,0 +1,640 @@
+/*
+ * BracketIndex.java - Finds matching brackets without scanning the buffer
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.buffer;
+
+//{{{ Imports
+import javax.swing.text.Segment;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import org.gjt.sp.jedit.syntax.Token;
+import org.gjt.sp.jedit.Buffer;
+//}}}
+
+/**
+ * A class internal to jEdit's document model. You should not use it
+ * directly. To improve performance, none of the methods in this class
+ * are thread-safe. The <code>Buffer</code> class, through which these
+ * methods must be called through, implements such protection.<p>
+ *
+ * Remembers the position and syntax token type of every bracket in the
+ * buffer, so that matching brackets can be found without scanning and
+ * tokenizing all the lines in between.<p>
+ *
+ * Lines are grouped into blocks of 64. For each kind of bracket and
+ * token type that has been searched for, a segment tree holds the
+ * number of unmatched closing and opening brackets in each block and in
+ * each range of blocks. A search steps over ranges that do not contain
+ * the match in logarithmic time, then looks at the brackets of the lines
+ * in the block that does.<p>
+ *
+ * Edits drop the brackets of the changed lines. When a change in syntax
+ * context means that the following lines will be tokenized again, their
+ * brackets are dropped too. Lines are only scanned again once a search
+ * reaches them.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class BracketIndex
+{
+	//{{{ BracketIndex constructor
+	public BracketIndex(Buffer buffer)
+	{
+		this.buffer = buffer;
+		// an empty buffer has one line
+		lines = new int[1][];
+		lineCount = 1;
+		trees = new Hashtable();
+		seg = new Segment();
+	} //}}}
+
+	//{{{ findMatchingBracket() method
+	/**
+	 * Returns the offset of the bracket matching the one at the
+	 * specified offset of the buffer, or -1 if the bracket is unmatched
+	 * (or if the character is not a bracket). Only brackets with the
+	 * same syntax token type are considered.
+	 * @param line The line
+	 * @param offset The offset within that line
+	 */
+	public int findMatchingBracket(int line, int offset)
+	{
+		int[] brackets = getBrackets(line);
+		for(int i = 0; i < brackets.length; i += 2)
+		{
+			if(brackets[i] != offset)
+				continue;
+
+			int kind = brackets[i + 1] >> 8;
+			int key = (kind >> 1) << 8 | (brackets[i + 1] & 0xff);
+
+			if((kind & 1) == 0)
+				return searchForward(key,line,offset + 1);
+			else
+				return searchBackward(key,line,offset);
+		}
+
+		return -1;
+	} //}}}
+
+	//{{{ findEnclosingBracket() method
+	/**
+	 * Returns the offset of the closest opening bracket before the
+	 * specified offset that is not closed before it, or -1. Each kind
+	 * of bracket is matched separately, and syntax token types are
+	 * ignored.
+	 * @param line The line
+	 * @param offset The offset within that line
+	 */
+	public int findEnclosingBracket(int line, int offset)
+	{
+		int result = -1;
+		for(int i = 0; i < BRACKETS.length(); i += 2)
+		{
+			result = Math.max(result,searchBackward(
+				(i >> 1) << 8 | ANY_TOKEN,line,offset));
+		}
+		return result;
+	} //}}}
+
+	//{{{ findClosingBracket() method
+	/**
+	 * Returns the offset of the first closing bracket at or after the
+	 * specified offset that is not opened after it, or -1. Syntax token
+	 * types are ignored.
+	 * @param line The line
+	 * @param offset The offset within that line
+	 * @param openBracket The opening bracket whose closing bracket to
+	 * look for
+	 */
+	public int findClosingBracket(int line, int offset, char openBracket)
+	{
+		int kind = BRACKETS.indexOf(openBracket);
+		if(kind == -1 || (kind & 1) != 0)
+			return -1;
+
+		return searchForward((kind >> 1) << 8 | ANY_TOKEN,line,offset);
+	} //}}}
+
+	//{{{ linesInserted() method
+	/**
+	 * Called after text was inserted.
+	 * @param startLine The first changed line
+	 * @param numLines The number of line breaks inserted
+	 */
+	public void linesInserted(int startLine, int numLines)
+	{
+		if(numLines > 0)
+		{
+			int newLineCount = lineCount + numLines;
+			if(lines.length < newLineCount)
+			{
+				int[][] newLines = new int[newLineCount * 2][];
+				System.arraycopy(lines,0,newLines,0,lineCount);
+				lines = newLines;
+			}
+
+			System.arraycopy(lines,startLine + 1,lines,
+				startLine + 1 + numLines,
+				lineCount - startLine - 1);
+			lineCount = newLineCount;
+		}
+
+		for(int i = startLine; i <= startLine + numLines; i++)
+			lines[i] = null;
+
+		if(numLines > 0)
+			invalidateBlocks(startLine);
+		else
+			invalidateBlock(startLine >> BLOCK_SHIFT);
+	} //}}}
+
+	//{{{ linesRemoved() method
+	/**
+	 * Called after text was removed.
+	 * @param startLine The first changed line
+	 * @param numLines The number of line breaks removed
+	 */
+	public void linesRemoved(int startLine, int numLines)
+	{
+		if(numLines > 0)
+		{
+			System.arraycopy(lines,startLine + 1 + numLines,lines,
+				startLine + 1,
+				lineCount - startLine - 1 - numLines);
+			for(int i = lineCount - numLines; i < lineCount; i++)
+				lines[i] = null;
+			lineCount -= numLines;
+		}
+
+		lines[startLine] = null;
+
+		if(numLines > 0)
+			invalidateBlocks(startLine);
+		else
+			invalidateBlock(startLine >> BLOCK_SHIFT);
+	} //}}}
+
+	//{{{ invalidate() method
+	/**
+	 * Drops the brackets of all lines starting from the specified line.
+	 * This must be called when they might be tokenized differently,
+	 * because the syntax context they start in has changed.
+	 * @param startLine The first line to drop
+	 */
+	public void invalidate(int startLine)
+	{
+		for(int i = startLine; i < lineCount; i++)
+			lines[i] = null;
+
+		invalidateBlocks(startLine);
+	} //}}}
+
+	//{{{ Private members
+	private static final String BRACKETS = "()[]{}";
+	private static final int ANY_TOKEN = 0xff;
+	private static final int BLOCK_SHIFT = 6;
+	private static final int[] NO_BRACKETS = new int[0];
+
+	private Buffer buffer;
+
+	/* For each line, pairs of ints: the offset of a bracket, and its
+	 * index in BRACKETS shifted left by 8 with its token type in the
+	 * low 8 bits. null if the line has not been scanned yet. */
+	private int[][] lines;
+	private int lineCount;
+
+	// maps Integers holding the kind of bracket (a pair of BRACKETS)
+	// shifted left by 8 and the token type (or ANY_TOKEN) to Trees
+	private Hashtable trees;
+
+	// state of the current search
+	private int need;
+
+	private Segment seg;
+
+	//{{{ getBrackets() method
+	private int[] getBrackets(int line)
+	{
+		int[] brackets = lines[line];
+		if(brackets != null)
+			return brackets;
+
+		// long lines are not tokenized, so their brackets can't be
+		// told apart from those in comments and literals
+		if(buffer.isLongLine(line))
+		{
+			lines[line] = NO_BRACKETS;
+			return NO_BRACKETS;
+		}
+
+		buffer.getLineText(line,seg);
+
+		int count = 0;
+		for(int i = 0; i < seg.count; i++)
+		{
+			if(BRACKETS.indexOf(seg.array[seg.offset + i]) != -1)
+				count++;
+		}
+
+		if(count == 0)
+			brackets = NO_BRACKETS;
+		else
+		{
+			// note that this might call invalidate() for the
+			// following lines, and clobber the segment
+			Token tokens = buffer.markTokens(line).getFirstToken();
+			buffer.getLineText(line,seg);
+
+			brackets = new int[count * 2];
+			count = 0;
+
+			int tokenStart = 0;
+			for(int i = 0; i < seg.count; i++)
+			{
+				int kind = BRACKETS.indexOf(seg.array[seg.offset + i]);
+				if(kind == -1)
+					continue;
+
+				while(tokens.id != Token.END
+					&& tokenStart + tokens.length <= i)
+				{
+					tokenStart += tokens.length;
+					tokens = tokens.next;
+				}
+
+				brackets[count++] = i;
+				brackets[count++] = kind << 8 | tokens.id;
+			}
+		}
+
+		lines[line] = brackets;
+		return brackets;
+	} //}}}
+
+	//{{{ matches() method
+	private static boolean matches(int key, int bracket)
+	{
+		if((key & 0xff) != ANY_TOKEN && (key & 0xff) != (bracket & 0xff))
+			return false;
+
+		return (bracket >> 9) == (key >> 8);
+	} //}}}
+
+	//{{{ scanForward() method
+	/**
+	 * Looks for the closing bracket that takes <code>need</code> to zero
+	 * among the brackets of a line at or after the specified offset.
+	 */
+	private int scanForward(int key, int line, int offset)
+	{
+		int[] brackets = getBrackets(line);
+		for(int i = 0; i < brackets.length; i += 2)
+		{
+			if(brackets[i] < offset || !matches(key,brackets[i + 1]))
+				continue;
+
+			if((brackets[i + 1] & 0x100) == 0)
+				need++;
+			else if(--need == 0)
+				return buffer.getLineStartOffset(line) + brackets[i];
+		}
+
+		return -1;
+	} //}}}
+
+	//{{{ scanBackward() method
+	/**
+	 * Looks for the opening bracket that takes <code>need</code> to zero
+	 * among the brackets of a line before the specified offset.
+	 */
+	private int scanBackward(int key, int line, int offset)
+	{
+		int[] brackets = getBrackets(line);
+		for(int i = brackets.length - 2; i >= 0; i -= 2)
+		{
+			if(brackets[i] >= offset || !matches(key,brackets[i + 1]))
+				continue;
+
+			if((brackets[i + 1] & 0x100) != 0)
+				need++;
+			else if(--need == 0)
+				return buffer.getLineStartOffset(line) + brackets[i];
+		}
+
+		return -1;
+	} //}}}
+
+	//{{{ searchForward() method
+	private int searchForward(int key, int line, int offset)
+	{
+		need = 1;
+
+		int result = scanForward(key,line,offset);
+		if(result != -1)
+			return result;
+
+		// rest of this block
+		int block = line >> BLOCK_SHIFT;
+		int end = Math.min(lineCount,(block + 1) << BLOCK_SHIFT);
+		for(int i = line + 1; i < end; i++)
+		{
+			result = scanForward(key,i,0);
+			if(result != -1)
+				return result;
+		}
+
+		// find the block with the match
+		Tree tree = getTree(key);
+		block = findForward(tree,1,0,tree.capacity,block + 1);
+		if(block == -1)
+			return -1;
+
+		end = Math.min(lineCount,(block + 1) << BLOCK_SHIFT);
+		for(int i = block << BLOCK_SHIFT; i < end; i++)
+		{
+			result = scanForward(key,i,0);
+			if(result != -1)
+				return result;
+		}
+
+		// can't happen
+		return -1;
+	} //}}}
+
+	//{{{ searchBackward() method
+	private int searchBackward(int key, int line, int offset)
+	{
+		need = 1;
+
+		int result = scanBackward(key,line,offset);
+		if(result != -1)
+			return result;
+
+		// rest of this block
+		int block = line >> BLOCK_SHIFT;
+		int start = block << BLOCK_SHIFT;
+		for(int i = line - 1; i >= start; i--)
+		{
+			result = scanBackward(key,i,Integer.MAX_VALUE);
+			if(result != -1)
+				return result;
+		}
+
+		// find the block with the match
+		Tree tree = getTree(key);
+		block = findBackward(tree,1,0,tree.capacity,block);
+		if(block == -1)
+			return -1;
+
+		int end = Math.min(lineCount,(block + 1) << BLOCK_SHIFT);
+		for(int i = end - 1; i >= block << BLOCK_SHIFT; i--)
+		{
+			result = scanBackward(key,i,Integer.MAX_VALUE);
+			if(result != -1)
+				return result;
+		}
+
+		// can't happen
+		return -1;
+	} //}}}
+
+	//{{{ findForward() method
+	/**
+	 * Returns the first block at or after <code>from</code> containing
+	 * the closing bracket that takes <code>need</code> to zero, or -1.
+	 * If there is no such block, <code>need</code> is updated with the
+	 * brackets in the range.
+	 */
+	private int findForward(Tree tree, int node, int lo, int hi, int from)
+	{
+		if(hi <= from || (lo << BLOCK_SHIFT) >= lineCount)
+			return -1;
+
+		if(hi - lo == 1 && !tree.isValid(node))
+			computeBlock(tree,node,lo);
+
+		if(lo >= from && tree.isValid(node))
+		{
+			if(tree.close[node] < need)
+			{
+				need += tree.open[node] - tree.close[node];
+				return -1;
+			}
+			else if(hi - lo == 1)
+				return lo;
+		}
+
+		int mid = (lo + hi) >> 1;
+		int result = findForward(tree,node * 2,lo,mid,from);
+		if(result == -1)
+			result = findForward(tree,node * 2 + 1,mid,hi,from);
+		tree.update(node);
+		return result;
+	} //}}}
+
+	//{{{ findBackward() method
+	/**
+	 * Returns the last block before <code>before</code> containing the
+	 * opening bracket that takes <code>need</code> to zero, or -1.
+	 * If there is no such block, <code>need</code> is updated with the
+	 * brackets in the range.
+	 */
+	private int findBackward(Tree tree, int node, int lo, int hi, int before)
+	{
+		if(lo >= before)
+			return -1;
+
+		if(hi - lo == 1 && !tree.isValid(node))
+			computeBlock(tree,node,lo);
+
+		if(hi <= before && tree.isValid(node))
+		{
+			if(tree.open[node] < need)
+			{
+				need += tree.close[node] - tree.open[node];
+				return -1;
+			}
+			else if(hi - lo == 1)
+				return lo;
+		}
+
+		int mid = (lo + hi) >> 1;
+		int result = findBackward(tree,node * 2 + 1,mid,hi,before);
+		if(result == -1)
+			result = findBackward(tree,node * 2,lo,mid,before);
+		tree.update(node);
+		return result;
+	} //}}}
+
+	//{{{ computeBlock() method
+	private void computeBlock(Tree tree, int node, int block)
+	{
+		int start = block << BLOCK_SHIFT;
+		int end = Math.min(lineCount,start + (1 << BLOCK_SHIFT));
+
+		// scan the lines first, since tokenizing them can
+		// invalidate the following lines
+		for(int i = start; i < end; i++)
+			getBrackets(i);
+
+		int close = 0;
+		int open = 0;
+
+		for(int i = start; i < end; i++)
+		{
+			int[] brackets = lines[i];
+			for(int j = 0; j < brackets.length; j += 2)
+			{
+				if(!matches(tree.key,brackets[j + 1]))
+					continue;
+
+				if((brackets[j + 1] & 0x100) == 0)
+					open++;
+				else if(open != 0)
+					open--;
+				else
+					close++;
+			}
+		}
+
+		tree.close[node] = close;
+		tree.open[node] = open;
+	} //}}}
+
+	//{{{ getTree() method
+	private Tree getTree(int key)
+	{
+		int blockCount = (lineCount >> BLOCK_SHIFT) + 1;
+
+		Integer _key = new Integer(key);
+		Tree tree = (Tree)trees.get(_key);
+		if(tree == null || tree.capacity < blockCount)
+		{
+			tree = new Tree(key,blockCount);
+			trees.put(_key,tree);
+		}
+
+		return tree;
+	} //}}}
+
+	//{{{ invalidateBlock() method
+	private void invalidateBlock(int block)
+	{
+		Enumeration e = trees.elements();
+		while(e.hasMoreElements())
+		{
+			Tree tree = (Tree)e.nextElement();
+			if(block < tree.capacity)
+			{
+				for(int node = tree.capacity + block; node != 0;
+					node >>= 1)
+				{
+					tree.close[node] = -1;
+				}
+			}
+		}
+	} //}}}
+
+	//{{{ invalidateBlocks() method
+	private void invalidateBlocks(int startLine)
+	{
+		int block = startLine >> BLOCK_SHIFT;
+
+		Enumeration e = trees.elements();
+		while(e.hasMoreElements())
+		{
+			Tree tree = (Tree)e.nextElement();
+
+			// the nodes on each level of the tree covering the
+			// blocks from 'block' onwards
+			int first = tree.capacity + Math.min(block,tree.capacity);
+			int last = tree.capacity * 2;
+			while(first < last)
+			{
+				for(int node = first; node < last; node++)
+					tree.close[node] = -1;
+				first >>= 1;
+				last >>= 1;
+			}
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ Tree class
+	/**
+	 * A segment tree over blocks of lines, stored as a heap: node 1
+	 * covers all blocks, the children of node n are 2n and 2n+1, and
+	 * the leaves start at <code>capacity</code>.
+	 */
+	static class Tree
+	{
+		int key;
+		int capacity;
+
+		// unmatched closing brackets at the start and opening
+		// brackets at the end of each range. close is -1 if the
+		// node needs to be computed again
+		int[] close;
+		int[] open;
+
+		//{{{ Tree constructor
+		Tree(int key, int blockCount)
+		{
+			this.key = key;
+
+			capacity = 1;
+			while(capacity < blockCount * 2)
+				capacity <<= 1;
+
+			close = new int[capacity * 2];
+			open = new int[capacity * 2];
+			for(int i = 0; i < close.length; i++)
+				close[i] = -1;
+		} //}}}
+
+		//{{{ isValid() method
+		boolean isValid(int node)
+		{
+			return close[node] != -1;
+		} //}}}
+
+		//{{{ update() method
+		/**
+		 * Computes a node from its children, if both are valid.
+		 */
+		void update(int node)
+		{
+			int left = node * 2;
+			int right = left + 1;
+			if(close[left] == -1 || close[right] == -1)
+				return;
+
+			int matched = Math.min(open[left],close[right]);
+			close[node] = close[left] + close[right] - matched;
+			open[node] = open[left] + open[right] - matched;
+		} //}}}
+	} //}}}
+}
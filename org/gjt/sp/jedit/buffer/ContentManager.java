@@ -94,9 +94,62 @@ public class ContentManager
 		}
 	} //}}}
 
+	//{{{ getModCount() method
+	/**
+	 * Returns a number that changes every time the text is changed.
+	 * @since jEdit 4.1pre1
+	 */
+	public final int getModCount()
+	{
+		return modCount;
+	} //}}}
+
+	//{{{ snapshot() method
+	/**
+	 * Returns a copy of the text that is not affected by later changes.
+	 * The copy shares the text array with this content manager, so
+	 * taking a snapshot is cheap and the array is only copied if the
+	 * text changes while the snapshot is still in use. The snapshot
+	 * must not be changed itself, and {@link #release()} must be called
+	 * once it is no longer needed.
+	 * @since jEdit 4.1pre1
+	 */
+	public synchronized ContentManager snapshot()
+	{
+		ContentManager copy = new ContentManager(text,gapStart,gapEnd,
+			length,modCount);
+		copy.source = this;
+		snapshots++;
+		return copy;
+	} //}}}
+
+	//{{{ release() method
+	/**
+	 * Called on a snapshot when it is no longer needed. Once all
+	 * snapshots sharing the text array have been released, changing
+	 * the text no longer copies the array. Releasing a snapshot more
+	 * than once has no effect. Can be called from any thread.
+	 * @since jEdit 4.1pre1
+	 */
+	public void release()
+	{
+		ContentManager source;
+		synchronized(this)
+		{
+			source = this.source;
+			this.source = null;
+		}
+
+		if(source != null)
+			source.snapshotReleased(text);
+	} //}}}
+
 	//{{{ insert() method
 	public void insert(int start, String str)
 	{
+		unshare();
+		modCount++;
+
 		int len = str.length();
 		if(gapStart != start || gapEnd - gapStart < len)
 		{
@@ -111,6 +164,9 @@ public class ContentManager
 	//{{{ insert() method
 	public void insert(int start, Segment seg)
 	{
+		unshare();
+		modCount++;
+
 		if(gapStart != start || gapEnd - gapStart < seg.count)
 		{
 			ensureCapacity(length + seg.count + 200);
@@ -124,14 +180,22 @@ public class ContentManager
 	//{{{ _setContent() method
 	public void _setContent(char[] text, int length)
 	{
-		this.text = text;
+		synchronized(this)
+		{
+			this.text = text;
+			snapshots = 0;
+		}
 		this.gapStart = this.gapEnd = 0;
 		this.length = length;
+		modCount++;
 	} //}}}
 
 	//{{{ remove() method
 	public void remove(int start, int len)
 	{
+		unshare();
+		modCount++;
+
 		close(start,start);
 		gapEnd += len;
 		length -= len;
@@ -143,6 +207,54 @@ public class ContentManager
 	private int gapEnd;
 	private int length;
 
+	// incremented every time the text changes
+	private int modCount;
+
+	// number of snapshots that refer to the text array and have not
+	// been released
+	private int snapshots;
+
+	// set in a snapshot, until it is released
+	private ContentManager source;
+
+	//{{{ ContentManager constructor
+	private ContentManager(char[] text, int gapStart, int gapEnd,
+		int length, int modCount)
+	{
+		this.text = text;
+		this.gapStart = gapStart;
+		this.gapEnd = gapEnd;
+		this.length = length;
+		this.modCount = modCount;
+	} //}}}
+
+	//{{{ unshare() method
+	/**
+	 * Copies the text array if a snapshot refers to it, so that the
+	 * snapshot is not affected by the change about to be made.
+	 */
+	private synchronized void unshare()
+	{
+		if(snapshots != 0)
+		{
+			char[] textN = new char[text.length];
+			System.arraycopy(text,0,textN,0,text.length);
+			text = textN;
+			snapshots = 0;
+		}
+	} //}}}
+
+	//{{{ snapshotReleased() method
+	/**
+	 * Called when a snapshot is released. Snapshots of a text array
+	 * that has since been copied are no longer counted.
+	 */
+	private synchronized void snapshotReleased(char[] array)
+	{
+		if(array == text && snapshots != 0)
+			snapshots--;
+	} //}}}
+
 	//{{{ close() method
 	private void close(int newStart, int newEnd)
 	{
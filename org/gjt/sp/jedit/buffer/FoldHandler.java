@@ -49,7 +49,10 @@ public abstract class FoldHandler
 
 	//{{{ getFoldLevel() method
 	/**
-	 * Returns the fold level of the specified line.
+	 * Returns the fold level of the specified line. The fold level
+	 * should only depend on the text of the line and the line before
+	 * it, and on the fold level of the line before it; after an edit,
+	 * the buffer only recomputes fold levels until they stop changing.
 	 * @param buffer The buffer in question
 	 * @param lineIndex The line index
 	 * @param seg A segment the fold handler can use to obtain any
@@ -24,6 +24,8 @@ package org.gjt.sp.jedit.buffer;
 
 //{{{ Imports
 import javax.swing.text.*;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import org.gjt.sp.jedit.syntax.*;
 import org.gjt.sp.jedit.Buffer;
 import org.gjt.sp.util.IntegerArray;
@@ -146,6 +148,42 @@ public class OffsetManager
 			| FOLD_LEVEL_VALID_MASK);
 	} //}}}
 
+	//{{{ getFirstInvalidFoldLevel() method
+	/**
+	 * Returns the first line whose fold level might need to be
+	 * recomputed. The fold levels of all lines before it are valid.
+	 * From this line on, the fold level valid flags must be checked
+	 * in order, since a changed fold level only invalidates the line
+	 * after it.
+	 * @since jEdit 4.1pre1
+	 */
+	public final int getFirstInvalidFoldLevel()
+	{
+		return firstInvalidFoldLevel;
+	} //}}}
+
+	//{{{ setFirstInvalidFoldLevel() method
+	/**
+	 * Should only be called by <code>Buffer.getFoldLevel()</code>.
+	 * @since jEdit 4.1pre1
+	 */
+	public final void setFirstInvalidFoldLevel(int line)
+	{
+		firstInvalidFoldLevel = line;
+	} //}}}
+
+	//{{{ invalidateFoldLevel() method
+	/**
+	 * Marks the fold level of a line as needing to be recomputed.
+	 * @since jEdit 4.1pre1
+	 */
+	public final void invalidateFoldLevel(int line)
+	{
+		lineInfo[line] &= ~FOLD_LEVEL_VALID_MASK;
+		if(line < firstInvalidFoldLevel)
+			firstInvalidFoldLevel = line;
+	} //}}}
+
 	//{{{ isLineVisible() method
 	public final boolean isLineVisible(int line, int index)
 	{
@@ -164,19 +202,89 @@ public class OffsetManager
 	} //}}}
 
 	//{{{ getScreenLineCount() method
+	/**
+	 * Returns the number of screen lines the specified line is split
+	 * into by soft wrap, or 0 if it is not known.
+	 */
 	public final int getScreenLineCount(int line)
 	{
-		return (int)((lineInfo[line] & SCREEN_LINES_MASK)
+		int count = (int)((lineInfo[line] & SCREEN_LINES_MASK)
 			>> SCREEN_LINES_SHIFT);
+		if(count == MAX_SCREEN_LINES && screenLineOverflow != null)
+		{
+			Integer overflow = (Integer)screenLineOverflow.get(
+				new Integer(line));
+			if(overflow != null)
+				return overflow.intValue();
+		}
+		return count;
 	} //}}}
 
 	//{{{ setScreenLineCount() method
+	/**
+	 * Sets the number of screen lines the specified line is split into
+	 * by soft wrap; 0 means not known.
+	 */
 	public final void setScreenLineCount(int line, int count)
 	{
+		if(count >= MAX_SCREEN_LINES)
+		{
+			if(screenLineOverflow == null)
+				screenLineOverflow = new Hashtable();
+			screenLineOverflow.put(new Integer(line),new Integer(count));
+			count = MAX_SCREEN_LINES;
+		}
+		else if(screenLineOverflow != null)
+			screenLineOverflow.remove(new Integer(line));
+
 		lineInfo[line] = ((lineInfo[line] & ~SCREEN_LINES_MASK)
 			| ((long)count << SCREEN_LINES_SHIFT));
 	} //}}}
 
+	//{{{ getScreenLineCountKey() method
+	/**
+	 * Returns the object describing the wrap margin and font that the
+	 * stored screen line counts were computed with.
+	 * @since jEdit 4.1pre1
+	 */
+	public final Object getScreenLineCountKey()
+	{
+		return screenLineCountKey;
+	} //}}}
+
+	//{{{ invalidateScreenLineCounts() method
+	/**
+	 * Forgets all screen line counts, for example because the wrap margin
+	 * has changed.
+	 * @param key The object describing the wrap margin and font that
+	 * new screen line counts will be computed with
+	 * @since jEdit 4.1pre1
+	 */
+	public void invalidateScreenLineCounts(Object key)
+	{
+		for(int i = 0; i < lineCount; i++)
+			lineInfo[i] &= ~SCREEN_LINES_MASK;
+		screenLineOverflow = null;
+		screenLineCountKey = key;
+		structureVersion++;
+	} //}}}
+
+	//{{{ getStructureVersion() method
+	/**
+	 * Returns a number that changes whenever lines are inserted or
+	 * removed, whenever the visibility of lines is reset for all fold
+	 * visibility managers, and whenever the screen line counts are
+	 * discarded. Indexes kept by fold visibility managers must be
+	 * rebuilt when it changes, unless they are told about the inserted
+	 * or removed lines, in which case it changes by one for each
+	 * insert or remove.
+	 * @since jEdit 4.1pre1
+	 */
+	public final int getStructureVersion()
+	{
+		return structureVersion;
+	} //}}}
+
 	//{{{ isLineContextValid() method
 	public final boolean isLineContextValid(int line)
 	{
@@ -280,6 +388,8 @@ public class OffsetManager
 		{
 			virtualLineCounts[i] = newVirtualLineCount;
 		}
+
+		structureVersion++;
 	} //}}}
 
 	//{{{ contentInserted() method
@@ -362,6 +472,19 @@ public class OffsetManager
 			setLineEndOffset(i,getLineEndOffset(i) + length);
 		} //}}}
 
+		foldLevelsChanged(startLine,endLine);
+
+		//{{{ Update screen line counts
+		if(numLines > 0)
+		{
+			structureVersion++;
+			moveScreenLineOverflow(startLine,startLine,numLines);
+		}
+
+		for(int i = startLine; i <= endLine; i++)
+			setScreenLineCount(i,0);
+		//}}}
+
 		updatePositionsForInsert(offset,length);
 	} //}}}
 
@@ -409,6 +532,19 @@ public class OffsetManager
 			setLineEndOffset(i,getLineEndOffset(i) - length);
 		} //}}}
 
+		foldLevelsChanged(startLine,startLine);
+
+		//{{{ Update screen line counts
+		if(numLines > 0)
+		{
+			structureVersion++;
+			moveScreenLineOverflow(startLine,startLine + numLines,
+				-numLines);
+		}
+
+		setScreenLineCount(startLine,0);
+		//}}}
+
 		updatePositionsForRemove(offset,length);
 	} //}}}
 
@@ -421,6 +557,24 @@ public class OffsetManager
 				| CONTEXT_VALID_MASK);
 			lineContext[i] = null;
 		}
+
+		if(startLine < firstInvalidFoldLevel)
+			firstInvalidFoldLevel = startLine;
+	} //}}}
+
+	//{{{ lineContextChangedFrom() method
+	/**
+	 * Like <code>lineInfoChangedFrom()</code>, but leaves fold levels
+	 * alone, since they do not depend on syntax highlighting.
+	 * @since jEdit 4.1pre1
+	 */
+	public void lineContextChangedFrom(int startLine)
+	{
+		for(int i = startLine; i < lineCount; i++)
+		{
+			lineInfo[i] &= ~CONTEXT_VALID_MASK;
+			lineContext[i] = null;
+		}
 	} //}}}
 
 	//{{{ Private members
@@ -431,7 +585,9 @@ public class OffsetManager
 	 * 48-55: visibility bit flags
 	 * 56: fold level valid flag
 	 * 57: context valid flag
-	 * 58-62: number of screen lines (currently unused, reserved for jEdit 4.1)
+	 * 58-62: number of screen lines, 0 if not known. Lines that are
+	 *        split into 31 or more screen lines store 31, and their
+	 *        exact count in the screenLineOverflow table
 	 * 63: reserved
 	 *
 	 * Having all the info packed into a long is not very OO and makes the
@@ -454,6 +610,7 @@ public class OffsetManager
 	private static final long CONTEXT_VALID_MASK = (1L<<57);
 	private static final long SCREEN_LINES_MASK = 0x7c00000000000000L;
 	private static final long SCREEN_LINES_SHIFT = 58;
+	private static final int MAX_SCREEN_LINES = 31;
 
 	//{{{ Instance variables
 	private Buffer buffer;
@@ -461,18 +618,69 @@ public class OffsetManager
 	private TokenMarker.LineContext[] lineContext;
 
 	private int lineCount;
+	private int firstInvalidFoldLevel;
 
 	private PosBottomHalf[] positions;
 	private int positionCount;
 
 	private int[] virtualLineCounts;
+
+	private Hashtable screenLineOverflow;
+	private Object screenLineCountKey;
+	private int structureVersion;
 	//}}}
 
 	//{{{ setLineEndOffset() method
 	private final void setLineEndOffset(int line, int end)
 	{
 		lineInfo[line] = ((lineInfo[line] & ~(END_MASK
-			| FOLD_LEVEL_VALID_MASK | CONTEXT_VALID_MASK)) | end);
+			| CONTEXT_VALID_MASK)) | end);
+	} //}}}
+
+	//{{{ foldLevelsChanged() method
+	/**
+	 * A fold level only depends on the text of its line and the
+	 * previous line, and on the previous line's fold level. So after
+	 * an edit only the changed lines and the line after them need to
+	 * be recomputed; <code>Buffer.getFoldLevel()</code> carries on
+	 * from there if their fold levels end up changing.
+	 */
+	private void foldLevelsChanged(int startLine, int endLine)
+	{
+		endLine = Math.min(endLine + 1,lineCount - 1);
+		for(int i = startLine; i <= endLine; i++)
+			lineInfo[i] &= ~FOLD_LEVEL_VALID_MASK;
+
+		if(startLine < firstInvalidFoldLevel)
+			firstInvalidFoldLevel = startLine;
+	} //}}}
+
+	//{{{ moveScreenLineOverflow() method
+	/**
+	 * Drops the exact screen line counts of lines from start to end,
+	 * and moves those of lines after end by delta.
+	 */
+	private void moveScreenLineOverflow(int start, int end, int delta)
+	{
+		if(screenLineOverflow == null || screenLineOverflow.isEmpty())
+			return;
+
+		Hashtable moved = new Hashtable();
+		Enumeration keys = screenLineOverflow.keys();
+		while(keys.hasMoreElements())
+		{
+			Integer key = (Integer)keys.nextElement();
+			int line = key.intValue();
+			if(line < start)
+				moved.put(key,screenLineOverflow.get(key));
+			else if(line > end)
+			{
+				moved.put(new Integer(line + delta),
+					screenLineOverflow.get(key));
+			}
+		}
+
+		screenLineOverflow = moved;
 	} //}}}
 
 	//{{{ growPositionArray() method
@@ -0,0 +1,303 @@
+/*
+ * TokenListCache.java - Caches syntax tokens of recently used lines
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.buffer;
+
+import org.gjt.sp.jedit.Buffer;
+
+/**
+ * A class internal to jEdit's document model. You should not use it
+ * directly. To improve performance, none of the methods in this class
+ * check for out of bounds access, nor are they thread-safe. The
+ * <code>Buffer</code> class, through which these methods must be
+ * called through, implements such protection.<p>
+ *
+ * Holds the token lists of the most recently tokenized lines, keyed by
+ * line number. When the cache is full, the least recently used line is
+ * dropped. Edits shift the line numbers of the entries below the
+ * changed lines, so that lines whose text did not change keep their
+ * tokens.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class TokenListCache
+{
+	//{{{ TokenListCache constructor
+	/**
+	 * Creates a new token list cache.
+	 * @param size The maximum number of lines to hold
+	 */
+	public TokenListCache(int size)
+	{
+		int bucketCount = 1;
+		while(bucketCount < size * 2)
+			bucketCount <<= 1;
+		buckets = new Entry[bucketCount];
+
+		this.size = size;
+	} //}}}
+
+	//{{{ get() method
+	/**
+	 * Returns the cached token list of the specified line, or null.
+	 * @param line The line number
+	 */
+	public Buffer.TokenList get(int line)
+	{
+		Entry entry = buckets[line & (buckets.length - 1)];
+		while(entry != null)
+		{
+			if(entry.line == line)
+			{
+				unlink(entry);
+				linkFirst(entry);
+				return entry.tokens;
+			}
+			entry = entry.hashNext;
+		}
+
+		return null;
+	} //}}}
+
+	//{{{ put() method
+	/**
+	 * Stores the token list of a line.
+	 * @param line The line number
+	 * @param tokens The token list
+	 */
+	public void put(int line, Buffer.TokenList tokens)
+	{
+		Entry entry = buckets[line & (buckets.length - 1)];
+		while(entry != null)
+		{
+			if(entry.line == line)
+			{
+				entry.tokens = tokens;
+				unlink(entry);
+				linkFirst(entry);
+				return;
+			}
+			entry = entry.hashNext;
+		}
+
+		if(count == size)
+		{
+			entry = lru;
+			remove(entry);
+		}
+		else
+			entry = new Entry();
+
+		entry.line = line;
+		entry.tokens = tokens;
+		addToBucket(entry);
+		linkFirst(entry);
+		count++;
+	} //}}}
+
+	//{{{ linesInserted() method
+	/**
+	 * Called after text was inserted. The entry for the first line is
+	 * dropped, and entries after it are moved down.
+	 * @param startLine The first changed line
+	 * @param numLines The number of line breaks inserted
+	 */
+	public void linesInserted(int startLine, int numLines)
+	{
+		if(count == 0)
+			return;
+
+		Entry entry = mru;
+		Entry moved = null;
+
+		while(entry != null)
+		{
+			Entry next = entry.next;
+			if(entry.line == startLine)
+				remove(entry);
+			else if(entry.line > startLine && numLines != 0)
+			{
+				removeFromBucket(entry);
+				entry.line += numLines;
+				entry.hashNext = moved;
+				moved = entry;
+			}
+			entry = next;
+		}
+
+		rehash(moved);
+	} //}}}
+
+	//{{{ linesRemoved() method
+	/**
+	 * Called after text was removed. Entries for the joined lines are
+	 * dropped, and entries after them are moved up.
+	 * @param startLine The first changed line
+	 * @param numLines The number of line breaks removed
+	 */
+	public void linesRemoved(int startLine, int numLines)
+	{
+		if(count == 0)
+			return;
+
+		int endLine = startLine + numLines;
+
+		Entry entry = mru;
+		Entry moved = null;
+
+		while(entry != null)
+		{
+			Entry next = entry.next;
+			if(entry.line >= startLine && entry.line <= endLine)
+				remove(entry);
+			else if(entry.line > endLine && numLines != 0)
+			{
+				removeFromBucket(entry);
+				entry.line -= numLines;
+				entry.hashNext = moved;
+				moved = entry;
+			}
+			entry = next;
+		}
+
+		rehash(moved);
+	} //}}}
+
+	//{{{ invalidate() method
+	/**
+	 * Drops all entries for lines starting from the specified line.
+	 * @param startLine The first line to drop
+	 */
+	public void invalidate(int startLine)
+	{
+		Entry entry = mru;
+		while(entry != null)
+		{
+			Entry next = entry.next;
+			if(entry.line >= startLine)
+				remove(entry);
+			entry = next;
+		}
+	} //}}}
+
+	//{{{ Private members
+	private Entry[] buckets;
+	private int size;
+	private int count;
+
+	// most and least recently used entries
+	private Entry mru;
+	private Entry lru;
+
+	//{{{ remove() method
+	private void remove(Entry entry)
+	{
+		removeFromBucket(entry);
+		unlink(entry);
+		entry.tokens = null;
+		count--;
+	} //}}}
+
+	//{{{ rehash() method
+	private void rehash(Entry moved)
+	{
+		while(moved != null)
+		{
+			Entry next = moved.hashNext;
+			addToBucket(moved);
+			moved = next;
+		}
+	} //}}}
+
+	//{{{ addToBucket() method
+	private void addToBucket(Entry entry)
+	{
+		int bucket = entry.line & (buckets.length - 1);
+		entry.hashNext = buckets[bucket];
+		buckets[bucket] = entry;
+	} //}}}
+
+	//{{{ removeFromBucket() method
+	private void removeFromBucket(Entry entry)
+	{
+		int bucket = entry.line & (buckets.length - 1);
+		Entry prev = null;
+		Entry e = buckets[bucket];
+		while(e != entry)
+		{
+			prev = e;
+			e = e.hashNext;
+		}
+
+		if(prev == null)
+			buckets[bucket] = entry.hashNext;
+		else
+			prev.hashNext = entry.hashNext;
+		entry.hashNext = null;
+	} //}}}
+
+	//{{{ linkFirst() method
+	private void linkFirst(Entry entry)
+	{
+		entry.prev = null;
+		entry.next = mru;
+		if(mru != null)
+			mru.prev = entry;
+		mru = entry;
+		if(lru == null)
+			lru = entry;
+	} //}}}
+
+	//{{{ unlink() method
+	private void unlink(Entry entry)
+	{
+		if(entry.prev == null)
+			mru = entry.next;
+		else
+			entry.prev.next = entry.next;
+
+		if(entry.next == null)
+			lru = entry.prev;
+		else
+			entry.next.prev = entry.prev;
+
+		entry.prev = entry.next = null;
+	} //}}}
+
+	//}}}
+
+	//{{{ Entry class
+	static class Entry
+	{
+		int line;
+		Buffer.TokenList tokens;
+
+		// next entry in the same hash bucket
+		Entry hashNext;
+
+		// LRU list
+		Entry prev;
+		Entry next;
+	} //}}}
+}
@@ -176,7 +176,13 @@ public class CloseDialog extends EnhancedDialog
 					Buffer buffer = jEdit.getBuffer(path);
 					if(!buffer.save(view,null,true))
 						return;
-					VFSManager.waitForRequests();
+
+					// an untitled buffer is saved under
+					// a new path
+					VFSManager.waitForRequests(path);
+					if(buffer.isPerformingIO())
+						VFSManager.waitForRequests();
+
 					jEdit._closeBuffer(view,buffer);
 					bufferModel.removeElement(path);
 				}
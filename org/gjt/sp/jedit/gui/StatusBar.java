@@ -147,6 +147,20 @@ public class StatusBar extends JPanel implements WorkThreadProgressListener
 
 		box.add(overwrite);
 
+		paintStatus = new PaintStatus();
+		paintStatus.setHorizontalAlignment(SwingConstants.CENTER);
+		paintStatus.setBorder(border);
+		paintStatus.addMouseListener(mouseHandler);
+
+		dim = paintStatus.getPreferredSize();
+		dim.width += fm.stringWidth(jEdit.getProperty(
+			"view.status.paint",new Object[] { "9999" }));
+		paintStatus.setPreferredSize(dim);
+
+		paintStrut = Box.createHorizontalStrut(3);
+		box.add(paintStrut);
+		box.add(paintStatus);
+
 		box.add(Box.createHorizontalStrut(3));
 		memory = new MemoryStatus();
 		memory.setBorder(border);
@@ -318,6 +332,8 @@ public class StatusBar extends JPanel implements WorkThreadProgressListener
 	private JLabel foldMode;
 	private JLabel multiSelect;
 	private JLabel overwrite;
+	private Component paintStrut;
+	private PaintStatus paintStatus;
 	private MemoryStatus memory;
 	/* package-private for speed */ StringBuffer buf = new StringBuffer();
 	private Timer tempTimer;
@@ -373,6 +389,14 @@ public class StatusBar extends JPanel implements WorkThreadProgressListener
 					memory.repaint();
 				}
 			}
+			else if(source == paintStatus)
+			{
+				if(evt.getClickCount() == 2)
+				{
+					view.getDockableWindowManager()
+						.addDockableWindow("paint-profiler");
+				}
+			}
 		}
 	} //}}}
 
@@ -490,6 +514,70 @@ public class StatusBar extends JPanel implements WorkThreadProgressListener
 		//}}}
 	} //}}}
 
+	//{{{ PaintStatus class
+	/**
+	 * Shows the time taken by the last text area repaint. Only visible
+	 * while the repaint profiler is collecting statistics.
+	 */
+	class PaintStatus extends JLabel implements ActionListener
+	{
+		//{{{ addNotify() method
+		public void addNotify()
+		{
+			super.addNotify();
+			update();
+			timer = new Timer(1000,this);
+			timer.start();
+			ToolTipManager.sharedInstance().registerComponent(this);
+		} //}}}
+
+		//{{{ removeNotify() method
+		public void removeNotify()
+		{
+			super.removeNotify();
+			timer.stop();
+			ToolTipManager.sharedInstance().unregisterComponent(this);
+		} //}}}
+
+		//{{{ getToolTipText() method
+		public String getToolTipText()
+		{
+			Object[] args = {
+				new Long(PainterProfiler.getLastFrameTime()),
+				new Integer(PainterProfiler.getLastFrameLines()),
+				new Float(PainterProfiler.getAverageFrameTime()),
+				new Integer(PainterProfiler.getStallCount())
+			};
+			return jEdit.getProperty("view.status.paint-tooltip",args);
+		} //}}}
+
+		//{{{ actionPerformed() method
+		public void actionPerformed(ActionEvent evt)
+		{
+			update();
+		} //}}}
+
+		//{{{ update() method
+		private void update()
+		{
+			boolean enabled = PainterProfiler.isEnabled();
+			if(enabled)
+			{
+				Object[] args = { new Long(PainterProfiler
+					.getLastFrameTime()) };
+				setText(jEdit.getProperty("view.status.paint",args));
+			}
+
+			if(enabled != isVisible())
+			{
+				setVisible(enabled);
+				paintStrut.setVisible(enabled);
+			}
+		} //}}}
+
+		private Timer timer;
+	} //}}}
+
 	//{{{ MemoryStatus class
 	class MemoryStatus extends JComponent implements ActionListener
 	{
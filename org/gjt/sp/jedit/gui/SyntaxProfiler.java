@@ -0,0 +1,204 @@
+/*
+ * SyntaxProfiler.java - Shows syntax highlighting statistics
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.gui;
+
+//{{{ Imports
+import java.awt.event.*;
+import java.awt.*;
+import java.io.*;
+import javax.swing.*;
+import org.gjt.sp.jedit.browser.VFSBrowser;
+import org.gjt.sp.jedit.syntax.TokenMarkerProfiler;
+import org.gjt.sp.jedit.*;
+import org.gjt.sp.util.Log;
+//}}}
+
+/**
+ * Shows the statistics collected by {@link TokenMarkerProfiler}.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class SyntaxProfiler extends JPanel
+{
+	//{{{ SyntaxProfiler constructor
+	public SyntaxProfiler(View view)
+	{
+		super(new BorderLayout());
+
+		this.view = view;
+
+		ActionHandler actionHandler = new ActionHandler();
+
+		Box buttons = Box.createHorizontalBox();
+
+		enabled = new JCheckBox(jEdit.getProperty(
+			"syntax-profiler.enabled"),
+			TokenMarkerProfiler.isEnabled());
+		enabled.addActionListener(actionHandler);
+		buttons.add(enabled);
+
+		buttons.add(Box.createHorizontalGlue());
+
+		refresh = new JButton(jEdit.getProperty("syntax-profiler.refresh"));
+		refresh.addActionListener(actionHandler);
+		buttons.add(refresh);
+
+		buttons.add(Box.createHorizontalStrut(6));
+
+		reset = new JButton(jEdit.getProperty("syntax-profiler.reset"));
+		reset.addActionListener(actionHandler);
+		buttons.add(reset);
+
+		buttons.add(Box.createHorizontalStrut(6));
+
+		save = new JButton(jEdit.getProperty("syntax-profiler.save"));
+		save.addActionListener(actionHandler);
+		buttons.add(save);
+
+		add(BorderLayout.NORTH,buttons);
+
+		textArea = new JTextArea(24,80);
+		textArea.setEditable(false);
+		textArea.setFont(new Font("Monospaced",Font.PLAIN,12));
+		add(BorderLayout.CENTER,new JScrollPane(textArea));
+
+		timer = new Timer(REFRESH_INTERVAL,actionHandler);
+
+		updateReport();
+	} //}}}
+
+	//{{{ addNotify() method
+	public void addNotify()
+	{
+		super.addNotify();
+		timer.start();
+	} //}}}
+
+	//{{{ removeNotify() method
+	public void removeNotify()
+	{
+		super.removeNotify();
+		timer.stop();
+	} //}}}
+
+	//{{{ Private members
+	private static final int REFRESH_INTERVAL = 2000;
+
+	private View view;
+	private JCheckBox enabled;
+	private JButton refresh;
+	private JButton reset;
+	private JButton save;
+	private JTextArea textArea;
+	private Timer timer;
+
+	//{{{ updateReport() method
+	private void updateReport()
+	{
+		StringWriter out = new StringWriter();
+		try
+		{
+			TokenMarkerProfiler.dump(out);
+		}
+		catch(IOException io)
+		{
+			// can't happen with a StringWriter
+			Log.log(Log.ERROR,this,io);
+		}
+
+		String report = out.toString();
+		if(!report.equals(textArea.getText()))
+		{
+			textArea.setText(report);
+			textArea.setCaretPosition(0);
+		}
+	} //}}}
+
+	//{{{ saveReport() method
+	private void saveReport()
+	{
+		String[] files = GUIUtilities.showVFSFileDialog(view,null,
+			VFSBrowser.SAVE_DIALOG,false);
+		if(files == null)
+			return;
+
+		String path = files[0];
+		if(MiscUtilities.isURL(path))
+		{
+			GUIUtilities.error(view,"syntax-profiler.not-local",null);
+			return;
+		}
+
+		Writer out = null;
+		try
+		{
+			out = new BufferedWriter(new FileWriter(path));
+			TokenMarkerProfiler.dump(out);
+		}
+		catch(IOException io)
+		{
+			Log.log(Log.ERROR,this,io);
+			String[] args = { io.toString() };
+			GUIUtilities.error(view,"syntax-profiler.save-error",args);
+		}
+		finally
+		{
+			try
+			{
+				if(out != null)
+					out.close();
+			}
+			catch(IOException io)
+			{
+				Log.log(Log.ERROR,this,io);
+			}
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ ActionHandler class
+	class ActionHandler implements ActionListener
+	{
+		public void actionPerformed(ActionEvent evt)
+		{
+			Object source = evt.getSource();
+			if(source == enabled)
+			{
+				TokenMarkerProfiler.setEnabled(enabled.isSelected());
+				updateReport();
+			}
+			else if(source == refresh || source == timer)
+				updateReport();
+			else if(source == reset)
+			{
+				TokenMarkerProfiler.reset();
+				updateReport();
+			}
+			else if(source == save)
+				saveReport();
+		}
+	} //}}}
+}
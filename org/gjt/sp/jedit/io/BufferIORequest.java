@@ -27,6 +27,7 @@ import javax.swing.text.Segment;
 import java.io.*;
 import java.util.zip.*;
 import java.util.Vector;
+import org.gjt.sp.jedit.buffer.ContentManager;
 import org.gjt.sp.jedit.*;
 import org.gjt.sp.util.*;
 //}}}
@@ -53,6 +54,39 @@ public class BufferIORequest extends WorkRequest
 	public static final String END_OFFSETS = "BufferIORequest__endOffsets";
 	public static final String NEW_PATH = "BufferIORequest__newPath";
 
+	/**
+	 * Buffer property holding the snapshot of the buffer text to
+	 * save. If it is not set, a snapshot is taken when the save
+	 * starts.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final String SAVE_DATA = "BufferIORequest__saveData";
+
+	/**
+	 * Buffer property holding the contents of the markers file to
+	 * save, taken at the same time as the {@link #SAVE_DATA} snapshot
+	 * so that the marker positions match the saved text. If it is not
+	 * set, the markers are looked at when the save starts.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final String SAVE_MARKERS = "BufferIORequest__saveMarkers";
+
+	/**
+	 * Buffer properties holding the number of bytes of the file that
+	 * have been read, and the last few of those bytes, so that text
+	 * appended to the file can be read without reading it all again.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final String FOLLOW_OFFSET = "BufferIORequest__followOffset";
+	public static final String FOLLOW_TAIL = "BufferIORequest__followTail";
+
+	/**
+	 * Buffer property holding the text read by an append request. It
+	 * is not set if the file cannot be read incrementally.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final String APPEND_DATA = "BufferIORequest__appendData";
+
 	/**
 	 * Buffer boolean property set when an error occurs.
 	 */
@@ -78,6 +112,13 @@ public class BufferIORequest extends WorkRequest
 	 */
 	public static final int INSERT = 3;
 
+	/**
+	 * A request to read the text appended to a file since it was last
+	 * read. Only supported for local files.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final int APPEND = 4;
+
 	/**
 	 * Magic number used for auto-detecting Unicode and GZIP files.
 	 */
@@ -112,6 +153,20 @@ public class BufferIORequest extends WorkRequest
 			+ ".marks";
 	} //}}}
 
+	//{{{ getCategory() method
+	/**
+	 * Saves are run after loads and other requests the user is waiting
+	 * for.
+	 * @since jEdit 4.1pre1
+	 */
+	public int getCategory()
+	{
+		if(type == SAVE || type == AUTOSAVE)
+			return WorkThreadPool.SAVE;
+		else
+			return WorkThreadPool.INTERACTIVE;
+	} //}}}
+
 	//{{{ run() method
 	public void run()
 	{
@@ -129,6 +184,9 @@ public class BufferIORequest extends WorkRequest
 		case INSERT:
 			insert();
 			break;
+		case APPEND:
+			append();
+			break;
 		}
 	} //}}}
 
@@ -147,6 +205,9 @@ public class BufferIORequest extends WorkRequest
 		case AUTOSAVE:
 			typeString = "AUTOSAVE";
 			break;
+		case APPEND:
+			typeString = "APPEND";
+			break;
 		default:
 			typeString = "UNKNOWN!!!";
 		}
@@ -157,6 +218,10 @@ public class BufferIORequest extends WorkRequest
 
 	//{{{ Private members
 
+	// number of bytes before the follow offset compared to find out if
+	// the file was replaced
+	private static final int TAIL_LENGTH = 256;
+
 	//{{{ Instance variables
 	private int type;
 	private View view;
@@ -198,7 +263,9 @@ public class BufferIORequest extends WorkRequest
 					return;
 				}
 
-				in = new BufferedInputStream(in);
+				CountingInputStream counter
+					= new CountingInputStream(in);
+				in = new BufferedInputStream(counter);
 
 				if(in.markSupported())
 				{
@@ -223,6 +290,10 @@ public class BufferIORequest extends WorkRequest
 
 				read(buffer,in,length);
 				buffer.setNewFile(false);
+
+				buffer.setProperty(FOLLOW_OFFSET,new Long(
+					counter.getCount()));
+				buffer.setProperty(FOLLOW_TAIL,counter.getTail());
 			}
 			catch(CharConversionException ch)
 			{
@@ -523,6 +594,9 @@ public class BufferIORequest extends WorkRequest
 	{
 		OutputStream out = null;
 
+		// a snapshot taken here, rather than by Buffer.save()
+		ContentManager snapshot = null;
+
 		try
 		{
 			String[] args = { vfs.getFileName(path) };
@@ -535,7 +609,26 @@ public class BufferIORequest extends WorkRequest
 			{
 				path = vfs._canonPath(session,path,view);
 
-				buffer.readLock();
+				// the text is written from a snapshot, so the
+				// buffer can be edited while it is being saved
+				ContentManager text = (ContentManager)buffer
+					.getProperty(SAVE_DATA);
+				String markers = (String)buffer
+					.getProperty(SAVE_MARKERS);
+
+				if(text == null || markers == null)
+				{
+					try
+					{
+						buffer.readLock();
+						text = snapshot = buffer.getSnapshot();
+						markers = getMarkersText(buffer);
+					}
+					finally
+					{
+						buffer.readUnlock();
+					}
+				}
 
 				// Only backup once per session
 				if(buffer.getProperty(Buffer.BACKED_UP) == null 
@@ -575,7 +668,7 @@ public class BufferIORequest extends WorkRequest
 					if(buffer.getBooleanProperty(Buffer.GZIPPED))
 						out = new GZIPOutputStream(out);
 
-					write(buffer,out);
+					write(buffer,text,out);
 
 					if(twoStageSave)
 					{
@@ -591,13 +684,13 @@ public class BufferIORequest extends WorkRequest
 				if((vfs.getCapabilities() & VFS.DELETE_CAP) != 0)
 				{
 					if(jEdit.getBooleanProperty("persistentMarkers")
-						&& buffer.getMarkers().size() != 0)
+						&& markers.length() != 0)
 					{
 						setStatus(jEdit.getProperty("vfs.status.save-markers",args));
 						setProgressValue(0);
 						out = vfs._createOutputStream(session,markersPath,view);
 						if(out != null)
-							writeMarkers(buffer,out);
+							writeMarkers(markers,out);
 					}
 					else
 						vfs._delete(session,markersPath,view);
@@ -611,10 +704,6 @@ public class BufferIORequest extends WorkRequest
 
 				buffer.setBooleanProperty(ERROR_OCCURRED,true);
 			}
-			finally
-			{
-				buffer.readUnlock();
-			}
 		}
 		catch(WorkThread.Abort a)
 		{
@@ -633,6 +722,9 @@ public class BufferIORequest extends WorkRequest
 		}
 		finally
 		{
+			if(snapshot != null)
+				snapshot.release();
+
 			try
 			{
 				vfs._saveComplete(session,buffer,view);
@@ -656,8 +748,6 @@ public class BufferIORequest extends WorkRequest
 	//{{{ autosave() method
 	private void autosave()
 	{
-		OutputStream out = null;
-
 		try
 		{
 			String[] args = { vfs.getFileName(path) };
@@ -668,8 +758,6 @@ public class BufferIORequest extends WorkRequest
 
 			try
 			{
-				//buffer.readLock();
-
 				if(!buffer.isDirty())
 				{
 					// buffer has been saved while we
@@ -677,89 +765,110 @@ public class BufferIORequest extends WorkRequest
 					return;
 				}
 
-				out = vfs._createOutputStream(session,path,view);
-				if(out == null)
-					return;
-
-				write(buffer,out);
-			}
-			catch(Exception e)
-			{
+				// appends the edits made since the last
+				// autosave to the journal
+				buffer.getAutosaveJournal().write(new File(path));
 			}
-			finally
+			catch(IOException io)
 			{
-				//buffer.readUnlock();
+				Log.log(Log.ERROR,this,io);
 			}
 		}
 		catch(WorkThread.Abort a)
 		{
-			if(out != null)
-			{
-				try
-				{
-					out.close();
-				}
-				catch(IOException io)
-				{
-				}
-			}
+			// the journal rewrites the file on the next
+			// autosave
 		}
 	} //}}}
 
 	//{{{ write() method
-	private void write(Buffer buffer, OutputStream _out)
-		throws IOException
+	/**
+	 * Writes a snapshot of the buffer text. The buffer itself is only
+	 * used to look up the encoding and line separator, so it can be
+	 * edited while this method runs.
+	 */
+	private void write(Buffer buffer, ContentManager text,
+		OutputStream _out) throws IOException
 	{
 		BufferedWriter out = new BufferedWriter(
 			new OutputStreamWriter(_out,
 				buffer.getStringProperty(Buffer.ENCODING)),
 				IOBUFSIZE);
-		Segment lineSegment = new Segment();
+		Segment seg = new Segment();
 		String newline = buffer.getStringProperty(Buffer.LINESEP);
 		if(newline == null)
 			newline = System.getProperty("line.separator");
+		boolean trailingEOL = buffer.getBooleanProperty(
+			Buffer.TRAILING_EOL);
+
+		int length = text.getLength();
 
-		setProgressMaximum(buffer.getLineCount() / PROGRESS_INTERVAL);
+		setProgressMaximum(length / IOBUFSIZE);
 		setProgressValue(0);
 
-		int i = 0;
-		while(i < buffer.getLineCount())
+		// lines are separated by \n in the buffer; the text is
+		// written in blocks, with the \n characters replaced
+		for(int start = 0; start < length; start += IOBUFSIZE)
 		{
-			buffer.getLineText(i,lineSegment);
-			out.write(lineSegment.array,lineSegment.offset,
-				lineSegment.count);
+			text.getText(start,Math.min(IOBUFSIZE,length - start),
+				seg);
 
-			if(i != buffer.getLineCount() - 1
-				|| buffer.getBooleanProperty(Buffer.TRAILING_EOL))
+			int lastLine = seg.offset;
+			int end = seg.offset + seg.count;
+			for(int i = seg.offset; i < end; i++)
 			{
-				out.write(newline);
+				if(seg.array[i] == '\n')
+				{
+					out.write(seg.array,lastLine,i - lastLine);
+					out.write(newline);
+					lastLine = i + 1;
+				}
 			}
+			out.write(seg.array,lastLine,end - lastLine);
 
-			if(++i % PROGRESS_INTERVAL == 0)
-				setProgressValue(i / PROGRESS_INTERVAL);
+			setProgressValue(start / IOBUFSIZE);
 		}
+
+		if(trailingEOL)
+			out.write(newline);
+
 		out.close();
 	} //}}}
 
-	//{{{ writeMarkers() method
-	private void writeMarkers(Buffer buffer, OutputStream out)
-		throws IOException
+	//{{{ getMarkersText() method
+	/**
+	 * Returns the contents of the markers file of a buffer. Must be
+	 * called from the event dispatch thread, or with the buffer's read
+	 * lock held, so that the marker positions do not change.
+	 * @param buffer The buffer
+	 * @since jEdit 4.1pre1
+	 */
+	public static String getMarkersText(Buffer buffer)
 	{
-		Writer o = new BufferedWriter(new OutputStreamWriter(out));
+		StringBuffer buf = new StringBuffer();
 		Vector markers = buffer.getMarkers();
 		for(int i = 0; i < markers.size(); i++)
 		{
 			Marker marker = (Marker)markers.elementAt(i);
-			o.write('!');
-			o.write(marker.getShortcut());
-			o.write(';');
+			buf.append('!');
+			buf.append(marker.getShortcut());
+			buf.append(';');
 
 			String pos = String.valueOf(marker.getPosition());
-			o.write(pos);
-			o.write(';');
-			o.write(pos);
-			o.write('\n');
+			buf.append(pos);
+			buf.append(';');
+			buf.append(pos);
+			buf.append('\n');
 		}
+		return buf.toString();
+	} //}}}
+
+	//{{{ writeMarkers() method
+	private void writeMarkers(String markers, OutputStream out)
+		throws IOException
+	{
+		Writer o = new BufferedWriter(new OutputStreamWriter(out));
+		o.write(markers);
 		o.close();
 	} //}}}
 
@@ -840,5 +949,192 @@ public class BufferIORequest extends WorkRequest
 		}
 	} //}}}
 
+	//{{{ append() method
+	private void append()
+	{
+		try
+		{
+			String[] args = { vfs.getFileName(path) };
+			setStatus(jEdit.getProperty("vfs.status.load",args));
+
+			Long offset = (Long)buffer.getProperty(FOLLOW_OFFSET);
+			byte[] tail = (byte[])buffer.getProperty(FOLLOW_TAIL);
+			String encoding = buffer.getStringProperty(Buffer.ENCODING);
+
+			// if APPEND_DATA is not set, the buffer is reloaded
+			if(offset == null || tail == null
+				|| buffer.getBooleanProperty(Buffer.GZIPPED)
+				|| !isLineBased(encoding))
+				return;
+
+			RandomAccessFile file = new RandomAccessFile(path,"r");
+
+			try
+			{
+				long start = offset.longValue() - tail.length;
+				long length = file.length();
+
+				// the file was truncated, or too much was
+				// appended to read in one go
+				if(length < offset.longValue()
+					|| length - start > Integer.MAX_VALUE)
+					return;
+
+				byte[] data = new byte[(int)(length - start)];
+				file.seek(start);
+				file.readFully(data);
+
+				// if the bytes before the offset changed, the
+				// file was replaced by a different one
+				for(int i = 0; i < tail.length; i++)
+				{
+					if(data[i] != tail[i])
+						return;
+				}
+
+				// only whole lines are read, so that a
+				// character or line separator is never split
+				int end = data.length;
+				while(end > tail.length && data[end - 1] != '\n')
+					end--;
+
+				if(end == tail.length)
+				{
+					buffer.setProperty(APPEND_DATA,"");
+					return;
+				}
+
+				String text = new String(data,tail.length,
+					end - tail.length,encoding);
+
+				byte[] newTail = new byte[Math.min(end,TAIL_LENGTH)];
+				System.arraycopy(data,end - newTail.length,newTail,0,
+					newTail.length);
+
+				buffer.setProperty(FOLLOW_OFFSET,new Long(start + end));
+				buffer.setProperty(FOLLOW_TAIL,newTail);
+				buffer.setProperty(APPEND_DATA,
+					normalizeLineSeparators(text));
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		catch(IOException io)
+		{
+			Log.log(Log.ERROR,this,io);
+			String[] pp = { io.toString() };
+			VFSManager.error(view,path,"ioerror.read-error",pp);
+
+			buffer.setBooleanProperty(ERROR_OCCURRED,true);
+		}
+	} //}}}
+
+	//{{{ isLineBased() method
+	/**
+	 * Returns if a newline byte can only stand for a newline character
+	 * in the specified encoding.
+	 */
+	private static boolean isLineBased(String encoding)
+	{
+		encoding = encoding.toLowerCase();
+		return !(encoding.startsWith("unicode")
+			|| encoding.startsWith("utf-16")
+			|| encoding.startsWith("utf16")
+			|| encoding.startsWith("utf-32")
+			|| encoding.startsWith("ucs"));
+	} //}}}
+
+	//{{{ normalizeLineSeparators() method
+	/**
+	 * Converts DOS and MacOS line separators to newlines.
+	 */
+	private static String normalizeLineSeparators(String text)
+	{
+		if(text.indexOf('\r') == -1)
+			return text;
+
+		StringBuffer buf = new StringBuffer(text.length());
+		for(int i = 0; i < text.length(); i++)
+		{
+			char ch = text.charAt(i);
+			if(ch == '\r')
+			{
+				if(i == text.length() - 1
+					|| text.charAt(i + 1) != '\n')
+					buf.append('\n');
+			}
+			else
+				buf.append(ch);
+		}
+		return buf.toString();
+	} //}}}
+
 	//}}}
+
+	//{{{ CountingInputStream class
+	/**
+	 * Counts the bytes read from a stream, and remembers the last few.
+	 */
+	static class CountingInputStream extends FilterInputStream
+	{
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+			{
+				tail[(int)(count % TAIL_LENGTH)] = (byte)b;
+				count++;
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			len = super.read(b,off,len);
+			for(int i = 0; i < len; i++)
+			{
+				tail[(int)(count % TAIL_LENGTH)] = b[off + i];
+				count++;
+			}
+			return len;
+		}
+
+		public long skip(long n) throws IOException
+		{
+			// the skipped bytes are not known
+			throw new IOException("skip() not supported");
+		}
+
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		long getCount()
+		{
+			return count;
+		}
+
+		byte[] getTail()
+		{
+			int length = (int)Math.min(count,TAIL_LENGTH);
+			byte[] retVal = new byte[length];
+			for(int i = 0; i < length; i++)
+			{
+				retVal[i] = tail[(int)((count - length + i)
+					% TAIL_LENGTH)];
+			}
+			return retVal;
+		}
+
+		private long count;
+		private byte[] tail = new byte[TAIL_LENGTH];
+	} //}}}
 }
@@ -0,0 +1,298 @@
+/*
+ * DirectoryCache.java - Remembers directory listings
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.io;
+
+//{{{ Imports
+import java.io.File;
+import java.util.*;
+import org.gjt.sp.jedit.MiscUtilities;
+//}}}
+
+/**
+ * Remembers directory listings, so that listing a directory that has not
+ * changed does not have to read it again. The cache is shared by all
+ * virtual filesystems, and is keyed by path.<p>
+ *
+ * A listing is stored with a modification time, which the virtual
+ * filesystem compares with the current one when it looks the listing up.
+ * The local filesystem uses the modification time of the directory,
+ * which changes when a file is added, removed or renamed; virtual
+ * filesystems that cannot find this out cheaply can store 0, in which
+ * case the listing is kept until it is invalidated.<p>
+ *
+ * Listings are invalidated by {@link VFSManager#sendVFSUpdate(VFS,String,boolean)},
+ * when a buffer's file is changed by another program, and when the
+ * file system browser reloads a directory. Once the total number of
+ * cached entries reaches the <code>vfs.directoryCache.size</code>
+ * property, the listings used least recently are discarded. A tree
+ * with more entries than that gets no hits when it is walked again,
+ * since each listing is discarded before the walk comes back to it.<p>
+ *
+ * The arrays returned by this class are shared, and must not be
+ * modified.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class DirectoryCache
+{
+	//{{{ getCachedDirectory() method
+	/**
+	 * Returns a cached listing of a directory, or null if the directory
+	 * is not cached or was listed with a different modification time.
+	 * @param path The directory
+	 * @param modTime The current modification time of the directory,
+	 * or 0 if it is not known
+	 */
+	public static VFS.DirectoryEntry[] getCachedDirectory(String path,
+		long modTime)
+	{
+		path = stripTrailingSeparator(path);
+
+		synchronized(lock)
+		{
+			Entry entry = (Entry)cache.get(path);
+			if(entry == null || entry.modTime != modTime)
+			{
+				misses++;
+				return null;
+			}
+
+			hits++;
+
+			unlink(entry);
+			link(entry);
+			return entry.list;
+		}
+	} //}}}
+
+	//{{{ setCachedDirectory() method
+	/**
+	 * Stores the listing of a directory, discarding the listings used
+	 * least recently if the cache becomes too large.
+	 * @param path The directory
+	 * @param modTime The modification time of the directory when it was
+	 * listed, or 0 if it is not known
+	 * @param list The entries of the directory
+	 */
+	public static void setCachedDirectory(String path, long modTime,
+		VFS.DirectoryEntry[] list)
+	{
+		path = stripTrailingSeparator(path);
+
+		synchronized(lock)
+		{
+			removeEntry((Entry)cache.get(path));
+
+			// count empty directories too
+			if(list.length + 1 > maxSize)
+				return;
+
+			Entry entry = new Entry(path,modTime,list);
+			cache.put(path,entry);
+			link(entry);
+			size += list.length + 1;
+
+			while(size > maxSize)
+				removeEntry(tail);
+		}
+	} //}}}
+
+	//{{{ invalidate() method
+	/**
+	 * Discards the cached listings of a path, its parent and, if it is a
+	 * directory, everything under it.
+	 * @param path The path that changed
+	 */
+	public static void invalidate(String path)
+	{
+		path = stripTrailingSeparator(path);
+		String parent = stripTrailingSeparator(
+			MiscUtilities.getParentOfPath(path));
+
+		synchronized(lock)
+		{
+			if(cache.size() == 0)
+				return;
+
+			removeEntry((Entry)cache.get(parent));
+
+			Entry entry = head;
+			while(entry != null)
+			{
+				Entry next = entry.next;
+				if(isSameOrChild(path,entry.path))
+					removeEntry(entry);
+				entry = next;
+			}
+		}
+	} //}}}
+
+	//{{{ setMaximumSize() method
+	/**
+	 * Sets the maximum total number of entries in cached listings,
+	 * discarding listings if there are more than that already.
+	 * Called by jEdit when the properties change.
+	 * @param maxSize The maximum size, 0 to disable the cache
+	 */
+	public static void setMaximumSize(int maxSize)
+	{
+		synchronized(lock)
+		{
+			DirectoryCache.maxSize = maxSize;
+
+			while(size > maxSize)
+				removeEntry(tail);
+		}
+	} //}}}
+
+	//{{{ clear() method
+	/**
+	 * Discards all cached listings. Called by jEdit when the
+	 * properties change, since cached entries remember their colors.
+	 */
+	public static void clear()
+	{
+		synchronized(lock)
+		{
+			cache.clear();
+			head = tail = null;
+			size = 0;
+		}
+	} //}}}
+
+	//{{{ getStatistics() method
+	/**
+	 * Returns a string with the number of cached listings and entries,
+	 * and the number of hits and misses.
+	 */
+	public static String getStatistics()
+	{
+		synchronized(lock)
+		{
+			return cache.size() + " directories, " + size + "/"
+				+ maxSize + " entries, " + hits + " hits, "
+				+ misses + " misses";
+		}
+	} //}}}
+
+	//{{{ Private members
+
+	private static Object lock = new Object();
+	private static Hashtable cache = new Hashtable();
+
+	// most recently used first
+	private static Entry head;
+	private static Entry tail;
+
+	// total number of entries in the cache, plus one for each directory
+	private static int size;
+	private static int maxSize = 60000;
+
+	private static int hits;
+	private static int misses;
+
+	private DirectoryCache() {}
+
+	//{{{ stripTrailingSeparator() method
+	private static String stripTrailingSeparator(String path)
+	{
+		if(path.length() != 1 && (path.endsWith("/")
+			|| path.endsWith(File.separator)))
+			return path.substring(0,path.length() - 1);
+		else
+			return path;
+	} //}}}
+
+	//{{{ isSameOrChild() method
+	private static boolean isSameOrChild(String path, String child)
+	{
+		if(!child.startsWith(path))
+			return false;
+		else if(child.length() == path.length())
+			return true;
+
+		char ch = child.charAt(path.length());
+		return (ch == '/' || ch == File.separatorChar);
+	} //}}}
+
+	//{{{ link() method
+	private static void link(Entry entry)
+	{
+		entry.prev = null;
+		entry.next = head;
+		if(head != null)
+			head.prev = entry;
+		head = entry;
+		if(tail == null)
+			tail = entry;
+	} //}}}
+
+	//{{{ unlink() method
+	private static void unlink(Entry entry)
+	{
+		if(entry.prev != null)
+			entry.prev.next = entry.next;
+		else
+			head = entry.next;
+
+		if(entry.next != null)
+			entry.next.prev = entry.prev;
+		else
+			tail = entry.prev;
+
+		entry.prev = entry.next = null;
+	} //}}}
+
+	//{{{ removeEntry() method
+	private static void removeEntry(Entry entry)
+	{
+		if(entry == null)
+			return;
+
+		cache.remove(entry.path);
+		unlink(entry);
+		size -= entry.list.length + 1;
+	} //}}}
+
+	//}}}
+
+	//{{{ Entry class
+	static class Entry
+	{
+		String path;
+		long modTime;
+		VFS.DirectoryEntry[] list;
+
+		Entry prev;
+		Entry next;
+
+		Entry(String path, long modTime, VFS.DirectoryEntry[] list)
+		{
+			this.path = path;
+			this.modTime = modTime;
+			this.list = list;
+		}
+	} //}}}
+}
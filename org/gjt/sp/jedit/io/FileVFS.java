@@ -26,7 +26,7 @@ package org.gjt.sp.jedit.io;
 //{{{ Imports
 import java.awt.Component;
 import java.io.*;
-import java.util.Vector;
+import java.util.Hashtable;
 import org.gjt.sp.jedit.*;
 import org.gjt.sp.util.Log;
 //}}}
@@ -156,7 +156,11 @@ public class FileVFS extends VFS
 		//{{{ On Unix, preserve permissions
 		if(OperatingSystem.isUnix())
 		{
-			int permissions = getPermissions(buffer.getPath());
+			// a file that does not exist yet has no permissions
+			// to preserve
+			int permissions = (replacesFile(buffer)
+				&& new File(buffer.getPath()).exists()
+				? getPermissions(buffer.getPath()) : 0);
 			Log.log(Log.DEBUG,this,buffer.getPath() + " has permissions 0"
 				+ Integer.toString(permissions,8));
 			buffer.setIntegerProperty(PERMISSIONS_PROPERTY,permissions);
@@ -211,48 +215,104 @@ public class FileVFS extends VFS
 	public VFS.DirectoryEntry[] _listDirectory(Object session, String path,
 		Component comp)
 	{
-		//{{{ Windows work around
-		/* On Windows, paths of the form X: list the last *working
-		 * directory* on that drive. To list the root of the drive,
-		 * you must use X:\.
-		 *
-		 * However, the VFS browser and friends strip off trailing
-		 * path separators, for various reasons. So to work around
-		 * that, we add a '\' to drive letter paths on Windows.
-		 */
-		if(OperatingSystem.isWindows())
+		VFS.DirectoryEntry[] list = listDirectory(path);
+		if(list == null)
+			VFSManager.error(comp,path,"ioerror.directory-error-nomsg",null);
+		return list;
+	} //}}}
+
+	//{{{ _listDirectory() method
+	/**
+	 * Lists a directory in batches. The names of all entries are read
+	 * at once, which is quick; looking at each entry to see if it is a
+	 * directory and how long it is takes most of the time, so the
+	 * entries are handed over every {@link #LIST_BATCH_TIME}
+	 * milliseconds as they are looked at. A directory found in the
+	 * {@link DirectoryCache} is handed over in one batch.
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean _listDirectory(Object session, String path,
+		VFS.DirectoryListener listener, Component comp)
+	{
+		File directory = getDirectory(path);
+		long modTime = directory.lastModified();
+
+		VFS.DirectoryEntry[] list = DirectoryCache.getCachedDirectory(
+			path,modTime);
+		if(list != null)
 		{
-			if(path.length() == 2 && path.charAt(1) == ':')
-				path = path.concat(File.separator);
-		} //}}}
+			if(list.length != 0)
+				listener.entriesListed(list);
+			return true;
+		}
 
-		File directory = new File(path);
-		File[] list = directory.listFiles();
-		if(list == null)
+		String[] names = directory.list();
+		if(names == null)
 		{
 			VFSManager.error(comp,path,"ioerror.directory-error-nomsg",null);
-			return null;
+			return false;
 		}
 
-		Vector list2 = new Vector();
-		for(int i = 0; i < list.length; i++)
+		list = new VFS.DirectoryEntry[names.length];
+		int batchStart = 0;
+		long batchStartTime = System.currentTimeMillis();
+
+		for(int i = 0; i < names.length; i++)
 		{
-			File file = list[i];
+			list[i] = createDirectoryEntry(new File(directory,names[i]));
 
-			int type;
-			if(file.isDirectory())
-				type = VFS.DirectoryEntry.DIRECTORY;
-			else
-				type = VFS.DirectoryEntry.FILE;
+			int count = i + 1 - batchStart;
+			if(count == LIST_BATCH_SIZE || i == names.length - 1
+				|| System.currentTimeMillis() - batchStartTime
+				>= LIST_BATCH_TIME)
+			{
+				VFS.DirectoryEntry[] entries
+					= new VFS.DirectoryEntry[count];
+				System.arraycopy(list,batchStart,entries,0,count);
+				batchStart = i + 1;
 
-			list2.add(new VFS.DirectoryEntry(file.getName(),
-				file.getPath(),file.getPath(),type,
-				file.length(),file.isHidden()));
+				if(!listener.entriesListed(entries))
+					return true;
+
+				batchStartTime = System.currentTimeMillis();
+			}
 		}
 
-		VFS.DirectoryEntry[] retVal = new VFS.DirectoryEntry[list2.size()];
-		list2.copyInto(retVal);
-		return retVal;
+		cacheDirectory(path,modTime,list);
+		return true;
+	} //}}}
+
+	//{{{ listDirectory() method
+	/**
+	 * Lists a directory on the local filesystem, using the
+	 * {@link DirectoryCache}. Unlike
+	 * {@link #_listDirectory(Object,String,Component)}, this does not
+	 * report errors.
+	 * @param path The directory
+	 * @return The entries, which must not be modified, or null if the
+	 * directory could not be listed
+	 * @since jEdit 4.1pre1
+	 */
+	public static VFS.DirectoryEntry[] listDirectory(String path)
+	{
+		File directory = getDirectory(path);
+		long modTime = directory.lastModified();
+
+		VFS.DirectoryEntry[] list = DirectoryCache.getCachedDirectory(
+			path,modTime);
+		if(list != null)
+			return list;
+
+		String[] names = directory.list();
+		if(names == null)
+			return null;
+
+		list = new VFS.DirectoryEntry[names.length];
+		for(int i = 0; i < names.length; i++)
+			list[i] = createDirectoryEntry(new File(directory,names[i]));
+
+		cacheDirectory(path,modTime,list);
+		return list;
 	} //}}}
 
 	//{{{ _getDirectoryEntry() method
@@ -268,14 +328,7 @@ public class FileVFS extends VFS
 		if(!file.exists())
 			return null;
 
-		int type;
-		if(file.isDirectory())
-			type = VFS.DirectoryEntry.DIRECTORY;
-		else
-			type = VFS.DirectoryEntry.FILE;
-
-		return new VFS.DirectoryEntry(file.getName(),path,path,type,
-			file.length(),file.isHidden());
+		return createDirectoryEntry(file);
 	} //}}}
 
 	//{{{ _delete() method
@@ -386,7 +439,15 @@ public class FileVFS extends VFS
 	public void _saveComplete(Object session, Buffer buffer, Component comp)
 	{
 		int permissions = buffer.getIntegerProperty(PERMISSIONS_PROPERTY,0);
-		setPermissions(buffer.getPath(),permissions);
+		if(permissions == 0)
+			return;
+
+		String path = buffer.getPath();
+
+		// a new file already has the default permissions
+		if(permissions != getDefaultPermissions(
+			new File(path).getParent()))
+			setPermissions(path,permissions);
 	} //}}}
 
 	//{{{ Permission preservation code
@@ -503,4 +564,148 @@ public class FileVFS extends VFS
 	} //}}}
 
 	//}}}
+
+	//{{{ Private members
+
+	// directory entries are handed to the listener at least this often,
+	// in milliseconds, and at most this many at a time
+	private static final int LIST_BATCH_TIME = 100;
+	private static final int LIST_BATCH_SIZE = 500;
+
+	// a directory modified less than this many milliseconds before it
+	// was listed is not cached, since a change made later in the same
+	// second would not change its modification time on some systems
+	private static final int MOD_TIME_GRANULARITY = 2000;
+
+	/* Finding out the permissions of a file requires running ls, and
+	 * changing them requires running chmod. Forking is expensive, so
+	 * these are only done if the save replaces the file with a new
+	 * one. The permissions are looked up again on every such save,
+	 * since Java has no way to tell if they were changed by chmod. */
+
+	// maps directories to the permissions of files newly created
+	// in them
+	private static Hashtable defaultPermissions = new Hashtable();
+
+	//{{{ getDirectory() method
+	private static File getDirectory(String path)
+	{
+		//{{{ Windows work around
+		/* On Windows, paths of the form X: list the last *working
+		 * directory* on that drive. To list the root of the drive,
+		 * you must use X:\.
+		 *
+		 * However, the VFS browser and friends strip off trailing
+		 * path separators, for various reasons. So to work around
+		 * that, we add a '\' to drive letter paths on Windows.
+		 */
+		if(OperatingSystem.isWindows())
+		{
+			if(path.length() == 2 && path.charAt(1) == ':')
+				path = path.concat(File.separator);
+		} //}}}
+
+		return new File(path);
+	} //}}}
+
+	//{{{ cacheDirectory() method
+	private static void cacheDirectory(String path, long modTime,
+		VFS.DirectoryEntry[] list)
+	{
+		if(modTime != 0L && System.currentTimeMillis() - modTime
+			>= MOD_TIME_GRANULARITY)
+		{
+			DirectoryCache.setCachedDirectory(path,modTime,list);
+		}
+	} //}}}
+
+	//{{{ createDirectoryEntry() method
+	/**
+	 * Looks up the attributes of a file. Java has no call returning
+	 * them all at once, so this asks for as few as possible; the
+	 * length of a directory is never shown, so it is not looked up.
+	 */
+	private static VFS.DirectoryEntry createDirectoryEntry(File file)
+	{
+		String path = file.getPath();
+
+		int type;
+		long length;
+		if(file.isDirectory())
+		{
+			type = VFS.DirectoryEntry.DIRECTORY;
+			length = 0L;
+		}
+		else
+		{
+			type = VFS.DirectoryEntry.FILE;
+			length = file.length();
+		}
+
+		return new VFS.DirectoryEntry(file.getName(),path,path,type,
+			length,file.isHidden());
+	} //}}}
+
+	//{{{ replacesFile() method
+	/**
+	 * Returns if saving the buffer creates a new file, which does not
+	 * have the permissions of the old one.
+	 */
+	private static boolean replacesFile(Buffer buffer)
+	{
+		// two-stage saves write a new file that is renamed over
+		// the old one
+		if(jEdit.getBooleanProperty("twoStageSave"))
+			return true;
+
+		// the file is renamed if a backup is made, otherwise it
+		// is overwritten and keeps its permissions
+		if(jEdit.getIntegerProperty("backups",1) == 0)
+			return false;
+
+		return buffer.getProperty(Buffer.BACKED_UP) == null
+			|| jEdit.getBooleanProperty("backupEverySave");
+	} //}}}
+
+	//{{{ getDefaultPermissions() method
+	/**
+	 * Returns the permissions that newly created files in a directory
+	 * get, or 0 if they cannot be found out. These depend on the umask
+	 * of the jEdit process, but also on the directory, which can have a
+	 * default ACL, so they are looked up once for each directory by
+	 * creating a file in it.
+	 * @param directory The directory
+	 */
+	private static synchronized int getDefaultPermissions(String directory)
+	{
+		if(directory == null)
+			return 0;
+
+		Integer permissions = (Integer)defaultPermissions.get(directory);
+		if(permissions != null)
+			return permissions.intValue();
+
+		try
+		{
+			File probe = File.createTempFile("#jedit",null,
+				new File(directory));
+
+			// create it the same way saved files are created
+			probe.delete();
+			new FileOutputStream(probe).close();
+
+			permissions = new Integer(getPermissions(probe.getPath()));
+			probe.delete();
+		}
+		catch(IOException io)
+		{
+			Log.log(Log.ERROR,FileVFS.class,io);
+			return 0;
+		}
+
+		defaultPermissions.put(directory,permissions);
+		return permissions.intValue();
+	} //}}}
+
+	//}}}
 }
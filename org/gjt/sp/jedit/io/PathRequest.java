@@ -0,0 +1,96 @@
+/*
+ * PathRequest.java - An I/O request ordered with others for the same path
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.io;
+
+/**
+ * A request added with {@link VFSManager#runInWorkThread(String,Runnable)}
+ * or {@link VFSManager#runInAWTThread(String,Runnable)}. It can be used to
+ * wait for that request alone, instead of waiting for all I/O requests
+ * with {@link VFSManager#waitForRequests()}.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class PathRequest
+{
+	//{{{ getPath() method
+	/**
+	 * Returns the path this request was added for.
+	 */
+	public String getPath()
+	{
+		return path;
+	} //}}}
+
+	//{{{ isDone() method
+	/**
+	 * Returns true if the request has been run.
+	 */
+	public boolean isDone()
+	{
+		return done;
+	} //}}}
+
+	//{{{ waitFor() method
+	/**
+	 * Returns once the request has been run. If this is called from
+	 * the event dispatch thread, AWT requests for the same path that
+	 * come before this one are run straight away.
+	 */
+	public void waitFor()
+	{
+		VFSManager.waitForPathRequests(path,this);
+	} //}}}
+
+	//{{{ toString() method
+	public String toString()
+	{
+		return "[path=" + path + ",inAWT=" + inAWT + ",run=" + run + "]";
+	} //}}}
+
+	//{{{ Package-private members
+	String path;
+	Runnable run;
+	boolean inAWT;
+
+	// set if this is an AWT request that was added when there were
+	// no other requests for the path. It might be waiting for a
+	// request added without a path, so it is run once all I/O
+	// requests are complete, like any other AWT request
+	boolean global;
+
+	// only changed with the path request lock held
+	volatile boolean started;
+	volatile boolean done;
+
+	//{{{ PathRequest constructor
+	PathRequest(String path, Runnable run, boolean inAWT)
+	{
+		this.path = path;
+		this.run = run;
+		this.inAWT = inAWT;
+	} //}}}
+
+	//}}}
+}
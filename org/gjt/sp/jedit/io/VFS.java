@@ -273,7 +273,7 @@ public abstract class VFS
 			// this makes HyperSearch much faster
 			request.run();
 		else
-			VFSManager.runInWorkThread(request);
+			VFSManager.runInWorkThread(path,request);
 
 		return true;
 	} //}}}
@@ -306,7 +306,7 @@ public abstract class VFS
 		if(!path.equals(buffer.getPath()))
 			buffer.unsetProperty(Buffer.BACKED_UP);
 
-		VFSManager.runInWorkThread(new BufferIORequest(
+		VFSManager.runInWorkThread(path,new BufferIORequest(
 			BufferIORequest.SAVE,view,buffer,session,this,path));
 		return true;
 	} //}}}
@@ -331,7 +331,7 @@ public abstract class VFS
 		if(session == null)
 			return false;
 
-		VFSManager.runInWorkThread(new BufferIORequest(
+		VFSManager.runInWorkThread(path,new BufferIORequest(
 			BufferIORequest.INSERT,view,buffer,session,this,path));
 		return true;
 	} //}}}
@@ -373,6 +373,58 @@ public abstract class VFS
 		return null;
 	} //}}}
 
+	//{{{ _listDirectory() method
+	/**
+	 * Lists the specified directory, handing the entries to a listener
+	 * a batch at a time as they are read, so that a large directory
+	 * can be shown before all of it has been read. The entries are not
+	 * sorted.<p>
+	 *
+	 * The default implementation calls
+	 * {@link #_listDirectory(Object,String,Component)} and hands all
+	 * the entries over in one batch. Virtual filesystems that can read
+	 * a directory a part at a time should override this method.
+	 *
+	 * @param session The session
+	 * @param directory The directory
+	 * @param listener The listener
+	 * @param comp The component that will parent error dialog boxes
+	 * @return False if the directory could not be listed
+	 * @exception IOException if an I/O error occurred
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean _listDirectory(Object session, String directory,
+		DirectoryListener listener, Component comp)
+		throws IOException
+	{
+		DirectoryEntry[] list = _listDirectory(session,directory,comp);
+		if(list == null)
+			return false;
+
+		if(list.length != 0)
+			listener.entriesListed(list);
+		return true;
+	} //}}}
+
+	//{{{ DirectoryListener interface
+	/**
+	 * Receives the entries of a directory as it is being listed.
+	 * @see VFS#_listDirectory(Object,String,VFS.DirectoryListener,Component)
+	 * @since jEdit 4.1pre1
+	 */
+	public interface DirectoryListener
+	{
+		/**
+		 * Called from the thread listing the directory with the
+		 * next batch of entries. The array might be shared with
+		 * the {@link DirectoryCache}, and must not be modified.
+		 * @param entries The entries
+		 * @return False if the rest of the directory is no longer
+		 * needed
+		 */
+		boolean entriesListed(DirectoryEntry[] entries);
+	} //}}}
+
 	//{{{ _getDirectoryEntry() method
 	/**
 	 * Returns the specified directory entry.
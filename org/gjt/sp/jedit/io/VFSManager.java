@@ -33,6 +33,7 @@ import org.gjt.sp.jedit.gui.ErrorListDialog;
 import org.gjt.sp.jedit.msg.VFSUpdate;
 import org.gjt.sp.jedit.*;
 import org.gjt.sp.util.Log;
+import org.gjt.sp.util.WorkRequest;
 import org.gjt.sp.util.WorkThreadPool;
 //}}}
 
@@ -180,7 +181,38 @@ public class VFSManager
 	 */
 	public static void waitForRequests()
 	{
-		ioThreadPool.waitForRequests();
+		for(;;)
+		{
+			ioThreadPool.waitForRequests();
+
+			// AWT requests for a path are not run by the thread
+			// pool, so requests for that path after them might
+			// not have been started yet
+			String path;
+			synchronized(pathLock)
+			{
+				if(pathQueues.isEmpty())
+					return;
+				path = (String)pathQueues.keys().nextElement();
+			}
+
+			waitForPathRequests(path,null);
+		}
+	} //}}}
+
+	//{{{ waitForRequests() method
+	/**
+	 * Returns when all requests added for the specified path are
+	 * complete, without waiting for requests for other paths. If this
+	 * is called from the event dispatch thread, AWT requests for the
+	 * path are run straight away.
+	 * @param path The path
+	 * @see #runInWorkThread(String,Runnable)
+	 * @since jEdit 4.1pre1
+	 */
+	public static void waitForRequests(String path)
+	{
+		waitForPathRequests(path,null);
 	} //}}}
 
 	//{{{ errorOccurred() method
@@ -204,7 +236,9 @@ public class VFSManager
 	//{{{ runInAWTThread() method
 	/**
 	 * Executes the specified runnable in the AWT thread once all
-	 * pending I/O requests are complete.
+	 * pending I/O requests are complete. As of jEdit 4.1pre1,
+	 * background requests, such as HyperSearch, are not waited for
+	 * unless the runnable is added from a background request itself.
 	 * @since jEdit 2.5pre1
 	 */
 	public static void runInAWTThread(Runnable run)
@@ -222,6 +256,37 @@ public class VFSManager
 		ioThreadPool.addWorkRequest(run,false);
 	} //}}}
 
+	//{{{ runInAWTThread() method
+	/**
+	 * Executes the specified runnable in the AWT thread once all
+	 * requests added for the same path are complete. Requests for
+	 * other paths are not waited for, unless no requests have been
+	 * added for this path, in which case this is the same as
+	 * {@link #runInAWTThread(Runnable)}.
+	 * @param path The path
+	 * @param run The runnable
+	 * @since jEdit 4.1pre1
+	 */
+	public static PathRequest runInAWTThread(String path, Runnable run)
+	{
+		return addPathRequest(path,run,true);
+	} //}}}
+
+	//{{{ runInWorkThread() method
+	/**
+	 * Executes the specified runnable in one of the I/O threads once
+	 * all requests added for the same path are complete. Requests for
+	 * different paths run at the same time, as far as the number of
+	 * I/O threads allows.
+	 * @param path The path
+	 * @param run The runnable
+	 * @since jEdit 4.1pre1
+	 */
+	public static PathRequest runInWorkThread(String path, Runnable run)
+	{
+		return addPathRequest(path,run,false);
+	} //}}}
+
 	//}}}
 
 	//{{{ error() method
@@ -331,6 +396,11 @@ public class VFSManager
 				|| path.endsWith(java.io.File.separator)))
 				path = path.substring(0,path.length() - 1);
 
+			// done straight away, so that listing the directory
+			// before the message is sent does not see the old
+			// contents
+			DirectoryCache.invalidate(path);
+
 			synchronized(vfsUpdateLock)
 			{
 				for(int i = 0; i < vfsUpdates.size(); i++)
@@ -375,6 +445,59 @@ public class VFSManager
 		}
 	} //}}}
 
+	//{{{ Package-private members
+
+	//{{{ waitForPathRequests() method
+	/**
+	 * Returns once the specified request has been run, or if it is
+	 * null, once all requests for the path have been run.
+	 */
+	static void waitForPathRequests(String path, PathRequest until)
+	{
+		for(;;)
+		{
+			PathRequest head;
+
+			synchronized(pathLock)
+			{
+				Vector queue = (Vector)pathQueues.get(path);
+				if(queue == null || (until != null && until.done))
+					return;
+
+				head = (PathRequest)queue.elementAt(0);
+
+				if(head.inAWT && head.started
+					&& SwingUtilities.isEventDispatchThread())
+				{
+					// called from the AWT request itself
+					return;
+				}
+				else if(!head.inAWT
+					|| !SwingUtilities.isEventDispatchThread())
+				{
+					try
+					{
+						pathLock.wait();
+					}
+					catch(InterruptedException ie)
+					{
+						Log.log(Log.ERROR,VFSManager.class,ie);
+					}
+					continue;
+				}
+			}
+
+			// the event dispatch thread is busy waiting, so
+			// the AWT request is run here
+			if(head.global)
+				ioThreadPool.waitForRequests();
+			else
+				runPathRequest(head);
+		}
+	} //}}}
+
+	//}}}
+
 	//{{{ Private members
 
 	//{{{ Static variables
@@ -388,6 +511,11 @@ public class VFSManager
 	private static Vector errors;
 	private static Object vfsUpdateLock;
 	private static Vector vfsUpdates;
+
+	// maps paths to vectors of requests. Only the first request
+	// for each path has been started
+	private static Object pathLock;
+	private static Hashtable pathQueues;
 	//}}}
 
 	//{{{ Class initializer
@@ -401,8 +529,161 @@ public class VFSManager
 		protocolHash = new Hashtable();
 		vfsUpdateLock = new Object();
 		vfsUpdates = new Vector();
+		pathLock = new Object();
+		pathQueues = new Hashtable();
 	} //}}}
 
 	private VFSManager() {}
+
+	//{{{ addPathRequest() method
+	private static PathRequest addPathRequest(String path, Runnable run,
+		boolean inAWT)
+	{
+		PathRequest request = new PathRequest(path,run,inAWT);
+
+		synchronized(pathLock)
+		{
+			Vector queue = (Vector)pathQueues.get(path);
+			if(queue == null)
+			{
+				queue = new Vector();
+				pathQueues.put(path,queue);
+				request.global = inAWT;
+			}
+
+			queue.addElement(request);
+			if(queue.size() != 1)
+				return request;
+		}
+
+		startPathRequest(request);
+		return request;
+	} //}}}
+
+	//{{{ startPathRequest() method
+	private static void startPathRequest(PathRequest request)
+	{
+		if(!request.inAWT)
+		{
+			ioThreadPool.addWorkRequest(new PathWorkRequest(request),
+				false);
+		}
+		else if(request.global || ioThreadPool.getThreadCount() == 0)
+			ioThreadPool.addWorkRequest(new RunPathRequest(request),true);
+		else
+			SwingUtilities.invokeLater(new RunPathRequest(request));
+	} //}}}
+
+	//{{{ runPathRequest() method
+	private static void runPathRequest(PathRequest request)
+	{
+		synchronized(pathLock)
+		{
+			if(request.started)
+				return;
+			request.started = true;
+		}
+
+		try
+		{
+			request.run.run();
+		}
+		catch(RuntimeException e)
+		{
+			// exceptions in I/O threads are logged by the
+			// work thread
+			if(!request.inAWT)
+				throw e;
+
+			Log.log(Log.ERROR,VFSManager.class,"Exception "
+				+ "in AWT thread:");
+			Log.log(Log.ERROR,VFSManager.class,e);
+		}
+		finally
+		{
+			pathRequestDone(request);
+		}
+	} //}}}
+
+	//{{{ pathRequestDone() method
+	/**
+	 * Removes a request that has been run, and starts the next request
+	 * for its path.
+	 */
+	private static void pathRequestDone(PathRequest request)
+	{
+		PathRequest next = null;
+
+		synchronized(pathLock)
+		{
+			Vector queue = (Vector)pathQueues.get(request.path);
+			queue.removeElementAt(0);
+			if(queue.size() == 0)
+				pathQueues.remove(request.path);
+			else
+				next = (PathRequest)queue.elementAt(0);
+
+			request.done = true;
+			pathLock.notifyAll();
+		}
+
+		if(next != null)
+			startPathRequest(next);
+	} //}}}
+
 	//}}}
+
+	//{{{ PathWorkRequest class
+	/**
+	 * Runs a request for a path in an I/O thread. Status, progress and
+	 * aborting work as for any other request, since the wrapped
+	 * request is run in the same thread.
+	 */
+	static class PathWorkRequest extends WorkRequest
+	{
+		PathRequest request;
+
+		PathWorkRequest(PathRequest request)
+		{
+			this.request = request;
+		}
+
+		public int getCategory()
+		{
+			if(request.run instanceof WorkRequest)
+				return ((WorkRequest)request.run).getCategory();
+			else
+				return super.getCategory();
+		}
+
+		public void run()
+		{
+			runPathRequest(request);
+		}
+
+		public String toString()
+		{
+			return request.toString();
+		}
+	} //}}}
+
+	//{{{ RunPathRequest class
+	/**
+	 * Runs a request for a path in the AWT thread, unless it has already
+	 * been run by a method waiting for requests.
+	 */
+	static class RunPathRequest implements Runnable
+	{
+		PathRequest request;
+
+		RunPathRequest(PathRequest request)
+		{
+			this.request = request;
+		}
+
+		public void run()
+		{
+			runPathRequest(request);
+		}
+	} //}}}
 }
@@ -443,6 +443,9 @@ public class jEdit
 				// Start I/O threads
 				VFSManager.start();
 
+				if(getBooleanProperty("restore.prefetch"))
+					prefetchDeferredBuffers();
+
 				// Start edit server
 				if(server != null)
 					server.start();
@@ -824,6 +827,12 @@ public class jEdit
 
 		Autosave.setInterval(getIntegerProperty("autosave",30));
 
+		// cached directory entries remember their colors, which
+		// might have changed
+		DirectoryCache.clear();
+		DirectoryCache.setMaximumSize(getIntegerProperty(
+			"vfs.directoryCache.size",60000));
+
 		saveCaret = getBooleanProperty("saveCaret");
 
 		//theme = new JEditMetalTheme();
@@ -1052,6 +1061,7 @@ public class jEdit
 		/* Try to guess the eventual size to avoid unnecessary
 		 * copying */
 		modes = new Vector(50);
+		modeMatcher = null;
 
 		//{{{ Load the global catalog
 		if(jEditHome == null)
@@ -1128,6 +1138,22 @@ public class jEdit
 		return array;
 	} //}}}
 
+	//{{{ getModeForFile() method
+	/**
+	 * Returns the first edit mode whose file name or first line glob
+	 * matches, or null if there is no such mode.
+	 * @param fileName The buffer's name
+	 * @param firstLine The first line of the buffer
+	 * @since jEdit 4.1pre1
+	 */
+	public static Mode getModeForFile(String fileName, String firstLine)
+	{
+		ModeMatcher matcher = modeMatcher;
+		if(matcher == null)
+			modeMatcher = matcher = new ModeMatcher(getModes());
+		return matcher.getMode(fileName,firstLine);
+	} //}}}
+
 	//}}}
 
 	//{{{ Buffer creation methods
@@ -1226,13 +1252,20 @@ public class jEdit
 			BufferedReader in = new BufferedReader(new FileReader(
 				session));
 
+			// buffers are only loaded when they are first
+			// shown, unless this is turned off
+			boolean defer = getBooleanProperty("restore.defer");
+
 			String line;
 			while((line = in.readLine()) != null)
 			{
 				if(line.startsWith("splits\t"))
 					splitConfig = line.substring(7);
 				else
-					openFile(null,line);
+				{
+					openFile(null,null,line,false,
+						new Hashtable(),defer);
+				}
 			}
 
 			in.close();
@@ -1386,6 +1419,23 @@ public class jEdit
 	 */
 	public static Buffer openFile(View view, String parent,
 		String path, boolean newFile, Hashtable props)
+	{
+		return openFile(view,parent,path,newFile,props,false);
+	} //}}}
+
+	//{{{ openFile() method
+	/**
+	 * Opens a file.
+	 * @param view The view to open the file in
+	 * @param parent The parent directory of the file
+	 * @param path The path name of the file
+	 * @param newFile True if the file should not be loaded from disk
+	 * @param props Buffer-local properties to set in the buffer
+	 * @param defer If true, the buffer is not loaded until it is shown;
+	 * used when restoring the previous session
+	 */
+	private static Buffer openFile(View view, String parent,
+		String path, boolean newFile, Hashtable props, boolean defer)
 	{
 		if(view != null && parent == null)
 			parent = MiscUtilities.getParentOfPath(view.getBuffer().getPath());
@@ -1406,6 +1456,9 @@ public class jEdit
 			Buffer buffer = getBuffer(path);
 			if(buffer != null)
 			{
+				if(!buffer.loadIfDeferred(view))
+					return null;
+
 				if(view != null)
 					view.setBuffer(buffer);
 
@@ -1437,7 +1490,13 @@ public class jEdit
 
 			Buffer newBuffer = new Buffer(path,newFile,false,props);
 
-			if(!newBuffer.load(view,false))
+			// a buffer with an autosave file left over from a
+			// crash is loaded straight away, so that the user is
+			// asked about recovering it before it can be deleted
+			File autosaveFile = newBuffer.getAutosaveFile();
+			if(defer && (autosaveFile == null || !autosaveFile.exists()))
+				newBuffer.deferLoad();
+			else if(!newBuffer.load(view,false))
 				return null;
 
 			addBufferToList(newBuffer);
@@ -1483,7 +1542,23 @@ public class jEdit
 		{
 			Buffer buffer = getBuffer(path);
 			if(buffer != null)
-				return buffer;
+			{
+				if(!buffer.isLoadDeferred())
+					return buffer;
+
+				// a restored buffer that has not been loaded
+				// yet has no changes. It is loaded now if
+				// this is the event dispatch thread; I/O
+				// threads, such as HyperSearch, read the file
+				// into a temporary buffer instead, since the
+				// load would not finish until they do
+				if(SwingUtilities.isEventDispatchThread())
+				{
+					if(!buffer.loadIfDeferred(view))
+						return null;
+					return buffer;
+				}
+			}
 
 			buffer = new Buffer(path,newFile,true,new Hashtable());
 			if(!buffer.load(view,false))
@@ -1598,7 +1673,13 @@ public class jEdit
 		// Wait for pending I/O requests
 		if(buffer.isPerformingIO())
 		{
-			VFSManager.waitForRequests();
+			VFSManager.waitForRequests(buffer.getPath());
+
+			// requests for other files might still be using
+			// the buffer, for example if one is being inserted
+			if(buffer.isPerformingIO())
+				VFSManager.waitForRequests();
+
 			if(VFSManager.errorOccurred())
 				return false;
 		}
@@ -2370,6 +2451,17 @@ public class jEdit
 			+ mode.getName());
 
 		modes.addElement(mode);
+		modeMatcher = null;
+	} //}}}
+
+	//{{{ resetModeMatcher() method
+	/**
+	 * Called by <code>Mode.init()</code> when a mode's file name or
+	 * first line globs might have changed.
+	 */
+	/* package-private */ static void resetModeMatcher()
+	{
+		modeMatcher = null;
 	} //}}}
 
 	//{{{ loadMode() method
@@ -2503,6 +2595,7 @@ public class jEdit
 	private static Vector pluginErrors;
 	private static Vector jars;
 	private static Vector modes;
+	private static ModeMatcher modeMatcher;
 	private static Vector recent;
 	private static boolean saveCaret;
 	private static InputHandler inputHandler;
@@ -3103,6 +3196,37 @@ loop:		for(int i = 0; i < list.length; i++)
 		});
 	} //}}}
 
+	//{{{ prefetchDeferredBuffers() method
+	/**
+	 * Loads the restored buffers that have not been shown yet, one at
+	 * a time. The next buffer is only loaded once all I/O requests are
+	 * complete, so that requests made by the user do not have to wait
+	 * for more than one of them.
+	 */
+	private static void prefetchDeferredBuffers()
+	{
+		Buffer buffer = buffersFirst;
+		while(buffer != null)
+		{
+			if(buffer.isLoadDeferred())
+			{
+				buffer.loadIfDeferred(null);
+
+				VFSManager.runInAWTThread(new Runnable()
+				{
+					public void run()
+					{
+						prefetchDeferredBuffers();
+					}
+				});
+
+				return;
+			}
+
+			buffer = buffer.next;
+		}
+	} //}}}
+
 	//{{{ addBufferToList() method
 	private static void addBufferToList(Buffer buffer)
 	{
@@ -110,6 +110,9 @@ public class LoadSaveOptionPane extends AbstractOptionPane
 			public void actionPerformed(ActionEvent evt)
 			{
 				restoreCLI.setEnabled(restore.isSelected());
+				restoreDefer.setEnabled(restore.isSelected());
+				restorePrefetch.setEnabled(restore.isSelected()
+					&& restoreDefer.isSelected());
 			}
 		});
 
@@ -120,6 +123,26 @@ public class LoadSaveOptionPane extends AbstractOptionPane
 		restoreCLI.setEnabled(restore.isSelected());
 		addComponent(restoreCLI);
 
+		restoreDefer = new JCheckBox(jEdit.getProperty(
+			"options.loadsave.restore.defer"));
+		restoreDefer.setSelected(jEdit.getBooleanProperty("restore.defer"));
+		restoreDefer.setEnabled(restore.isSelected());
+		restoreDefer.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent evt)
+			{
+				restorePrefetch.setEnabled(restoreDefer.isSelected());
+			}
+		});
+		addComponent(restoreDefer);
+
+		restorePrefetch = new JCheckBox(jEdit.getProperty(
+			"options.loadsave.restore.prefetch"));
+		restorePrefetch.setSelected(jEdit.getBooleanProperty("restore.prefetch"));
+		restorePrefetch.setEnabled(restore.isSelected()
+			&& restoreDefer.isSelected());
+		addComponent(restorePrefetch);
+
 		/* Clients open files in new view */
 		newView = new JCheckBox(jEdit.getProperty(
 			"options.loadsave.newView"));
@@ -175,6 +198,9 @@ public class LoadSaveOptionPane extends AbstractOptionPane
 		jEdit.setProperty("ioThreadCount",ioThreadCount.getText());
 		jEdit.setBooleanProperty("restore",restore.isSelected());
 		jEdit.setBooleanProperty("restore.cli",restoreCLI.isSelected());
+		jEdit.setBooleanProperty("restore.defer",restoreDefer.isSelected());
+		jEdit.setBooleanProperty("restore.prefetch",
+			restorePrefetch.isSelected());
 		jEdit.setBooleanProperty("client.newView",newView.isSelected());
 		jEdit.setBooleanProperty("persistentMarkers",
 			persistentMarkers.isSelected());
@@ -193,6 +219,8 @@ public class LoadSaveOptionPane extends AbstractOptionPane
 	private JTextField ioThreadCount;
 	private JCheckBox restore;
 	private JCheckBox restoreCLI;
+	private JCheckBox restoreDefer;
+	private JCheckBox restorePrefetch;
 	private JCheckBox newView;
 	private JCheckBox persistentMarkers;
 	private JCheckBox twoStageSave;
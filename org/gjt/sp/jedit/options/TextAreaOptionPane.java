@@ -115,6 +115,13 @@ public class TextAreaOptionPane extends AbstractOptionPane
 			"view.fracFontMetrics"));
 		addComponent(fracFontMetrics);
 
+		/* Scroll blitting */
+		scrollBlitting = new JCheckBox(jEdit.getProperty("options.textarea"
+			+ ".scrollBlitting"));
+		scrollBlitting.setSelected(jEdit.getBooleanProperty(
+			"view.scrollBlitting"));
+		addComponent(scrollBlitting);
+
 		/* Parse fully */
 		parseFully = new JCheckBox(jEdit.getProperty(
 			"options.textarea.parseFully"));
@@ -144,6 +151,7 @@ public class TextAreaOptionPane extends AbstractOptionPane
 			middleMousePaste.isSelected());
 		jEdit.setBooleanProperty("view.antiAlias",antiAlias.isSelected());
 		jEdit.setBooleanProperty("view.fracFontMetrics",fracFontMetrics.isSelected());
+		jEdit.setBooleanProperty("view.scrollBlitting",scrollBlitting.isSelected());
 		jEdit.setBooleanProperty("parseFully",parseFully.isSelected());
 	} //}}}
 
@@ -160,6 +168,7 @@ public class TextAreaOptionPane extends AbstractOptionPane
 	private JCheckBox middleMousePaste;
 	private JCheckBox antiAlias;
 	private JCheckBox fracFontMetrics;
+	private JCheckBox scrollBlitting;
 	private JCheckBox parseFully;
 	//}}}
 }
@@ -52,6 +52,16 @@ public class HyperSearchRequest extends WorkRequest
 		this.selection = selection;
 	} //}}}
 
+	//{{{ getCategory() method
+	/**
+	 * HyperSearch does not hold up loading and saving files.
+	 * @since jEdit 4.1pre1
+	 */
+	public int getCategory()
+	{
+		return WorkThreadPool.BACKGROUND;
+	} //}}}
+
 	//{{{ run() method
 	public void run()
 	{
@@ -81,6 +91,9 @@ public class HyperSearchRequest extends WorkRequest
 
 loop:				for(int i = 0; i < files.length; i++)
 				{
+					if(isAborted())
+						break loop;
+
 					setProgressValue(++current);
 
 					Buffer buffer = jEdit.openTemporary(null,null,files[i],false);
@@ -451,7 +451,7 @@ loop:			for(;;)
 
 					// Wait for the buffer to load
 					if(!buffer.isLoaded())
-						VFSManager.waitForRequests();
+						VFSManager.waitForRequests(buffer.getPath());
 
 					int start;
 
@@ -813,7 +813,7 @@ loop:			while(path != null)
 
 				// Wait for buffer to finish loading
 				if(buffer.isPerformingIO())
-					VFSManager.waitForRequests();
+					VFSManager.waitForRequests(buffer.getPath());
 
 				if(!buffer.isEditable())
 					continue loop;
@@ -43,6 +43,16 @@ public class ParserRuleSet
 		ruleMapLast = new ParserRule[RULE_BUCKET_COUNT];
 	} //}}}
 
+	//{{{ getName() method
+	/**
+	 * Returns the name of this rule set, as specified in the mode file.
+	 * @since jEdit 4.1pre1
+	 */
+	public String getName()
+	{
+		return name;
+	} //}}}
+
 	//{{{ getMode() method
 	public Mode getMode()
 	{
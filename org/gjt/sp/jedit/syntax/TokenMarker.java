@@ -25,6 +25,7 @@ package org.gjt.sp.jedit.syntax;
 
 //{{{ Imports
 import javax.swing.text.Segment;
+import java.lang.ref.WeakReference;
 import java.util.*;
 import org.gjt.sp.jedit.*;
 import org.gjt.sp.util.Log;
@@ -148,10 +149,16 @@ public class TokenMarker
 	//{{{ markTokens() method
 	/**
 	 * Do not call this method directly; call Buffer.markTokens() instead.
+	 * Token markers are shared by all buffers with the same edit mode,
+	 * and the layout prefetcher tokenizes lines from another thread,
+	 * so only one line is tokenized at a time.
 	 */
-	public LineContext markTokens(LineContext prevContext,
+	public synchronized LineContext markTokens(LineContext prevContext,
 		Buffer.TokenList tokenList, Segment line)
 	{
+		long start = (TokenMarkerProfiler.enabled
+			? System.currentTimeMillis() : 0L);
+
 		this.context = new LineContext();
 
 		//{{{ Set up context
@@ -360,7 +367,15 @@ public class TokenMarker
 
 		tokenList.addToken(0,Token.END,context.rules);
 
-		return context.intern();
+		LineContext retVal = context.intern();
+
+		if(TokenMarkerProfiler.enabled)
+		{
+			TokenMarkerProfiler.lineTokenized(name,line.count,
+				System.currentTimeMillis() - start,retVal);
+		}
+
+		return retVal;
 	} //}}}
 
 	//{{{ Private members
@@ -392,6 +407,26 @@ public class TokenMarker
 	 */
 	private boolean handleRule(Buffer.TokenList tokenList, Segment line,
 		ParserRule checkRule)
+	{
+		if(!TokenMarkerProfiler.enabled)
+			return applyRule(tokenList,line,checkRule);
+
+		// a delegated span changes the context
+		ParserRuleSet rules = context.rules;
+
+		// the rule is only counted as a hit if it was handled, not
+		// if it matched but was rejected
+		boolean keepChecking = applyRule(tokenList,line,checkRule);
+		TokenMarkerProfiler.ruleChecked(rules,checkRule,!keepChecking);
+		return keepChecking;
+	} //}}}
+
+	//{{{ applyRule() method
+	/**
+	 * Does the work of <code>handleRule()</code>.
+	 */
+	private boolean applyRule(Buffer.TokenList tokenList, Segment line,
+		ParserRule checkRule)
 	{
 		if (pattern.count == 0) return true;
 
@@ -413,7 +448,10 @@ public class TokenMarker
 						a == Character.toLowerCase(b)
 					)
 				)
-			) return true;
+			)
+			{
+				return true;
+			}
 			//}}}
 		}
 
@@ -779,20 +817,52 @@ loop:			for(int i = 0; i < len; i++)
 	//}}}
 
 	//{{{ LineContext class
+	/**
+	 * The state of the token marker at the end of a line. Line contexts
+	 * are interned, so that buffers only store one copy of each distinct
+	 * context; the intern pool only holds weak references, so contexts
+	 * no longer used by any buffer can be garbage collected.
+	 */
 	public static class LineContext
 	{
 		//{{{ Debug code
 		static int count;
-		static int countGC;
-
+		static int internHits;
+		static int internMisses;
+
+		/**
+		 * Returns a string with the number of line contexts created,
+		 * the number of intern pool lookups that did and did not find
+		 * an existing context, and the number of contexts in the pool.
+		 */
 		public String getAllocationStatistics()
 		{
-			return "total: " + count + ", in core: " +
-				(count - countGC)
-				+ ", interned: " + intern.size();
+			int interned = 0;
+			for(int i = 0; i < intern.length; i++)
+			{
+				synchronized(intern[i])
+				{
+					interned += intern[i].size();
+				}
+			}
+
+			return "total: " + count + ", intern hits: " + internHits
+				+ ", intern misses: " + internMisses
+				+ ", interned: " + interned;
 		} //}}}
 
-		static Hashtable intern = new Hashtable();
+		/* The intern pool is split into several segments, each with
+		 * its own lock, so that token markers running in different
+		 * threads rarely wait for each other. */
+		private static final int SEGMENT_COUNT = 16;
+		private static final WeakHashMap[] intern
+			= new WeakHashMap[SEGMENT_COUNT];
+
+		static
+		{
+			for(int i = 0; i < SEGMENT_COUNT; i++)
+				intern[i] = new WeakHashMap();
+		}
 
 		public LineContext parent;
 		public ParserRule inRule;
@@ -828,22 +898,36 @@ loop:			for(int i = 0; i < len; i++)
 		} //}}}
 
 		//{{{ intern() method
+		/**
+		 * Returns the canonical instance of this context. The parent
+		 * context is interned too, so that contexts that share a
+		 * parent also share its memory.
+		 */
 		public LineContext intern()
 		{
-			Object obj = intern.get(this);
-			if(obj == null)
+			if(parent != null)
+				parent = parent.intern();
+
+			WeakHashMap segment = intern[hashCode() & (SEGMENT_COUNT - 1)];
+			synchronized(segment)
 			{
-				intern.put(this,this);
-				return this;
+				// the value must be a weak reference too, since
+				// the value refers to the key
+				WeakReference ref = (WeakReference)segment.get(this);
+				LineContext lc = (ref == null ? null
+					: (LineContext)ref.get());
+				if(lc == null)
+				{
+					internMisses++;
+					segment.put(this,new WeakReference(this));
+					return this;
+				}
+				else
+				{
+					internHits++;
+					return lc;
+				}
 			}
-			else
-				return (LineContext)obj;
-		} //}}}
-
-		//{{{ finalize() method
-		public void finalize()
-		{
-			countGC++;
 		} //}}}
 
 		//{{{ hashCode() method
@@ -0,0 +1,493 @@
+/*
+ * TokenMarkerProfiler.java - Collects syntax highlighting statistics
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.syntax;
+
+//{{{ Imports
+import java.io.*;
+import java.util.*;
+import org.gjt.sp.jedit.Mode;
+import org.gjt.sp.jedit.MiscUtilities;
+//}}}
+
+/**
+ * Collects statistics about the token marker, to help find out why
+ * syntax highlighting is slow with a particular edit mode.<p>
+ *
+ * When enabled, the time spent tokenizing each line, the delegate depth
+ * at the end of each line, and the number of times each parser rule was
+ * tried and matched are recorded, grouped by edit mode. Time spent in a
+ * delegated rule set is counted towards the mode of the buffer, while
+ * rule checks are counted towards the mode the rule comes from.<p>
+ *
+ * Times are measured with <code>System.currentTimeMillis()</code>, which
+ * is too coarse to time a single line, but adds up to the right total
+ * over many lines.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class TokenMarkerProfiler
+{
+	//{{{ isEnabled() method
+	/**
+	 * Returns if statistics are being collected.
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	} //}}}
+
+	//{{{ setEnabled() method
+	/**
+	 * Starts or stops collecting statistics. Statistics collected so
+	 * far are kept.
+	 * @param enabled True to start collecting, false to stop
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		TokenMarkerProfiler.enabled = enabled;
+	} //}}}
+
+	//{{{ reset() method
+	/**
+	 * Discards all collected statistics.
+	 */
+	public static void reset()
+	{
+		synchronized(lock)
+		{
+			modeProfiles.clear();
+		}
+	} //}}}
+
+	//{{{ getModeProfiles() method
+	/**
+	 * Returns a snapshot of the statistics of each edit mode, the mode
+	 * that took the most time to tokenize first.
+	 */
+	public static ModeProfile[] getModeProfiles()
+	{
+		ModeProfile[] profiles;
+		synchronized(lock)
+		{
+			profiles = new ModeProfile[modeProfiles.size()];
+			Enumeration enum = modeProfiles.elements();
+			for(int i = 0; i < profiles.length; i++)
+				profiles[i] = ((ModeProfile)enum.nextElement()).copy();
+		}
+
+		MiscUtilities.quicksort(profiles,new ModeProfileCompare());
+		return profiles;
+	} //}}}
+
+	//{{{ dump() method
+	/**
+	 * Writes a human-readable report of the collected statistics.
+	 * @param out The writer
+	 */
+	public static void dump(Writer out) throws IOException
+	{
+		String lineSep = System.getProperty("line.separator");
+		ModeProfile[] profiles = getModeProfiles();
+
+		if(profiles.length == 0)
+		{
+			out.write("No lines tokenized.");
+			out.write(lineSep);
+		}
+
+		for(int i = 0; i < profiles.length; i++)
+		{
+			ModeProfile profile = profiles[i];
+
+			if(i != 0)
+				out.write(lineSep);
+
+			out.write("Mode: " + profile.getModeName() + lineSep);
+			out.write("  Lines tokenized: " + profile.getLineCount()
+				+ " (" + profile.getCharCount()
+				+ " characters)" + lineSep);
+			out.write("  Time: " + profile.getTime() + " ms ("
+				+ profile.getLinesPerSecond()
+				+ " lines per second)" + lineSep);
+			out.write("  Delegate depth: maximum "
+				+ profile.getMaxDelegateDepth() + ", average "
+				+ profile.getAverageDelegateDepth() + lineSep);
+
+			RuleProfile[] rules = profile.getRuleProfiles();
+			if(rules.length == 0)
+				continue;
+
+			out.write("  Rules (tries, matches, rule set, rule):"
+				+ lineSep);
+			for(int j = 0; j < rules.length; j++)
+			{
+				RuleProfile rule = rules[j];
+				out.write("    " + rule.getAttempts() + "\t"
+					+ rule.getHits() + "\t"
+					+ rule.getRuleSetName() + "\t"
+					+ rule.getDescription());
+				if(rule.isSuspicious())
+					out.write("\t(rarely matches)");
+				out.write(lineSep);
+			}
+		}
+	} //}}}
+
+	//{{{ ModeProfile class
+	/**
+	 * Syntax highlighting statistics of one edit mode.
+	 */
+	public static class ModeProfile
+	{
+		//{{{ getModeName() method
+		public String getModeName()
+		{
+			return modeName;
+		} //}}}
+
+		//{{{ getLineCount() method
+		/**
+		 * Returns the number of lines tokenized.
+		 */
+		public int getLineCount()
+		{
+			return lines;
+		} //}}}
+
+		//{{{ getCharCount() method
+		/**
+		 * Returns the total length of the lines tokenized.
+		 */
+		public long getCharCount()
+		{
+			return chars;
+		} //}}}
+
+		//{{{ getTime() method
+		/**
+		 * Returns the time spent tokenizing, in milliseconds.
+		 */
+		public long getTime()
+		{
+			return time;
+		} //}}}
+
+		//{{{ getLinesPerSecond() method
+		public long getLinesPerSecond()
+		{
+			if(time == 0)
+				return lines * 1000L;
+			else
+				return lines * 1000L / time;
+		} //}}}
+
+		//{{{ getMaxDelegateDepth() method
+		/**
+		 * Returns the deepest nesting of delegated rule sets seen at
+		 * the end of a line.
+		 */
+		public int getMaxDelegateDepth()
+		{
+			return maxDepth;
+		} //}}}
+
+		//{{{ getAverageDelegateDepth() method
+		public float getAverageDelegateDepth()
+		{
+			if(lines == 0)
+				return 0.0f;
+			else
+				return (float)totalDepth / lines;
+		} //}}}
+
+		//{{{ getRuleProfiles() method
+		/**
+		 * Returns the statistics of each rule of this mode that was
+		 * tried at least once, the most often tried rule first.
+		 */
+		public RuleProfile[] getRuleProfiles()
+		{
+			RuleProfile[] profiles = new RuleProfile[rules.size()];
+			Enumeration enum = rules.elements();
+			for(int i = 0; i < profiles.length; i++)
+				profiles[i] = (RuleProfile)enum.nextElement();
+			MiscUtilities.quicksort(profiles,new RuleProfileCompare());
+			return profiles;
+		} //}}}
+
+		//{{{ Private members
+		private String modeName;
+		private int lines;
+		private long chars;
+		private long time;
+		private int maxDepth;
+		private long totalDepth;
+		private Hashtable rules;
+
+		//{{{ ModeProfile constructor
+		ModeProfile(String modeName)
+		{
+			this.modeName = modeName;
+			rules = new Hashtable();
+		} //}}}
+
+		//{{{ copy() method
+		ModeProfile copy()
+		{
+			ModeProfile copy = new ModeProfile(modeName);
+			copy.lines = lines;
+			copy.chars = chars;
+			copy.time = time;
+			copy.maxDepth = maxDepth;
+			copy.totalDepth = totalDepth;
+
+			Enumeration enum = rules.elements();
+			while(enum.hasMoreElements())
+			{
+				RuleProfile rule = ((RuleProfile)enum.nextElement())
+					.copy();
+				copy.rules.put(rule.rule,rule);
+			}
+
+			return copy;
+		} //}}}
+
+		//}}}
+	} //}}}
+
+	//{{{ RuleProfile class
+	/**
+	 * Statistics of one parser rule.
+	 */
+	public static class RuleProfile
+	{
+		//{{{ getRuleSetName() method
+		public String getRuleSetName()
+		{
+			return rules.getName();
+		} //}}}
+
+		//{{{ getRule() method
+		public ParserRule getRule()
+		{
+			return rule;
+		} //}}}
+
+		//{{{ getDescription() method
+		/**
+		 * Returns the rule type and the text it starts with.
+		 */
+		public String getDescription()
+		{
+			String type;
+			if((rule.action & TokenMarker.IS_ESCAPE) != 0)
+				type = "ESCAPE";
+			else
+			{
+				switch(rule.action & TokenMarker.MAJOR_ACTIONS)
+				{
+				case TokenMarker.WHITESPACE:
+					type = "WHITESPACE";
+					break;
+				case TokenMarker.SPAN:
+					type = "SPAN";
+					break;
+				case TokenMarker.MARK_PREVIOUS:
+					type = "MARK_PREVIOUS";
+					break;
+				case TokenMarker.MARK_FOLLOWING:
+					type = "MARK_FOLLOWING";
+					break;
+				case TokenMarker.EOL_SPAN:
+					type = "EOL_SPAN";
+					break;
+				default:
+					type = "SEQ";
+					break;
+				}
+			}
+
+			return type + " \"" + new String(rule.searchChars,0,
+				rule.sequenceLengths[0]) + "\"";
+		} //}}}
+
+		//{{{ getAttempts() method
+		/**
+		 * Returns the number of times the rule was checked against
+		 * the text.
+		 */
+		public int getAttempts()
+		{
+			return attempts;
+		} //}}}
+
+		//{{{ getHits() method
+		/**
+		 * Returns the number of times the rule matched and was
+		 * handled. A match that is then rejected, for example
+		 * because the rule only applies at the start of a line,
+		 * is not counted.
+		 */
+		public int getHits()
+		{
+			return hits;
+		} //}}}
+
+		//{{{ isSuspicious() method
+		/**
+		 * Returns true if the rule was tried often but almost never
+		 * matched. Such rules slow down tokenization without doing
+		 * much.
+		 */
+		public boolean isSuspicious()
+		{
+			return attempts >= SUSPICIOUS_ATTEMPTS
+				&& hits * 100 < attempts;
+		} //}}}
+
+		//{{{ Private members
+		private ParserRuleSet rules;
+		private ParserRule rule;
+		private int attempts;
+		private int hits;
+
+		//{{{ RuleProfile constructor
+		RuleProfile(ParserRuleSet rules, ParserRule rule)
+		{
+			this.rules = rules;
+			this.rule = rule;
+		} //}}}
+
+		//{{{ copy() method
+		RuleProfile copy()
+		{
+			RuleProfile copy = new RuleProfile(rules,rule);
+			copy.attempts = attempts;
+			copy.hits = hits;
+			return copy;
+		} //}}}
+
+		//}}}
+	} //}}}
+
+	//{{{ Package-private members
+
+	// checked by the token marker before calling the methods below
+	static boolean enabled;
+
+	//{{{ lineTokenized() method
+	static void lineTokenized(String modeName, int length, long time,
+		TokenMarker.LineContext context)
+	{
+		int depth = 0;
+		while(context.parent != null)
+		{
+			depth++;
+			context = context.parent;
+		}
+
+		synchronized(lock)
+		{
+			ModeProfile profile = getModeProfile(modeName);
+			profile.lines++;
+			profile.chars += length;
+			profile.time += time;
+			profile.totalDepth += depth;
+			if(depth > profile.maxDepth)
+				profile.maxDepth = depth;
+		}
+	} //}}}
+
+	//{{{ ruleChecked() method
+	static void ruleChecked(ParserRuleSet rules, ParserRule rule,
+		boolean matched)
+	{
+		Mode mode = rules.getMode();
+		String modeName = (mode == null ? "<unknown>" : mode.getName());
+
+		synchronized(lock)
+		{
+			ModeProfile profile = getModeProfile(modeName);
+			RuleProfile ruleProfile = (RuleProfile)profile.rules.get(rule);
+			if(ruleProfile == null)
+			{
+				ruleProfile = new RuleProfile(rules,rule);
+				profile.rules.put(rule,ruleProfile);
+			}
+
+			ruleProfile.attempts++;
+			if(matched)
+				ruleProfile.hits++;
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ Private members
+	private static final int SUSPICIOUS_ATTEMPTS = 1000;
+
+	private static Object lock = new Object();
+	private static Hashtable modeProfiles = new Hashtable();
+
+	private TokenMarkerProfiler() {}
+
+	//{{{ getModeProfile() method
+	private static ModeProfile getModeProfile(String modeName)
+	{
+		ModeProfile profile = (ModeProfile)modeProfiles.get(modeName);
+		if(profile == null)
+		{
+			profile = new ModeProfile(modeName);
+			modeProfiles.put(modeName,profile);
+		}
+		return profile;
+	} //}}}
+
+	//}}}
+
+	//{{{ ModeProfileCompare class
+	static class ModeProfileCompare implements MiscUtilities.Compare
+	{
+		public int compare(Object obj1, Object obj2)
+		{
+			ModeProfile p1 = (ModeProfile)obj1;
+			ModeProfile p2 = (ModeProfile)obj2;
+			if(p1.time != p2.time)
+				return (p1.time > p2.time ? -1 : 1);
+			else
+				return p1.modeName.compareTo(p2.modeName);
+		}
+	} //}}}
+
+	//{{{ RuleProfileCompare class
+	static class RuleProfileCompare implements MiscUtilities.Compare
+	{
+		public int compare(Object obj1, Object obj2)
+		{
+			return ((RuleProfile)obj2).attempts
+				- ((RuleProfile)obj1).attempts;
+		}
+	} //}}}
+}
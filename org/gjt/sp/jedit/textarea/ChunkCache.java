@@ -29,6 +29,9 @@ import java.awt.font.*;
 import java.awt.geom.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
 import org.gjt.sp.jedit.syntax.*;
 import org.gjt.sp.jedit.Buffer;
 import org.gjt.sp.util.Log;
@@ -306,6 +309,9 @@ public class ChunkCache
 	 */
 	public static float offsetToX(Chunk chunks, int offset)
 	{
+		if(chunks instanceof LongLineChunk)
+			return ((LongLineChunk)chunks).offsetToX(offset);
+
 		if(chunks != null && offset < chunks.offset)
 		{
 			throw new ArrayIndexOutOfBoundsException(offset + " < "
@@ -346,6 +352,9 @@ public class ChunkCache
 	 */
 	public static int xToOffset(Chunk chunks, float x, boolean round)
 	{
+		if(chunks instanceof LongLineChunk)
+			return ((LongLineChunk)chunks).xToOffset(x,round);
+
 		float _x = 0.0f;
 
 		while(chunks != null)
@@ -436,11 +445,113 @@ public class ChunkCache
 		}
 	} //}}}
 
+	//{{{ LongLineChunk class
+	/**
+	 * Only the part of a long line around the visible area is laid out.
+	 * The chunks of that window follow this chunk, whose width is the
+	 * x co-ordinate of the window. Positions outside the window are
+	 * computed from the columns of a {@link LongLineLayout}, assuming
+	 * a fixed width font. The painter paints the window chunks only,
+	 * and offsets line positions by <code>startX</code> using integer
+	 * arithmetic, since floats are not precise enough for lines that
+	 * are many millions of pixels wide.
+	 */
+	static class LongLineChunk extends Chunk
+	{
+		LongLineLayout layout;
+		double charWidth;
+
+		// offsets of the laid out window
+		int start;
+		int end;
+
+		int startX;
+		int endX;
+		int lineWidth;
+
+		LongLineChunk(LongLineLayout layout, double charWidth,
+			int start, int end)
+		{
+			super(0.0f,0);
+			this.layout = layout;
+			this.charWidth = charWidth;
+			this.start = start;
+			this.end = end;
+
+			startX = columnToX(layout.offsetToColumn(start));
+			width = startX;
+		}
+
+		//{{{ setWindowWidth() method
+		void setWindowWidth(float windowWidth)
+		{
+			endX = startX + (int)windowWidth;
+			if(end == layout.getLength())
+				lineWidth = endX;
+			else
+			{
+				lineWidth = Math.max(endX,columnToX(
+					layout.getColumnCount()));
+			}
+		} //}}}
+
+		//{{{ covers() method
+		/**
+		 * Returns true if the window covers the specified range of
+		 * x co-ordinates, measured from the start of the line.
+		 */
+		boolean covers(int x1, int x2)
+		{
+			return (start == 0 || x1 >= startX)
+				&& (end == layout.getLength() || x2 <= endX);
+		} //}}}
+
+		//{{{ offsetToX() method
+		int offsetToX(int offset)
+		{
+			if(offset >= start && (offset < end
+				|| end == layout.getLength()))
+			{
+				return startX + (int)ChunkCache.offsetToX(
+					next,offset);
+			}
+			else
+				return columnToX(layout.offsetToColumn(offset));
+		} //}}}
+
+		//{{{ xToOffset() method
+		int xToOffset(double x, boolean round)
+		{
+			if(x >= lineWidth)
+				return -1;
+
+			if(x >= startX && x < endX)
+			{
+				int offset = ChunkCache.xToOffset(next,
+					(float)(x - startX),round);
+				if(offset != -1)
+					return offset;
+			}
+
+			double column = x / charWidth;
+			if(round)
+				column += 0.5;
+			return layout.columnToOffset((int)column);
+		} //}}}
+
+		//{{{ columnToX() method
+		private int columnToX(int column)
+		{
+			return (int)Math.round(column * charWidth);
+		} //}}}
+	} //}}}
+
 	//{{{ ChunkCache constructor
 	ChunkCache(JEditTextArea textArea)
 	{
 		this.textArea = textArea;
 		out = new ArrayList();
+		longLineLayouts = new Hashtable();
 	} //}}}
 
 	//{{{ getMaxHorizontalScrollWidth() method
@@ -600,6 +711,21 @@ public class ChunkCache
 	//{{{ invalidateChunksFromPhys() method
 	void invalidateChunksFromPhys(int physicalLine)
 	{
+		if(longLineLayouts.size() != 0)
+		{
+			Vector removed = new Vector();
+			Enumeration keys = longLineLayouts.keys();
+			while(keys.hasMoreElements())
+			{
+				Integer line = (Integer)keys.nextElement();
+				if(line.intValue() >= physicalLine)
+					removed.addElement(line);
+			}
+
+			for(int i = 0; i < removed.size(); i++)
+				longLineLayouts.remove(removed.elementAt(i));
+		}
+
 		for(int i = 0; i < lineInfo.length; i++)
 		{
 			if(lineInfo[i].physicalLine >= physicalLine)
@@ -610,20 +736,298 @@ public class ChunkCache
 		}
 	} //}}}
 
+	//{{{ horizontalOffsetChanged() method
+	/**
+	 * Long lines are only laid out around the visible area, so they
+	 * must be laid out again if the text area is scrolled too far to
+	 * the left or right.
+	 */
+	void horizontalOffsetChanged()
+	{
+		if(lineInfo == null)
+			return;
+
+		int x1 = -textArea.getHorizontalOffset();
+		int x2 = x1 + textArea.getPainter().getWidth();
+
+		for(int i = 0; i < lineInfo.length; i++)
+		{
+			LineInfo info = lineInfo[i];
+			if(info.chunksValid && info.chunks instanceof LongLineChunk
+				&& !((LongLineChunk)info.chunks).covers(x1,x2))
+			{
+				invalidateChunksFrom(i);
+				break;
+			}
+		}
+	} //}}}
+
+	//{{{ offsetToScreenX() method
+	/**
+	 * Converts an offset in a chunk list into an x co-ordinate in the
+	 * text area painter's co-ordinate space.
+	 */
+	int offsetToScreenX(Chunk chunks, int offset)
+	{
+		int horizontalOffset = textArea.getHorizontalOffset();
+		if(chunks instanceof LongLineChunk)
+		{
+			return horizontalOffset + ((LongLineChunk)chunks)
+				.offsetToX(offset);
+		}
+		else
+			return (int)(horizontalOffset + offsetToX(chunks,offset));
+	} //}}}
+
+	//{{{ screenXToOffset() method
+	/**
+	 * Converts an x co-ordinate in the text area painter's co-ordinate
+	 * space into an offset in a chunk list.
+	 * @return The offset, or -1 if the x co-ordinate is too far to the
+	 * right
+	 */
+	int screenXToOffset(Chunk chunks, float x, boolean round)
+	{
+		int horizontalOffset = textArea.getHorizontalOffset();
+		if(chunks instanceof LongLineChunk)
+		{
+			return ((LongLineChunk)chunks).xToOffset(
+				(double)x - horizontalOffset,round);
+		}
+		else
+			return xToOffset(chunks,x - horizontalOffset,round);
+	} //}}}
+
+	//{{{ getChunkListCacheStatistics() method
+	/**
+	 * Returns a string with the number of times the chunk lists of a
+	 * line were and were not found in the cache shared by all text
+	 * areas, and the number of lines and characters in the cache.
+	 * @since jEdit 4.1pre1
+	 */
+	public static String getChunkListCacheStatistics()
+	{
+		return chunkListCache.getStatistics();
+	} //}}}
+
+	//{{{ prefetchChunkList() method
+	/**
+	 * Lays out a line and stores its chunk lists in the cache shared by
+	 * all text areas, unless they are there already. Called from the
+	 * layout prefetcher thread; the segment and tokens must not be
+	 * changed by other threads.
+	 */
+	static void prefetchChunkList(Segment seg, Token tokens,
+		SyntaxStyle[] styles, FontRenderContext fontRenderContext,
+		TabExpander expander, float wrapMargin, float tabWidth)
+	{
+		ArrayList out = new ArrayList();
+		if(chunkListCache.get(seg,tokens,styles,fontRenderContext,
+			wrapMargin,tabWidth,out))
+			return;
+
+		lineToChunkList(seg,tokens,styles,fontRenderContext,expander,
+			wrapMargin,out);
+		chunkListCache.put(seg,tokens,styles,fontRenderContext,
+			wrapMargin,tabWidth,out,0);
+	} //}}}
+
 	//{{{ lineToChunkList() method
 	void lineToChunkList(int physicalLine, ArrayList out)
+	{
+		if(!textArea.softWrap)
+		{
+			lineToChunkList(physicalLine,0.0f,out);
+			return;
+		}
+
+		int start = out.size();
+		lineToChunkList(physicalLine,textArea.wrapMargin,out);
+
+		// empty lines have no chunk lists but still take up a
+		// screen line
+		textArea.setScreenLineCount(physicalLine,
+			Math.max(1,out.size() - start));
+	} //}}}
+
+	//{{{ updateScreenLineCount() method
+	/**
+	 * Lays out a line with soft wrap to find out how many screen lines
+	 * it takes, and tells the text area. Unlike
+	 * <code>lineToChunkList()</code>, this does not store the tokens
+	 * or the chunk lists in the caches used for painting, so that lines
+	 * laid out in the background do not push out the lines on screen.
+	 * @param physicalLine The line
+	 * @param tokens A token list to reuse
+	 * @param out A list to reuse, which is left empty
+	 */
+	void updateScreenLineCount(int physicalLine, Buffer.TokenList tokens,
+		ArrayList out)
+	{
+		Buffer buffer = textArea.getBuffer();
+
+		// long lines are never soft wrapped
+		int count = 1;
+		if(!buffer.isLongLine(physicalLine))
+		{
+			Token firstToken = buffer.markTokens(physicalLine,tokens)
+				.getFirstToken();
+
+			Segment seg = textArea.lineSegment;
+			buffer.getLineText(physicalLine,seg);
+
+			TextAreaPainter painter = textArea.getPainter();
+			lineToChunkList(seg,firstToken,painter.getStyles(),
+				painter.getFontRenderContext(),painter,
+				textArea.wrapMargin,out);
+
+			// empty lines have no chunk lists but still take up
+			// a screen line
+			count = Math.max(1,out.size());
+			out.clear();
+		}
+
+		textArea.setScreenLineCount(physicalLine,count);
+	} //}}}
+
+	//{{{ lineToChunkList() method
+	/**
+	 * Converts a line of the text area's buffer into chunk lists, reusing
+	 * the chunk lists laid out earlier for a line with the same text,
+	 * tokens and painter settings, if there is one.
+	 */
+	void lineToChunkList(int physicalLine, float wrapMargin, ArrayList out)
+	{
+		TextAreaPainter painter = textArea.getPainter();
+		Buffer buffer = textArea.getBuffer();
+
+		if(buffer.isLongLine(physicalLine))
+		{
+			longLineToChunkList(physicalLine,out);
+			return;
+		}
+
+		long time = (PainterProfiler.enabled
+			? System.currentTimeMillis() : 0L);
+
+		Token tokens = buffer.markTokens(physicalLine).getFirstToken();
+
+		long tokenizeTime = 0L;
+		if(PainterProfiler.enabled)
+		{
+			long now = System.currentTimeMillis();
+			tokenizeTime = now - time;
+			time = now;
+		}
+
+		Segment seg = textArea.lineSegment;
+		buffer.getLineText(physicalLine,seg);
+
+		SyntaxStyle[] styles = painter.getStyles();
+		FontRenderContext fontRenderContext = painter.getFontRenderContext();
+		float tabWidth = painter.nextTabStop(0.0f,0);
+
+		boolean cached = chunkListCache.get(seg,tokens,styles,
+			fontRenderContext,wrapMargin,tabWidth,out);
+		if(!cached)
+		{
+			int start = out.size();
+			lineToChunkList(seg,tokens,styles,fontRenderContext,
+				painter,wrapMargin,out);
+			chunkListCache.put(seg,tokens,styles,fontRenderContext,
+				wrapMargin,tabWidth,out,start);
+		}
+
+		if(PainterProfiler.enabled)
+		{
+			PainterProfiler.lineLaidOut(tokenizeTime,
+				System.currentTimeMillis() - time,cached);
+		}
+	} //}}}
+
+	//{{{ longLineToChunkList() method
+	/**
+	 * Lays out the part of a long line that is visible, along with a
+	 * margin on either side. Long lines are never soft wrapped.
+	 */
+	private void longLineToChunkList(int physicalLine, ArrayList out)
 	{
 		TextAreaPainter painter = textArea.getPainter();
 		Buffer buffer = textArea.getBuffer();
 
-		buffer.getLineText(physicalLine,textArea.lineSegment);
+		LongLineLayout layout = getLongLineLayout(physicalLine);
+		double charWidth = (double)textArea.tabSize
+			/ layout.getTabSize();
+
+		int x = -textArea.getHorizontalOffset();
+		int width = painter.getWidth();
+		int margin = Math.max(width,LONG_LINE_MARGIN);
+
+		int start = layout.columnToOffset(
+			(int)((x - margin) / charWidth));
+		int end = layout.columnToOffset(
+			(int)((x + width + margin) / charWidth) + 1);
+
+		LongLineChunk first = new LongLineChunk(layout,charWidth,
+			start,end);
+		out.add(first);
+
+		Token tokens = buffer.markTokens(physicalLine,start,end)
+			.getFirstToken();
+
+		Segment seg = textArea.lineSegment;
+		buffer.getLineText(physicalLine,seg);
+		Segment window = new Segment(seg.array,seg.offset + start,
+			end - start);
+
+		ArrayList chunkList = new ArrayList(1);
+		lineToChunkList(window,tokens,painter.getStyles(),
+			painter.getFontRenderContext(),
+			new WindowTabExpander(painter,first.startX),
+			0.0f,chunkList);
+
+		float windowWidth = 0.0f;
+		if(chunkList.size() != 0)
+		{
+			first.next = (Chunk)chunkList.get(0);
+			for(Chunk chunk = first.next; chunk != null;
+				chunk = chunk.next)
+			{
+				chunk.offset += start;
+				windowWidth += chunk.width;
+			}
+		}
 
-		lineToChunkList(textArea.lineSegment,
-			buffer.markTokens(physicalLine).getFirstToken(),
-			painter.getStyles(),painter.getFontRenderContext(),
-			painter,textArea.softWrap
-			? textArea.wrapMargin
-			: 0.0f,out);
+		first.setWindowWidth(windowWidth);
+	} //}}}
+
+	//{{{ getLongLineLayout() method
+	private LongLineLayout getLongLineLayout(int physicalLine)
+	{
+		Buffer buffer = textArea.getBuffer();
+		if(buffer != longLineBuffer)
+		{
+			longLineLayouts.clear();
+			longLineBuffer = buffer;
+		}
+
+		int tabSize = Math.max(1,buffer.getTabSize());
+
+		Integer key = new Integer(physicalLine);
+		LongLineLayout layout = (LongLineLayout)longLineLayouts.get(key);
+		if(layout == null || layout.getTabSize() != tabSize
+			|| layout.getLength() != buffer.getLineLength(physicalLine))
+		{
+			Segment seg = textArea.lineSegment;
+			buffer.getLineText(physicalLine,seg);
+			layout = new LongLineLayout(seg,tabSize);
+
+			if(longLineLayouts.size() > lineInfo.length)
+				longLineLayouts.clear();
+			longLineLayouts.put(key,layout);
+		}
+
+		return layout;
 	} //}}}
 
 	//{{{ updateChunksUpTo() method
@@ -874,14 +1278,7 @@ public class ChunkCache
 		LineInfo info = new LineInfo();
 
 		out.clear();
-		Buffer buffer = textArea.getBuffer();
-		buffer.getLineText(physicalLineIndex,textArea.lineSegment);
-
-		TextAreaPainter painter = textArea.getPainter();
-		lineToChunkList(textArea.lineSegment,
-			buffer.markTokens(physicalLineIndex).getFirstToken(),
-			painter.getStyles(),painter.getFontRenderContext(),
-			painter,0.0f,out);
+		lineToChunkList(physicalLineIndex,0.0f,out);
 
 		if(out.size() == 0)
 			info.chunks = null;
@@ -895,17 +1292,55 @@ public class ChunkCache
 	} //}}}
 
 	//{{{ Private members
+
+	/* Chunks are never modified once they are created, so chunk lists
+	 * are shared between all text areas. */
+	private static final int CHUNK_LIST_CACHE_SIZE = 1024;
+	private static final int CHUNK_LIST_CACHE_CHARS = 128 * 1024;
+	private static ChunkListCache chunkListCache = new ChunkListCache(
+		CHUNK_LIST_CACHE_SIZE,CHUNK_LIST_CACHE_CHARS);
+
+	// minimum number of pixels to lay out on either side of the
+	// visible part of a long line
+	private static final int LONG_LINE_MARGIN = 1024;
+
 	private JEditTextArea textArea;
 	private int firstLine;
 	private LineInfo[] lineInfo;
 	private ArrayList out;
 
+	// physical line numbers to LongLineLayout instances
+	private Hashtable longLineLayouts;
+	private Buffer longLineBuffer;
+
 	private int lastScreenLineP;
 	private int lastScreenLine;
 
 	private boolean needFullRepaint;
 	//}}}
 
+	//{{{ WindowTabExpander class
+	/**
+	 * Computes tab stops for the window of a long line that has been
+	 * laid out, which does not start at x co-ordinate 0.
+	 */
+	static class WindowTabExpander implements TabExpander
+	{
+		WindowTabExpander(TabExpander expander, int x)
+		{
+			this.expander = expander;
+			this.x = x;
+		}
+
+		public float nextTabStop(float x, int tabOffset)
+		{
+			return expander.nextTabStop(this.x + x,tabOffset) - this.x;
+		}
+
+		private TabExpander expander;
+		private int x;
+	} //}}}
+
 	//{{{ LineInfo class
 	static class LineInfo
 	{
@@ -0,0 +1,322 @@
+/*
+ * ChunkListCache.java - Caches laid out chunk lists
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.textarea;
+
+//{{{ Imports
+import javax.swing.text.Segment;
+import java.awt.font.FontRenderContext;
+import java.lang.ref.SoftReference;
+import java.util.List;
+import org.gjt.sp.jedit.syntax.*;
+//}}}
+
+/**
+ * Holds the chunk lists of recently laid out lines, so that lines that
+ * scroll back into view, or that are shown again after switching
+ * buffers, do not need to have their glyph vectors created again.<p>
+ *
+ * Entries are keyed by the line text, the token types and lengths, the
+ * style array, the font render context, the wrap margin and the tab
+ * width, so they can be shared between text areas and never need to be
+ * invalidated; entries for lines that were edited simply stop being
+ * used and are eventually dropped. The cache is bounded by the number of
+ * entries and the total length of the cached text, and chunk lists are
+ * only softly referenced, so they can be reclaimed when memory is low.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class ChunkListCache
+{
+	//{{{ ChunkListCache constructor
+	/**
+	 * Creates a new chunk list cache.
+	 * @param size The maximum number of lines to hold
+	 * @param maxChars The maximum total length of the lines held
+	 */
+	ChunkListCache(int size, int maxChars)
+	{
+		int bucketCount = 1;
+		while(bucketCount < size * 2)
+			bucketCount <<= 1;
+		buckets = new Entry[bucketCount];
+
+		this.size = size;
+		this.maxChars = maxChars;
+	} //}}}
+
+	//{{{ get() method
+	/**
+	 * If the chunk lists of a line with the specified text and tokens
+	 * are cached, adds them to the list and returns true.
+	 */
+	synchronized boolean get(Segment seg, Token tokens,
+		SyntaxStyle[] styles, FontRenderContext fontRenderContext,
+		float wrapMargin, float tabWidth, List out)
+	{
+		int hash = hashCode(seg,tokens);
+
+		Entry entry = buckets[hash & (buckets.length - 1)];
+		while(entry != null)
+		{
+			if(entry.hash == hash && entry.matches(seg,tokens,styles,
+				fontRenderContext,wrapMargin,tabWidth))
+			{
+				ChunkCache.Chunk[] chunks = (ChunkCache.Chunk[])
+					entry.chunks.get();
+				if(chunks == null)
+				{
+					// reclaimed by the garbage collector
+					remove(entry);
+					break;
+				}
+
+				unlink(entry);
+				linkFirst(entry);
+
+				for(int i = 0; i < chunks.length; i++)
+					out.add(chunks[i]);
+
+				hits++;
+				return true;
+			}
+			entry = entry.hashNext;
+		}
+
+		misses++;
+		return false;
+	} //}}}
+
+	//{{{ put() method
+	/**
+	 * Stores the chunk lists of a line.
+	 */
+	synchronized void put(Segment seg, Token tokens, SyntaxStyle[] styles,
+		FontRenderContext fontRenderContext, float wrapMargin,
+		float tabWidth, List chunkLists, int start)
+	{
+		// a single line that would push everything else out is not
+		// worth caching
+		if(seg.count > maxChars / 4)
+			return;
+
+		int hash = hashCode(seg,tokens);
+
+		Entry entry = new Entry();
+		entry.hash = hash;
+		entry.text = new char[seg.count];
+		System.arraycopy(seg.array,seg.offset,entry.text,0,seg.count);
+
+		int tokenCount = 0;
+		for(Token t = tokens; t.id != Token.END; t = t.next)
+			tokenCount++;
+		entry.tokenIds = new byte[tokenCount];
+		entry.tokenLengths = new int[tokenCount];
+		tokenCount = 0;
+		for(Token t = tokens; t.id != Token.END; t = t.next)
+		{
+			entry.tokenIds[tokenCount] = t.id;
+			entry.tokenLengths[tokenCount] = t.length;
+			tokenCount++;
+		}
+
+		entry.styles = styles;
+		entry.fontRenderContext = fontRenderContext;
+		entry.wrapMargin = wrapMargin;
+		entry.tabWidth = tabWidth;
+
+		ChunkCache.Chunk[] chunks = new ChunkCache.Chunk[
+			chunkLists.size() - start];
+		for(int i = 0; i < chunks.length; i++)
+			chunks[i] = (ChunkCache.Chunk)chunkLists.get(start + i);
+		entry.chunks = new SoftReference(chunks);
+
+		while(lru != null && (count == size
+			|| chars + seg.count > maxChars))
+		{
+			remove(lru);
+		}
+
+		int bucket = hash & (buckets.length - 1);
+		entry.hashNext = buckets[bucket];
+		buckets[bucket] = entry;
+		linkFirst(entry);
+		count++;
+		chars += seg.count;
+	} //}}}
+
+	//{{{ clear() method
+	synchronized void clear()
+	{
+		for(int i = 0; i < buckets.length; i++)
+			buckets[i] = null;
+		mru = lru = null;
+		count = chars = 0;
+	} //}}}
+
+	//{{{ getStatistics() method
+	synchronized String getStatistics()
+	{
+		return "hits: " + hits + ", misses: " + misses
+			+ ", lines: " + count + ", characters: " + chars;
+	} //}}}
+
+	//{{{ Private members
+	private Entry[] buckets;
+	private int size;
+	private int maxChars;
+	private int count;
+	private int chars;
+
+	private int hits;
+	private int misses;
+
+	// most and least recently used entries
+	private Entry mru;
+	private Entry lru;
+
+	//{{{ hashCode() method
+	private static int hashCode(Segment seg, Token tokens)
+	{
+		int hash = 0;
+		char[] array = seg.array;
+		int end = seg.offset + seg.count;
+		for(int i = seg.offset; i < end; i++)
+			hash = hash * 31 + array[i];
+
+		for(Token t = tokens; t.id != Token.END; t = t.next)
+			hash = (hash * 31 + t.id) * 31 + t.length;
+
+		return hash;
+	} //}}}
+
+	//{{{ remove() method
+	private void remove(Entry entry)
+	{
+		int bucket = entry.hash & (buckets.length - 1);
+		Entry prev = null;
+		Entry e = buckets[bucket];
+		while(e != entry)
+		{
+			prev = e;
+			e = e.hashNext;
+		}
+
+		if(prev == null)
+			buckets[bucket] = entry.hashNext;
+		else
+			prev.hashNext = entry.hashNext;
+		entry.hashNext = null;
+
+		unlink(entry);
+		count--;
+		chars -= entry.text.length;
+	} //}}}
+
+	//{{{ linkFirst() method
+	private void linkFirst(Entry entry)
+	{
+		entry.prev = null;
+		entry.next = mru;
+		if(mru != null)
+			mru.prev = entry;
+		mru = entry;
+		if(lru == null)
+			lru = entry;
+	} //}}}
+
+	//{{{ unlink() method
+	private void unlink(Entry entry)
+	{
+		if(entry.prev == null)
+			mru = entry.next;
+		else
+			entry.prev.next = entry.next;
+
+		if(entry.next == null)
+			lru = entry.prev;
+		else
+			entry.next.prev = entry.prev;
+
+		entry.prev = entry.next = null;
+	} //}}}
+
+	//}}}
+
+	//{{{ Entry class
+	static class Entry
+	{
+		int hash;
+		char[] text;
+		byte[] tokenIds;
+		int[] tokenLengths;
+		SyntaxStyle[] styles;
+		FontRenderContext fontRenderContext;
+		float wrapMargin;
+		float tabWidth;
+		SoftReference chunks;
+
+		// next entry in the same hash bucket
+		Entry hashNext;
+
+		// LRU list
+		Entry prev;
+		Entry next;
+
+		//{{{ matches() method
+		boolean matches(Segment seg, Token tokens, SyntaxStyle[] styles,
+			FontRenderContext fontRenderContext, float wrapMargin,
+			float tabWidth)
+		{
+			if(this.styles != styles || this.wrapMargin != wrapMargin
+				|| this.tabWidth != tabWidth
+				|| text.length != seg.count
+				|| !this.fontRenderContext.equals(fontRenderContext))
+			{
+				return false;
+			}
+
+			char[] array = seg.array;
+			int offset = seg.offset;
+			for(int i = 0; i < text.length; i++)
+			{
+				if(text[i] != array[offset + i])
+					return false;
+			}
+
+			int i = 0;
+			for(Token t = tokens; t.id != Token.END; t = t.next)
+			{
+				if(i == tokenIds.length || tokenIds[i] != t.id
+					|| tokenLengths[i] != t.length)
+				{
+					return false;
+				}
+				i++;
+			}
+
+			return (i == tokenIds.length);
+		} //}}}
+	} //}}}
+}
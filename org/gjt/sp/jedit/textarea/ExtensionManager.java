@@ -46,6 +46,12 @@ class ExtensionManager
 		extensions.add(entry);
 	} //}}}
 
+	//{{{ getExtensionCount() method
+	int getExtensionCount()
+	{
+		return extensions.size();
+	} //}}}
+
 	//{{{ removeExtension() method
 	void removeExtension(TextAreaExtension ext)
 	{
@@ -112,11 +112,12 @@ public class FoldVisibilityManager
 		{
 			buffer.readLock();
 
-			for(int i = 0; i < buffer.getLineCount(); i++)
-			{
-				if(offsetMgr.isLineVisible(i,index))
-					return i;
-			}
+			if(getVirtualLineCount() == buffer.getLineCount())
+				return 0;
+
+			updateVisibleLineIndex();
+			if(visibleLineIndex.getTotal() != 0)
+				return visibleLineIndex.find(0);
 		}
 		finally
 		{
@@ -138,11 +139,13 @@ public class FoldVisibilityManager
 		{
 			buffer.readLock();
 
-			for(int i = buffer.getLineCount() - 1; i >= 0; i--)
-			{
-				if(offsetMgr.isLineVisible(i,index))
-					return i;
-			}
+			if(getVirtualLineCount() == buffer.getLineCount())
+				return buffer.getLineCount() - 1;
+
+			updateVisibleLineIndex();
+			int total = visibleLineIndex.getTotal();
+			if(total != 0)
+				return visibleLineIndex.find(total - 1);
 		}
 		finally
 		{
@@ -171,12 +174,15 @@ public class FoldVisibilityManager
 			if(line == buffer.getLineCount() - 1)
 				return -1;
 
-			for(int i = line + 1; i < buffer.getLineCount(); i++)
-			{
-				if(offsetMgr.isLineVisible(i,index))
-					return i;
-			}
-			return -1;
+			if(getVirtualLineCount() == buffer.getLineCount())
+				return line + 1;
+
+			updateVisibleLineIndex();
+			int virtualLine = visibleLineIndex.sumBefore(line + 1);
+			if(virtualLine == visibleLineIndex.getTotal())
+				return -1;
+			else
+				return visibleLineIndex.find(virtualLine);
 		}
 		finally
 		{
@@ -202,12 +208,15 @@ public class FoldVisibilityManager
 			if(line == 0)
 				return -1;
 
-			for(int i = line - 1; i >= 0; i--)
-			{
-				if(offsetMgr.isLineVisible(i,index))
-					return i;
-			}
-			return -1;
+			if(getVirtualLineCount() == buffer.getLineCount())
+				return line - 1;
+
+			updateVisibleLineIndex();
+			int virtualLine = visibleLineIndex.sumBefore(line);
+			if(virtualLine == 0)
+				return -1;
+			else
+				return visibleLineIndex.find(virtualLine - 1);
 		}
 		finally
 		{
@@ -239,97 +248,12 @@ public class FoldVisibilityManager
 			if(getVirtualLineCount() == buffer.getLineCount())
 				return line;
 
-			while(!offsetMgr.isLineVisible(line,index) && line > 0)
-				line--;
-
-			if(line == 0 && !offsetMgr.isLineVisible(line,index))
-			{
-				// inside the top narrow.
-				return 0;
-			}
-
-			if(lastPhysical == line)
-			{
-				if(lastVirtual < 0 || lastVirtual >= offsetMgr.getVirtualLineCount(index))
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"cached: " + lastVirtual);
-				}
-			}
-			else if(line > lastPhysical && lastPhysical != -1)
-			{
-				for(;;)
-				{
-					if(lastPhysical == line)
-						break;
+			updateVisibleLineIndex();
 
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-						lastVirtual++;
-
-					if(lastPhysical == buffer.getLineCount() - 1)
-						break;
-					else
-						lastPhysical++;
-				}
-
-				if(lastVirtual < 0 || lastVirtual >= offsetMgr.getVirtualLineCount(index))
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"fwd scan: " + lastVirtual);
-				}
-			}
-			else if(line < lastPhysical && lastPhysical - line > line)
-			{
-				for(;;)
-				{
-					if(lastPhysical == line)
-						break;
-
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-						lastVirtual--;
-
-					if(lastPhysical == 0)
-						break;
-					else
-						lastPhysical--;
-				}
-
-				if(lastVirtual < 0 || lastVirtual >= offsetMgr.getVirtualLineCount(index))
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"back scan: " + lastVirtual);
-				}
-			}
-			else
-			{
-				lastPhysical = 0;
-				// find first visible line
-				while(!offsetMgr.isLineVisible(lastPhysical,index))
-					lastPhysical++;
-
-				lastVirtual = 0;
-				for(;;)
-				{
-					if(lastPhysical == line)
-						break;
-
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-						lastVirtual++;
-
-					if(lastPhysical == buffer.getLineCount() - 1)
-						break;
-					else
-						lastPhysical++;
-				}
-
-				if(lastVirtual < 0 || lastVirtual >= offsetMgr.getVirtualLineCount(index))
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"zero scan: " + lastVirtual);
-				}
-			}
-
-			return lastVirtual;
+			// if the line is not visible, this is the virtual line
+			// of the previous visible line. if there is none, we
+			// are inside the top narrow
+			return Math.max(0,visibleLineIndex.sumBefore(line + 1) - 1);
 		}
 		finally
 		{
@@ -361,95 +285,104 @@ public class FoldVisibilityManager
 			if(getVirtualLineCount() == buffer.getLineCount())
 				return line;
 
-			if(lastVirtual == line)
-			{
-				if(lastPhysical < 0 || lastPhysical >= buffer.getLineCount())
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"cached: " + lastPhysical);
-				}
-			}
-			else if(line > lastVirtual && lastVirtual != -1)
-			{
-				for(;;)
-				{
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-					{
-						if(lastVirtual == line)
-							break;
-						else
-							lastVirtual++;
-					}
-
-					if(lastPhysical == buffer.getLineCount() - 1)
-						break;
-					else
-						lastPhysical++;
-				}
-
-				if(lastPhysical < 0 || lastPhysical >= buffer.getLineCount())
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"fwd scan: " + lastPhysical);
-				}
-			}
-			else if(line < lastVirtual && lastVirtual - line > line)
-			{
-				for(;;)
-				{
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-					{
-						if(lastVirtual == line)
-							break;
-						else
-							lastVirtual--;
-					}
+			updateVisibleLineIndex();
+			return visibleLineIndex.find(line);
+		}
+		finally
+		{
+			buffer.readUnlock();
+		}
+	} //}}}
 
-					if(lastPhysical == 0)
-						break;
-					else
-						lastPhysical--;
-				}
+	//{{{ getScreenLineCount() method
+	/**
+	 * Returns the number of screen lines the specified line is split
+	 * into by soft wrap, or 0 if it is not known yet. Screen line counts
+	 * are stored in the buffer, and are shared by all text areas with
+	 * the same wrap margin and font.
+	 * @param line A physical line index
+	 * @since jEdit 4.1pre1
+	 */
+	public int getScreenLineCount(int line)
+	{
+		if(line < 0 || line >= offsetMgr.getLineCount())
+			throw new ArrayIndexOutOfBoundsException(line);
 
-				if(lastPhysical < 0 || lastPhysical >= buffer.getLineCount())
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"back scan: " + lastPhysical);
-				}
-			}
-			else
-			{
+		try
+		{
+			buffer.readLock();
+			return offsetMgr.getScreenLineCount(line);
+		}
+		finally
+		{
+			buffer.readUnlock();
+		}
+	} //}}}
 
-				lastPhysical = 0;
-				// find first visible line
-				while(!offsetMgr.isLineVisible(lastPhysical,index))
-					lastPhysical++;
+	//{{{ getTotalScreenLineCount() method
+	/**
+	 * Returns the number of screen lines taken up by all visible lines.
+	 * Lines whose screen line count is not known yet are counted as one
+	 * screen line.
+	 * @since jEdit 4.1pre1
+	 */
+	public int getTotalScreenLineCount()
+	{
+		try
+		{
+			buffer.readLock();
+			updateScreenLineIndex();
+			return screenLineIndex.getTotal();
+		}
+		finally
+		{
+			buffer.readUnlock();
+		}
+	} //}}}
 
-				lastVirtual = 0;
-				for(;;)
-				{
-					if(offsetMgr.isLineVisible(lastPhysical,index))
-					{
-						if(lastVirtual == line)
-							break;
-						else
-							lastVirtual++;
-					}
+	//{{{ physicalToScreen() method
+	/**
+	 * Returns the screen line where the specified physical line starts,
+	 * counting from the start of the buffer. If the line is not visible,
+	 * returns the screen line where the next visible line starts.
+	 * @param line A physical line index
+	 * @since jEdit 4.1pre1
+	 */
+	public int physicalToScreen(int line)
+	{
+		if(line < 0 || line >= offsetMgr.getLineCount())
+			throw new ArrayIndexOutOfBoundsException(line);
 
-					if(lastPhysical == buffer.getLineCount() - 1)
-						break;
-					else
-						lastPhysical++;
-				}
+		try
+		{
+			buffer.readLock();
+			updateScreenLineIndex();
+			return screenLineIndex.sumBefore(line);
+		}
+		finally
+		{
+			buffer.readUnlock();
+		}
+	} //}}}
 
-				if(lastPhysical < 0 || lastPhysical >= buffer.getLineCount())
-				{
-					throw new ArrayIndexOutOfBoundsException(
-						"zero scan: " + lastPhysical);
-				}
-			}
+	//{{{ screenToPhysical() method
+	/**
+	 * Returns the visible physical line containing the specified screen
+	 * line, counting from the start of the buffer. Screen lines past the
+	 * end of the buffer are treated as being in the last visible line.
+	 * @param screenLine A screen line index
+	 * @since jEdit 4.1pre1
+	 */
+	public int screenToPhysical(int screenLine)
+	{
+		try
+		{
+			buffer.readLock();
+			updateScreenLineIndex();
 
-			return lastPhysical;
+			screenLine = Math.max(0,Math.min(screenLine,
+				screenLineIndex.getTotal() - 1));
+			return screenLineIndex.find(screenLine);
 		}
 		finally
 		{
@@ -538,7 +471,7 @@ public class FoldVisibilityManager
 			for(int i = start; i <= end; i++)
 			{
 				if(offsetMgr.isLineVisible(i,index))
-					offsetMgr.setLineVisible(i,index,false);
+					setLineVisible(i,false);
 				else
 					delta--;
 			}
@@ -665,13 +598,13 @@ public class FoldVisibilityManager
 					if(!offsetMgr.isLineVisible(i,index) && fully)
 					{
 						delta++;
-						offsetMgr.setLineVisible(i,index,true);
+						setLineVisible(i,true);
 					}
 				}
 				else if(!offsetMgr.isLineVisible(i,index))
 				{
 					delta++;
-					offsetMgr.setLineVisible(i,index,true);
+					setLineVisible(i,true);
 				}
 			}
 
@@ -723,9 +656,10 @@ public class FoldVisibilityManager
 				return;
 
 			offsetMgr.setVirtualLineCount(index,buffer.getLineCount());
+			invalidateIndexes();
 			for(int i = 0; i < buffer.getLineCount(); i++)
 			{
-				offsetMgr.setLineVisible(i,index,true);
+				setLineVisible(i,true);
 			}
 			foldStructureChanged();
 		}
@@ -772,6 +706,10 @@ public class FoldVisibilityManager
 			int newVirtualLineCount = 0;
 			foldLevel = (foldLevel - 1) * buffer.getIndentSize() + 1;
 
+			// faster to rebuild the indexes than to update them
+			// line by line
+			invalidateIndexes();
+
 			/* this ensures that the first line is always visible */
 			boolean seenVisibleLine = false;
 
@@ -780,11 +718,11 @@ public class FoldVisibilityManager
 				if(!seenVisibleLine || buffer.getFoldLevel(i) < foldLevel)
 				{
 					seenVisibleLine = true;
-					offsetMgr.setLineVisible(i,index,true);
+					setLineVisible(i,true);
 					newVirtualLineCount++;
 				}
 				else
-					offsetMgr.setLineVisible(i,index,false);
+					setLineVisible(i,false);
 			}
 
 			offsetMgr.setVirtualLineCount(index,newVirtualLineCount);
@@ -810,35 +748,46 @@ public class FoldVisibilityManager
 		if(start > end || start < 0 || end >= offsetMgr.getLineCount())
 			throw new ArrayIndexOutOfBoundsException(start + ", " + end);
 
-		// ideally, this should somehow be rolled into the below loop.
-		if(start != offsetMgr.getLineCount() - 1
-			&& !offsetMgr.isLineVisible(start + 1,index))
-			expandFold(start,false);
-
-		int virtualLineCount = offsetMgr.getVirtualLineCount(index);
-		for(int i = 0; i < start; i++)
+		try
 		{
-			if(offsetMgr.isLineVisible(i,index))
+			// the line info is also updated by other threads,
+			// such as the layout prefetcher
+			buffer.writeLock();
+
+			// ideally, this should somehow be rolled into the below loop.
+			if(start != offsetMgr.getLineCount() - 1
+				&& !offsetMgr.isLineVisible(start + 1,index))
+				expandFold(start,false);
+
+			int virtualLineCount = offsetMgr.getVirtualLineCount(index);
+			for(int i = 0; i < start; i++)
 			{
-				virtualLineCount--;
-				offsetMgr.setLineVisible(i,index,false);
+				if(offsetMgr.isLineVisible(i,index))
+				{
+					virtualLineCount--;
+					setLineVisible(i,false);
+				}
 			}
-		}
 
-		for(int i = end + 1; i < buffer.getLineCount(); i++)
-		{
-			if(offsetMgr.isLineVisible(i,index))
+			for(int i = end + 1; i < buffer.getLineCount(); i++)
 			{
-				virtualLineCount--;
-				offsetMgr.setLineVisible(i,index,false);
+				if(offsetMgr.isLineVisible(i,index))
+				{
+					virtualLineCount--;
+					setLineVisible(i,false);
+				}
 			}
-		}
 
-		offsetMgr.setVirtualLineCount(index,virtualLineCount);
+			offsetMgr.setVirtualLineCount(index,virtualLineCount);
 
-		narrowed = true;
+			narrowed = true;
 
-		foldStructureChanged();
+			foldStructureChanged();
+		}
+		finally
+		{
+			buffer.writeUnlock();
+		}
 
 		// Hack... need a more direct way of obtaining a view?
 		// JEditTextArea.getView() method?
@@ -856,7 +805,7 @@ public class FoldVisibilityManager
 	public final void _grab(int index)
 	{
 		this.index = index;
-		lastPhysical = lastVirtual = -1;
+		invalidateIndexes();
 	} //}}}
 
 	//{{{ _release() method
@@ -879,6 +828,23 @@ public class FoldVisibilityManager
 		return index;
 	} //}}}
 
+	//{{{ _screenLineCountChanged() method
+	/**
+	 * Do not call this method. The only reason it is public is so
+	 * that the <code>Buffer</code> class can call it.
+	 * @since jEdit 4.1pre1
+	 */
+	public void _screenLineCountChanged(int line)
+	{
+		if(screenLineIndexValid
+			&& screenLineIndexVersion == offsetMgr.getStructureVersion()
+			&& offsetMgr.isLineVisible(line,index))
+		{
+			screenLineIndex.set(line,Math.max(1,
+				offsetMgr.getScreenLineCount(line)));
+		}
+	} //}}}
+
 	//{{{ _invalidate() method
 	/**
 	 * Do not call this method. The only reason it is public is so
@@ -886,8 +852,126 @@ public class FoldVisibilityManager
 	 */
 	public void _invalidate(int startLine)
 	{
-		if(lastPhysical >= startLine)
-			lastPhysical = lastVirtual = -1;
+		// the indexes are rebuilt when the offset manager's
+		// structure version changes, nothing to do here
+	} //}}}
+
+	//{{{ _linesInserted() method
+	/**
+	 * Do not call this method. The only reason it is public is so
+	 * that the <code>Buffer</code> class can call it.
+	 * @since jEdit 4.1pre1
+	 */
+	public void _linesInserted(int startLine, int numLines)
+	{
+		// the offset manager has changed the structure version
+		// once for this insert; if the indexes were up to date
+		// before it, they can be updated instead of rebuilt
+		int version = offsetMgr.getStructureVersion();
+
+		if(visibleLineIndexValid && visibleLineIndexVersion == version - 1)
+		{
+			visibleLineIndex.insert(startLine + 1,numLines);
+			visibleLineIndexVersion = version;
+		}
+
+		if(screenLineIndexValid && screenLineIndexVersion == version - 1)
+		{
+			screenLineIndex.insert(startLine + 1,numLines);
+			screenLineIndexVersion = version;
+		}
+
+		updateIndexes(startLine,startLine + numLines);
+	} //}}}
+
+	//{{{ _linesRemoved() method
+	/**
+	 * Do not call this method. The only reason it is public is so
+	 * that the <code>Buffer</code> class can call it.
+	 * @since jEdit 4.1pre1
+	 */
+	public void _linesRemoved(int startLine, int numLines)
+	{
+		// see above
+		int version = offsetMgr.getStructureVersion();
+
+		if(visibleLineIndexValid && visibleLineIndexVersion == version - 1)
+		{
+			visibleLineIndex.remove(startLine + 1,numLines);
+			visibleLineIndexVersion = version;
+		}
+
+		if(screenLineIndexValid && screenLineIndexVersion == version - 1)
+		{
+			screenLineIndex.remove(startLine + 1,numLines);
+			screenLineIndexVersion = version;
+		}
+
+		updateIndexes(startLine,startLine);
+	} //}}}
+
+	//}}}
+
+	//{{{ Methods for JEditTextArea class to call
+
+	//{{{ isScreenLineCountKey() method
+	/**
+	 * Returns if the screen line counts stored in the buffer are being
+	 * computed with the wrap margin and font described by the key.
+	 */
+	boolean isScreenLineCountKey(Object key)
+	{
+		// no need to lock, reading a reference is atomic
+		return key.equals(offsetMgr.getScreenLineCountKey());
+	} //}}}
+
+	//{{{ setScreenLineCountKey() method
+	/**
+	 * Discards all screen line counts stored in the buffer, unless they
+	 * are being computed with the wrap margin and font described by the
+	 * key, so that they can be computed again with this text area's
+	 * settings. Returns true if the counts were discarded.
+	 */
+	boolean setScreenLineCountKey(Object key)
+	{
+		try
+		{
+			buffer.writeLock();
+
+			if(key.equals(offsetMgr.getScreenLineCountKey()))
+				return false;
+
+			offsetMgr.invalidateScreenLineCounts(key);
+			return true;
+		}
+		finally
+		{
+			buffer.writeUnlock();
+		}
+	} //}}}
+
+	//{{{ setScreenLineCount() method
+	/**
+	 * Stores the number of screen lines a line is split into, if the
+	 * screen line counts in the buffer were computed with the wrap
+	 * margin and font described by the key. Returns true if the count
+	 * changed.
+	 */
+	boolean setScreenLineCount(int line, int count, Object key)
+	{
+		try
+		{
+			buffer.writeLock();
+
+			if(!key.equals(offsetMgr.getScreenLineCountKey()))
+				return false;
+
+			return buffer._setScreenLineCount(line,count);
+		}
+		finally
+		{
+			buffer.writeUnlock();
+		}
 	} //}}}
 
 	//}}}
@@ -900,7 +984,6 @@ public class FoldVisibilityManager
 	 */
 	public void foldStructureChanged()
 	{
-		lastPhysical = lastVirtual = -1;
 		textArea.foldStructureChanged();
 	} //}}}
 
@@ -911,10 +994,123 @@ public class FoldVisibilityManager
 	private OffsetManager offsetMgr;
 	private JEditTextArea textArea;
 	private int index;
-	private int lastPhysical;
-	private int lastVirtual;
 	private boolean narrowed;
+
+	private PrefixSumIndex visibleLineIndex = new PrefixSumIndex();
+	private boolean visibleLineIndexValid;
+	private int visibleLineIndexVersion;
+
+	private PrefixSumIndex screenLineIndex = new PrefixSumIndex();
+	private boolean screenLineIndexValid;
+	private int screenLineIndexVersion;
 	//}}}
 
+	//{{{ updateVisibleLineIndex() method
+	/**
+	 * Rebuilds the visible line index if it is out of date. Lines
+	 * inserted or removed while it was up to date are applied to it as
+	 * they happen, so this only does work after bulk changes. Must be
+	 * called with the buffer locked.
+	 */
+	private void updateVisibleLineIndex()
+	{
+		int version = offsetMgr.getStructureVersion();
+		if(visibleLineIndexValid && visibleLineIndexVersion == version)
+			return;
+
+		int lineCount = offsetMgr.getLineCount();
+		visibleLineIndex.reset(lineCount);
+		for(int i = 0; i < lineCount; i++)
+		{
+			if(offsetMgr.isLineVisible(i,index))
+				visibleLineIndex.init(i,1);
+		}
+		visibleLineIndex.build();
+
+		visibleLineIndexValid = true;
+		visibleLineIndexVersion = version;
+	} //}}}
+
+	//{{{ setLineVisible() method
+	/**
+	 * Shows or hides a line, keeping the indexes up to date. Must be
+	 * called with the buffer write locked.
+	 */
+	private void setLineVisible(int line, boolean visible)
+	{
+		offsetMgr.setLineVisible(line,index,visible);
+
+		int version = offsetMgr.getStructureVersion();
+		if(visibleLineIndexValid && visibleLineIndexVersion == version)
+			visibleLineIndex.set(line,visible ? 1 : 0);
+		if(screenLineIndexValid && screenLineIndexVersion == version)
+		{
+			screenLineIndex.set(line,visible ? Math.max(1,
+				offsetMgr.getScreenLineCount(line)) : 0);
+		}
+	} //}}}
+
+	//{{{ invalidateIndexes() method
+	private void invalidateIndexes()
+	{
+		visibleLineIndexValid = false;
+		screenLineIndexValid = false;
+	} //}}}
+
+	//{{{ updateIndexes() method
+	/**
+	 * Sets the values of a range of lines in the indexes that are up to
+	 * date, after lines were inserted or removed. Must be called with
+	 * the buffer write locked.
+	 */
+	private void updateIndexes(int startLine, int endLine)
+	{
+		int version = offsetMgr.getStructureVersion();
+		boolean visibleValid = (visibleLineIndexValid
+			&& visibleLineIndexVersion == version);
+		boolean screenValid = (screenLineIndexValid
+			&& screenLineIndexVersion == version);
+
+		for(int i = startLine; i <= endLine; i++)
+		{
+			boolean visible = offsetMgr.isLineVisible(i,index);
+			if(visibleValid)
+				visibleLineIndex.set(i,visible ? 1 : 0);
+			if(screenValid)
+			{
+				screenLineIndex.set(i,visible ? Math.max(1,
+					offsetMgr.getScreenLineCount(i)) : 0);
+			}
+		}
+	} //}}}
+
+	//{{{ updateScreenLineIndex() method
+	/**
+	 * Rebuilds the screen line index if it is out of date, for example
+	 * after the screen line counts were discarded. Must be called with
+	 * the buffer locked.
+	 */
+	private void updateScreenLineIndex()
+	{
+		int version = offsetMgr.getStructureVersion();
+		if(screenLineIndexValid && screenLineIndexVersion == version)
+			return;
+
+		int lineCount = offsetMgr.getLineCount();
+		screenLineIndex.reset(lineCount);
+		for(int i = 0; i < lineCount; i++)
+		{
+			if(offsetMgr.isLineVisible(i,index))
+			{
+				screenLineIndex.init(i,Math.max(1,
+					offsetMgr.getScreenLineCount(i)));
+			}
+		}
+		screenLineIndex.build();
+
+		screenLineIndexValid = true;
+		screenLineIndexVersion = version;
+	} //}}}
+
 	//}}}
 }
@@ -94,201 +94,76 @@ public class Gutter extends JComponent implements SwingConstants
 	//{{{ paintComponent() method
 	public void paintComponent(Graphics _gfx)
 	{
-		Graphics2D gfx = (Graphics2D)_gfx;
-
-		// fill the background
-		Rectangle clip = gfx.getClipBounds();
-		gfx.setColor(getBackground());
-		gfx.fillRect(clip.x, clip.y, clip.width, clip.height);
-
-		// if buffer is loading, don't paint anything
-		if (!textArea.getBuffer().isLoaded())
+		// the gutter scrolls along with the text, so it keeps an
+		// off-screen image if the painter does
+		if(!textArea.getPainter().isScrollBlittingEnabled())
+		{
+			backBuffer = null;
+			damage = null;
+			paintGutter((Graphics2D)_gfx,false);
 			return;
+		}
 
-		// paint highlights and line numbers
-		int lineHeight = textArea.getPainter().getFontMetrics()
-			.getHeight();
-
-		int firstLine = clip.y / lineHeight;
-		int lastLine = (clip.y + clip.height - 1) / lineHeight;
-
-		FontMetrics pfm = textArea.getPainter().getFontMetrics();
-		Color fg = getForeground();
-
-		int baseline = (int)((this.baseline + lineHeight
-			- pfm.getDescent()) / 2.0);
-
-		boolean highlightCurrentLine = currentLineHighlightEnabled
-			&& textArea.selection.size() == 0;
-
-		int y = (clip.y - clip.y % lineHeight);
-
-		Buffer buffer = textArea.getBuffer();
-		textArea.chunkCache.updateChunksUpTo(lastLine);
+		int width = getWidth();
+		int height = getHeight();
+		if(width <= 0 || height <= 0)
+			return;
 
-		for (int line = firstLine; line <= lastLine;
-			line++, y += lineHeight)
+		if(backBuffer == null || backBuffer.getWidth(null) != width
+			|| backBuffer.getHeight(null) != height)
 		{
-			ChunkCache.LineInfo info = textArea.chunkCache.getLineInfo(line);
-			if(!info.chunksValid)
-				System.err.println("gutter paint: not valid");
-			int physicalLine = info.physicalLine;
-
-			//{{{ Paint text area extensions
-			if(physicalLine != -1)
+			backBuffer = createImage(width,height);
+			if(backBuffer == null)
 			{
-				int start = textArea.getScreenLineStartOffset(line);
-				int end = textArea.getScreenLineEndOffset(line);
-
-				extensionMgr.paintValidLine(gfx,line,physicalLine,start,end,y);
-			}
-			else
-				extensionMgr.paintInvalidLine(gfx,line,y);
-			//}}}
-
-			// Skip lines beyond EOF
-			if(physicalLine == -1)
+				paintGutter((Graphics2D)_gfx,false);
 				return;
+			}
+			damage = new Rectangle(0,0,width,height);
+			invalidateRows();
+		}
 
-			//{{{ Paint fold triangles
-			if(info.firstSubregion
-				&& physicalLine != buffer.getLineCount() - 1
-				&& buffer.isFoldStart(physicalLine))
-			{
-				int _y = y + lineHeight / 2;
-				gfx.setColor(foldColor);
-				if(textArea.getFoldVisibilityManager()
-					.isLineVisible(physicalLine + 1))
-				{
-					gfx.drawLine(1,_y - 3,10,_y - 3);
-					gfx.drawLine(2,_y - 2,9,_y - 2);
-					gfx.drawLine(3,_y - 1,8,_y - 1);
-					gfx.drawLine(4,_y,7,_y);
-					gfx.drawLine(5,_y + 1,6,_y + 1);
-				}
-				else
-				{
-					gfx.drawLine(4,_y - 5,4,_y + 4);
-					gfx.drawLine(5,_y - 4,5,_y + 3);
-					gfx.drawLine(6,_y - 3,6,_y + 2);
-					gfx.drawLine(7,_y - 2,7,_y + 1);
-					gfx.drawLine(8,_y - 1,8,_y);
-				}
-			} //}}}
-			//{{{ Paint bracket scope
-			else if(bracketHighlight)
-			{
-				int bracketLine = textArea.getBracketLine();
-				int caretLine = textArea.getCaretLine();
-
-				if(textArea.isBracketHighlightVisible()
-					&& physicalLine >= Math.min(caretLine,bracketLine)
-					&& physicalLine <= Math.max(caretLine,bracketLine))
-				{
-					int caretScreenLine;
-					if(caretLine > textArea.getLastPhysicalLine())
-						caretScreenLine = Integer.MAX_VALUE;
-					else
-					{
-						caretScreenLine = textArea
-							.getScreenLineOfOffset(
-							textArea.getCaretPosition());
-					}
-
-					int bracketScreenLine;
-					if(bracketLine > textArea.getLastPhysicalLine())
-						bracketScreenLine = Integer.MAX_VALUE;
-					else
-					{
-						bracketScreenLine = textArea.chunkCache
-							.getScreenLineOfOffset(
-							bracketLine,
-							textArea.getBracketPosition());
-					}
-
-					if(caretScreenLine > bracketScreenLine)
-					{
-						int tmp = caretScreenLine;
-						caretScreenLine = bracketScreenLine;
-						bracketScreenLine = tmp;
-					}
-
-					gfx.setColor(bracketHighlightColor);
-					if(bracketScreenLine == caretScreenLine)
-					{
-						// do nothing
-					}
-					else if(line == caretScreenLine)
-					{
-						gfx.fillRect(5,
-							y
-							+ lineHeight / 2,
-							5,
-							2);
-						gfx.fillRect(5,
-							y
-							+ lineHeight / 2,
-							2,
-							lineHeight - lineHeight / 2);
-					}
-					else if(line == bracketScreenLine)
-					{
-						gfx.fillRect(5,
-							y,
-							2,
-							lineHeight / 2);
-						gfx.fillRect(5,
-							y + lineHeight / 2,
-							5,
-							2);
-					}
-					else if(line > caretScreenLine
-						&& line < bracketScreenLine)
-					{
-						gfx.fillRect(5,
-							y,
-							2,
-							lineHeight);
-					}
-				}
-			} //}}}
-
-			//{{{ Paint line numbers
-			if(info.firstSubregion && expanded)
+		if(damage != null)
+		{
+			// only whole screen lines are painted, so that the row
+			// states describe what is in the image
+			int lineHeight = textArea.getPainter().getFontMetrics()
+				.getHeight();
+			int y1 = damage.y - damage.y % lineHeight;
+			int y2 = damage.y + damage.height;
+			y2 += (lineHeight - y2 % lineHeight) % lineHeight;
+			Rectangle rect = new Rectangle(0,y1,width,y2 - y1)
+				.intersection(new Rectangle(0,0,width,height));
+			damage = null;
+
+			if(!rect.isEmpty())
 			{
-				String number = Integer.toString(physicalLine + 1);
-
-				int offset;
-				switch (alignment)
-				{
-				case RIGHT:
-					offset = gutterSize.width - collapsedSize.width
-						- (fm.stringWidth(number) + 1);
-					break;
-				case CENTER:
-					offset = ((gutterSize.width - collapsedSize.width)
-						- fm.stringWidth(number)) / 2;
-					break;
-				case LEFT: default:
-					offset = 0;
-					break;
-				}
+				Graphics2D gfx = (Graphics2D)backBuffer.getGraphics();
+				gfx.clipRect(rect.x,rect.y,rect.width,rect.height);
+				paintGutter(gfx,true);
+				gfx.dispose();
+			}
+		}
 
-				if (physicalLine == textArea.getCaretLine() && highlightCurrentLine)
-				{
-					gfx.setColor(currentLineHighlight);
-				}
-				else if (interval > 1 && (line
-					+ textArea.getFirstLine() + 1)
-					% interval == 0)
-					gfx.setColor(intervalHighlight);
-				else
-					gfx.setColor(fg);
+		_gfx.drawImage(backBuffer,0,0,null);
+	} //}}}
 
-				gfx.drawString(number, FOLD_MARKER_SIZE + offset,
-					baseline + y);
-			} //}}}
+	//{{{ repaint() method
+	/**
+	 * Marks the specified area as needing a repaint. This is overridden
+	 * to record which parts of the off-screen image are out of date.
+	 */
+	public void repaint(long tm, int x, int y, int width, int height)
+	{
+		if(backBuffer != null)
+		{
+			Rectangle rect = new Rectangle(x,y,width,height);
+			if(damage == null)
+				damage = rect;
+			else
+				damage = damage.union(rect);
 		}
+
+		super.repaint(tm,x,y,width,height);
 	} //}}}
 
 	//{{{ addCustomHighlight() method
@@ -434,6 +309,7 @@ public class Gutter extends JComponent implements SwingConstants
 				+ fm.stringWidth("12345");
 		}
 
+		invalidateRows();
 		revalidate();
 	} //}}}
 
@@ -451,6 +327,8 @@ public class Gutter extends JComponent implements SwingConstants
 
 		baseline = fm.getAscent();
 
+		invalidateRows();
+
 		Border border = getBorder();
 		if(border != null)
 		{
@@ -477,6 +355,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public void setHighlightedForeground(Color highlight)
 	{
 		intervalHighlight = highlight;
+		invalidateRows();
 	} //}}}
 
 	//{{{ getCurrentLineForeground() method
@@ -489,6 +368,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public void setCurrentLineForeground(Color highlight)
 	{
 		currentLineHighlight = highlight;
+		invalidateRows();
  	} //}}}
 
 	//{{{ getFoldColor() method
@@ -501,6 +381,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public void setFoldColor(Color foldColor)
 	{
 		this.foldColor = foldColor;
+		invalidateRows();
  	} //}}}
 
 	//{{{ getPreferredSize() method
@@ -543,6 +424,7 @@ public class Gutter extends JComponent implements SwingConstants
 
 		this.alignment = alignment;
 
+		invalidateRows();
 		repaint();
 	} //}}}
 
@@ -569,6 +451,7 @@ public class Gutter extends JComponent implements SwingConstants
 
 		this.expanded = expanded;
 
+		invalidateRows();
 		textArea.revalidate();
 	} //}}}
 
@@ -602,6 +485,7 @@ public class Gutter extends JComponent implements SwingConstants
 	{
 		if (interval <= 1) interval = 0;
 		this.interval = interval;
+		invalidateRows();
 		repaint();
 	} //}}}
 
@@ -618,6 +502,7 @@ public class Gutter extends JComponent implements SwingConstants
 
 		currentLineHighlightEnabled = enabled;
 
+		invalidateRows();
 		repaint();
 	} //}}}
 
@@ -639,6 +524,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public final void setBracketHighlightColor(Color bracketHighlightColor)
 	{
 		this.bracketHighlightColor = bracketHighlightColor;
+		invalidateRows();
 		repaint();
 	} //}}}
 
@@ -666,6 +552,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public final void setBracketHighlightEnabled(boolean bracketHighlight)
 	{
 		this.bracketHighlight = bracketHighlight;
+		invalidateRows();
 		repaint();
 	} //}}}
 
@@ -679,6 +566,7 @@ public class Gutter extends JComponent implements SwingConstants
 	public void setMarkerHighlightColor(Color markerHighlightColor)
 	{
 		this.markerHighlightColor = markerHighlightColor;
+		invalidateRows();
 	} //}}}
 
 	//{{{ isMarkerHighlightEnabled() method
@@ -691,6 +579,88 @@ public class Gutter extends JComponent implements SwingConstants
 	public void setMarkerHighlightEnabled(boolean markerHighlight)
 	{
 		this.markerHighlight = markerHighlight;
+		invalidateRows();
+	} //}}}
+
+	//}}}
+
+	//{{{ Package-private members
+
+	//{{{ scrollRepaint() method
+	/**
+	 * Moves the part of the gutter that is already painted by the
+	 * specified amount, and marks the area that was scrolled into view
+	 * as needing a repaint. Returns false, without doing anything, if
+	 * there is no off-screen image to copy from; the caller must then
+	 * repaint everything.
+	 * @param dy The vertical distance, in pixels
+	 */
+	boolean scrollRepaint(int dy)
+	{
+		int width = getWidth();
+		int height = getHeight();
+
+		if(backBuffer == null || dy == 0 || Math.abs(dy) >= height
+			|| backBuffer.getWidth(null) != width
+			|| backBuffer.getHeight(null) != height)
+		{
+			return false;
+		}
+
+		Graphics gfx = backBuffer.getGraphics();
+		gfx.copyArea(0,Math.max(0,-dy),width,height - Math.abs(dy),
+			0,dy);
+		gfx.dispose();
+
+		if(damage != null)
+		{
+			Rectangle moved = new Rectangle(damage);
+			moved.translate(0,dy);
+			damage = damage.union(moved);
+		}
+
+		// the rows move along with the image; rows that were only
+		// partly visible before must be painted again
+		int lineHeight = textArea.getPainter().getFontMetrics()
+			.getHeight();
+		if(rowLines == null || dy % lineHeight != 0
+			|| Math.abs(dy / lineHeight) >= rowLines.length)
+			invalidateRows();
+		else
+		{
+			int rows = dy / lineHeight;
+			int count = rowLines.length - Math.abs(rows);
+			System.arraycopy(rowLines,Math.max(0,-rows),rowLines,
+				Math.max(0,rows),count);
+			System.arraycopy(rowStates,Math.max(0,-rows),rowStates,
+				Math.max(0,rows),count);
+
+			int firstExposed, lastExposed;
+			if(rows > 0)
+			{
+				firstExposed = 0;
+				lastExposed = rows;
+			}
+			else
+			{
+				firstExposed = Math.min(rowLines.length,
+					(height + dy) / lineHeight);
+				lastExposed = rowLines.length;
+			}
+
+			for(int i = firstExposed; i < lastExposed; i++)
+				rowLines[i] = -1;
+		}
+
+		if(dy > 0)
+			repaint(0,0,width,dy);
+		else
+			repaint(0,height + dy,width,-dy);
+
+		// the whole image must be copied to the screen
+		super.repaint(0L,0,0,width,height);
+
+		return true;
 	} //}}}
 
 	//}}}
@@ -698,6 +668,17 @@ public class Gutter extends JComponent implements SwingConstants
 	//{{{ Private members
 	private static final int FOLD_MARKER_SIZE = 12;
 
+	// row states
+	private static final int FIRST_SUBREGION = 1;
+	private static final int FOLD_EXPANDED = 2;
+	private static final int FOLD_COLLAPSED = 4;
+	private static final int SCOPE_START = 8;
+	private static final int SCOPE_END = 16;
+	private static final int SCOPE_MIDDLE = 32;
+	private static final int NUMBER_CURRENT = 64;
+	private static final int NUMBER_INTERVAL = 128;
+	private static final int MARKER = 256;
+
 	private View view;
 	private JEditTextArea textArea;
 
@@ -728,6 +709,322 @@ public class Gutter extends JComponent implements SwingConstants
 
 	private int borderWidth;
 	private Border focusBorder, noFocusBorder;
+
+	// off-screen copy of the gutter, and the part of it that is out
+	// of date
+	private Image backBuffer;
+	private Rectangle damage;
+
+	// the physical line and state of each screen line, as last
+	// painted into the off-screen image. A physical line of -1 means
+	// the screen line must be painted again
+	private int[] rowLines;
+	private int[] rowStates;
+	private FontMetrics rowFontMetrics;
+	private Color rowForeground;
+	private Color rowBackground;
+
+	//{{{ invalidateRows() method
+	/**
+	 * Forgets how screen lines were painted, so that they are all
+	 * painted again by the next repaint.
+	 */
+	private void invalidateRows()
+	{
+		rowLines = rowStates = null;
+	} //}}}
+
+	//{{{ paintGutter() method
+	/**
+	 * Paints the screen lines within the clip. If <code>cached</code>
+	 * is true, the graphics context draws into the off-screen image,
+	 * and screen lines that would look the same as when they were last
+	 * painted there are skipped.
+	 */
+	private void paintGutter(Graphics2D gfx, boolean cached)
+	{
+		Rectangle clip = gfx.getClipBounds();
+
+		// if buffer is loading, don't paint anything
+		Buffer buffer = textArea.getBuffer();
+		if (!buffer.isLoaded())
+		{
+			gfx.setColor(getBackground());
+			gfx.fillRect(clip.x, clip.y, clip.width, clip.height);
+			invalidateRows();
+			return;
+		}
+
+		// paint highlights and line numbers
+		int lineHeight = textArea.getPainter().getFontMetrics()
+			.getHeight();
+
+		int firstLine = clip.y / lineHeight;
+		int lastLine = (clip.y + clip.height - 1) / lineHeight;
+
+		FontMetrics pfm = textArea.getPainter().getFontMetrics();
+		Color fg = getForeground();
+		Color bg = getBackground();
+
+		int baseline = (int)((this.baseline + lineHeight
+			- pfm.getDescent()) / 2.0);
+
+		boolean highlightCurrentLine = currentLineHighlightEnabled
+			&& textArea.selection.size() == 0;
+
+		// plugins can add extensions that paint anything, so rows
+		// can only be skipped if the marker highlight is the only one
+		boolean skipUnchanged = cached
+			&& extensionMgr.getExtensionCount() == 1;
+
+		if(cached)
+		{
+			if(rowFontMetrics != pfm || rowForeground != fg
+				|| rowBackground != bg)
+			{
+				invalidateRows();
+				rowFontMetrics = pfm;
+				rowForeground = fg;
+				rowBackground = bg;
+			}
+
+			if(rowLines == null || rowLines.length <= lastLine)
+			{
+				int[] newRowLines = new int[lastLine + 1];
+				int[] newRowStates = new int[lastLine + 1];
+				for(int i = 0; i < newRowLines.length; i++)
+				{
+					if(rowLines != null && i < rowLines.length)
+					{
+						newRowLines[i] = rowLines[i];
+						newRowStates[i] = rowStates[i];
+					}
+					else
+						newRowLines[i] = -1;
+				}
+				rowLines = newRowLines;
+				rowStates = newRowStates;
+			}
+		}
+
+		//{{{ Find bracket scope
+		int caretScreenLine = -1;
+		int bracketScreenLine = -1;
+		int caretLine = textArea.getCaretLine();
+		int bracketLine = textArea.getBracketLine();
+
+		if(bracketHighlight && textArea.isBracketHighlightVisible())
+		{
+			if(caretLine > textArea.getLastPhysicalLine())
+				caretScreenLine = Integer.MAX_VALUE;
+			else
+			{
+				caretScreenLine = textArea
+					.getScreenLineOfOffset(
+					textArea.getCaretPosition());
+			}
+
+			if(bracketLine > textArea.getLastPhysicalLine())
+				bracketScreenLine = Integer.MAX_VALUE;
+			else
+			{
+				bracketScreenLine = textArea.chunkCache
+					.getScreenLineOfOffset(
+					bracketLine,
+					textArea.getBracketPosition());
+			}
+
+			if(caretScreenLine > bracketScreenLine)
+			{
+				int tmp = caretScreenLine;
+				caretScreenLine = bracketScreenLine;
+				bracketScreenLine = tmp;
+			}
+		} //}}}
+
+		int y = (clip.y - clip.y % lineHeight);
+
+		textArea.chunkCache.updateChunksUpTo(lastLine);
+
+		for (int line = firstLine; line <= lastLine;
+			line++, y += lineHeight)
+		{
+			ChunkCache.LineInfo info = textArea.chunkCache.getLineInfo(line);
+			if(!info.chunksValid)
+				System.err.println("gutter paint: not valid");
+			int physicalLine = info.physicalLine;
+
+			// Skip lines beyond EOF
+			if(physicalLine == -1)
+			{
+				gfx.setColor(bg);
+				gfx.fillRect(clip.x,y,clip.width,
+					clip.y + clip.height - y);
+				extensionMgr.paintInvalidLine(gfx,line,y);
+
+				if(cached)
+				{
+					for(int i = line; i <= lastLine; i++)
+						rowLines[i] = -1;
+				}
+				return;
+			}
+
+			int start = textArea.getScreenLineStartOffset(line);
+			int end = textArea.getScreenLineEndOffset(line);
+
+			//{{{ Work out what the line looks like
+			int state = 0;
+
+			if(info.firstSubregion)
+			{
+				state |= FIRST_SUBREGION;
+
+				if(physicalLine != buffer.getLineCount() - 1
+					&& buffer.isFoldStart(physicalLine))
+				{
+					if(textArea.getFoldVisibilityManager()
+						.isLineVisible(physicalLine + 1))
+						state |= FOLD_EXPANDED;
+					else
+						state |= FOLD_COLLAPSED;
+				}
+			}
+
+			if(caretScreenLine != bracketScreenLine
+				&& physicalLine >= Math.min(caretLine,bracketLine)
+				&& physicalLine <= Math.max(caretLine,bracketLine))
+			{
+				if(line == caretScreenLine)
+					state |= SCOPE_START;
+				else if(line == bracketScreenLine)
+					state |= SCOPE_END;
+				else if(line > caretScreenLine
+					&& line < bracketScreenLine)
+					state |= SCOPE_MIDDLE;
+			}
+
+			if (physicalLine == caretLine && highlightCurrentLine)
+				state |= NUMBER_CURRENT;
+			else if (interval > 1 && (line
+				+ textArea.getFirstLine() + 1)
+				% interval == 0)
+				state |= NUMBER_INTERVAL;
+
+			if(skipUnchanged && markerHighlight
+				&& buffer.getMarkerInRange(start,end) != null)
+				state |= MARKER;
+			//}}}
+
+			if(cached)
+			{
+				if(skipUnchanged && rowLines[line] == physicalLine
+					&& rowStates[line] == state)
+					continue;
+
+				rowLines[line] = physicalLine;
+				rowStates[line] = state;
+			}
+
+			gfx.setColor(bg);
+			gfx.fillRect(clip.x,y,clip.width,lineHeight);
+
+			//{{{ Paint text area extensions
+			extensionMgr.paintValidLine(gfx,line,physicalLine,start,end,y);
+			//}}}
+
+			//{{{ Paint fold triangles
+			if((state & (FOLD_EXPANDED | FOLD_COLLAPSED)) != 0)
+			{
+				int _y = y + lineHeight / 2;
+				gfx.setColor(foldColor);
+				if((state & FOLD_EXPANDED) != 0)
+				{
+					gfx.drawLine(1,_y - 3,10,_y - 3);
+					gfx.drawLine(2,_y - 2,9,_y - 2);
+					gfx.drawLine(3,_y - 1,8,_y - 1);
+					gfx.drawLine(4,_y,7,_y);
+					gfx.drawLine(5,_y + 1,6,_y + 1);
+				}
+				else
+				{
+					gfx.drawLine(4,_y - 5,4,_y + 4);
+					gfx.drawLine(5,_y - 4,5,_y + 3);
+					gfx.drawLine(6,_y - 3,6,_y + 2);
+					gfx.drawLine(7,_y - 2,7,_y + 1);
+					gfx.drawLine(8,_y - 1,8,_y);
+				}
+			} //}}}
+			//{{{ Paint bracket scope
+			else if((state & SCOPE_START) != 0)
+			{
+				gfx.setColor(bracketHighlightColor);
+				gfx.fillRect(5,
+					y
+					+ lineHeight / 2,
+					5,
+					2);
+				gfx.fillRect(5,
+					y
+					+ lineHeight / 2,
+					2,
+					lineHeight - lineHeight / 2);
+			}
+			else if((state & SCOPE_END) != 0)
+			{
+				gfx.setColor(bracketHighlightColor);
+				gfx.fillRect(5,
+					y,
+					2,
+					lineHeight / 2);
+				gfx.fillRect(5,
+					y + lineHeight / 2,
+					5,
+					2);
+			}
+			else if((state & SCOPE_MIDDLE) != 0)
+			{
+				gfx.setColor(bracketHighlightColor);
+				gfx.fillRect(5,
+					y,
+					2,
+					lineHeight);
+			} //}}}
+
+			//{{{ Paint line numbers
+			if(info.firstSubregion && expanded)
+			{
+				String number = Integer.toString(physicalLine + 1);
+
+				int offset;
+				switch (alignment)
+				{
+				case RIGHT:
+					offset = gutterSize.width - collapsedSize.width
+						- (fm.stringWidth(number) + 1);
+					break;
+				case CENTER:
+					offset = ((gutterSize.width - collapsedSize.width)
+						- fm.stringWidth(number)) / 2;
+					break;
+				case LEFT: default:
+					offset = 0;
+					break;
+				}
+
+				if ((state & NUMBER_CURRENT) != 0)
+					gfx.setColor(currentLineHighlight);
+				else if ((state & NUMBER_INTERVAL) != 0)
+					gfx.setColor(intervalHighlight);
+				else
+					gfx.setColor(fg);
+
+				gfx.drawString(number, FOLD_MARKER_SIZE + offset,
+					baseline + y);
+			} //}}}
+		}
+	} //}}}
+
 	//}}}
 
 	//{{{ MouseHandler class
@@ -66,8 +66,10 @@ public class JEditTextArea extends JComponent
 		this.view = view;
 
 		//{{{ Initialize some misc. stuff
-		selection = new Vector();
+		selection = new SelectionList();
 		chunkCache = new ChunkCache(this);
+		layoutPrefetcher = new LayoutPrefetcher(this);
+		screenLineUpdater = new ScreenLineUpdater();
 		painter = new TextAreaPainter(this);
 		gutter = new Gutter(view,this);
 		bufferHandler = new BufferChangeHandler();
@@ -338,6 +340,7 @@ public class JEditTextArea extends JComponent
 	public void _setFirstLine(int firstLine)
 	{
 		firstLine = Math.max(0,Math.min(getVirtualLineCount() - 1,firstLine));
+		int oldFirstLine = this.firstLine;
 		this.firstLine = firstLine;
 
 		physFirstLine = virtualToPhysical(firstLine);
@@ -348,11 +351,24 @@ public class JEditTextArea extends JComponent
 
 		recalculateLastPhysicalLine();
 
-		if(this.firstLine != vertical.getValue())
-			updateScrollBars();
+		// updateScrollBars() would repaint everything
+		if(getVerticalScrollBarValue() != vertical.getValue())
+			updateVerticalScrollBar();
 
-		painter.repaint();
-		gutter.repaint();
+		// with soft wrap, we don't know how many screen lines the
+		// text moved by
+		int dy = (oldFirstLine - firstLine)
+			* painter.getFontMetrics().getHeight();
+		if(softWrap || !painter.scrollRepaint(0,dy))
+		{
+			painter.repaint();
+			gutter.repaint();
+		}
+		else if(!gutter.scrollRepaint(dy))
+			gutter.repaint();
+
+		// lay out the lines that will be scrolled into view next
+		layoutPrefetcher.scrolled(oldFirstLine,firstLine);
 
 		fireScrollEvent(true);
 	} //}}}
@@ -413,10 +429,13 @@ public class JEditTextArea extends JComponent
 	//{{{ _setHorizontalOffset() method
 	public void _setHorizontalOffset(int horizontalOffset)
 	{
+		int oldHorizontalOffset = this.horizontalOffset;
 		this.horizontalOffset = horizontalOffset;
+		chunkCache.horizontalOffsetChanged();
 		if(horizontalOffset != horizontal.getValue())
 			updateScrollBars();
-		painter.repaint();
+		if(!painter.scrollRepaint(horizontalOffset - oldHorizontalOffset,0))
+			painter.repaint();
 
 		fireScrollEvent(false);
 	} //}}}
@@ -428,6 +447,29 @@ public class JEditTextArea extends JComponent
 	 * size of the text are changes.
 	 */
 	public void updateScrollBars()
+	{
+		if(!updateVerticalScrollBar())
+			return;
+
+		int width = painter.getWidth();
+		if(horizontal != null && width != 0)
+		{
+			maxHorizontalScrollWidth = 0;
+			painter.repaint();
+
+			horizontal.setUnitIncrement(painter.getFontMetrics()
+				.charWidth('w'));
+			horizontal.setBlockIncrement(width / 2);
+		}
+	} //}}}
+
+	//{{{ updateVerticalScrollBar() method
+	/**
+	 * Updates the vertical scroll bar. Returns false if the first line
+	 * had to be changed, in which case the scroll bars have already been
+	 * updated.
+	 */
+	private boolean updateVerticalScrollBar()
 	{
 		if(vertical != null && visibleLines != 0)
 		{
@@ -447,25 +489,40 @@ public class JEditTextArea extends JComponent
 				if(newFirstLine != firstLine)
 				{
 					setFirstLine(newFirstLine);
-					return;
+					return false;
 				}
 			}
 
-			vertical.setValues(firstLine,visibleLines,0,lineCount);
+			if(isScreenLineCountOwner())
+			{
+				// with soft wrap, the scroll bar is in screen
+				// lines, so that its size reflects how long
+				// wrapped lines are
+				vertical.setValues(getVerticalScrollBarValue(),
+					visibleLines,0,foldVisibilityManager
+					.getTotalScreenLineCount()
+					+ visibleLines - 1);
+			}
+			else
+				vertical.setValues(firstLine,visibleLines,0,lineCount);
 			vertical.setUnitIncrement(2);
 			vertical.setBlockIncrement(visibleLines);
 		}
 
-		int width = painter.getWidth();
-		if(horizontal != null && width != 0)
-		{
-			maxHorizontalScrollWidth = 0;
-			painter.repaint();
+		return true;
+	} //}}}
 
-			horizontal.setUnitIncrement(painter.getFontMetrics()
-				.charWidth('w'));
-			horizontal.setBlockIncrement(width / 2);
-		}
+	//{{{ getVerticalScrollBarValue() method
+	/**
+	 * Returns the vertical scroll bar value corresponding to the first
+	 * line.
+	 */
+	private int getVerticalScrollBarValue()
+	{
+		if(isScreenLineCountOwner())
+			return foldVisibilityManager.physicalToScreen(physFirstLine);
+		else
+			return firstLine;
 	} //}}}
 
 	//{{{ scrollUpLine() method
@@ -864,8 +921,8 @@ public class JEditTextArea extends JComponent
 		}
 		else
 		{
-			int offset = chunkCache.xToOffset(lineInfo.chunks,
-				x - horizontalOffset,round);
+			int offset = chunkCache.screenXToOffset(lineInfo.chunks,
+				x,round);
 			if(offset == -1 || offset == lineInfo.offset + lineInfo.length)
 				offset = lineInfo.offset + lineInfo.length - 1;
 
@@ -931,8 +988,7 @@ public class JEditTextArea extends JComponent
 		if(!info.chunksValid)
 			System.err.println("offset to xy: not valid");
 
-		retVal.x = (int)(horizontalOffset + chunkCache.offsetToX(
-			info.chunks,offset));
+		retVal.x = chunkCache.offsetToScreenX(info.chunks,offset);
 
 		return retVal;
 	} //}}}
@@ -941,6 +997,22 @@ public class JEditTextArea extends JComponent
 
 	//{{{ Painting
 
+	//{{{ repaint() method
+	/**
+	 * Marks the specified area as needing a repaint. This is overridden
+	 * so that repainting the text area also repaints all text, even if
+	 * the painter keeps an off-screen copy of it.
+	 * @since jEdit 4.1pre1
+	 */
+	public void repaint(long tm, int x, int y, int width, int height)
+	{
+		super.repaint(tm,x,y,width,height);
+
+		// null while the constructor is running
+		if(painter != null)
+			painter.repaint();
+	} //}}}
+
 	//{{{ invalidateScreenLineRange() method
 	/**
 	 * Marks a range of screen lines as needing a repaint.
@@ -1082,9 +1154,13 @@ public class JEditTextArea extends JComponent
 		// to hide line highlight if selections are being added later on
 		invalidateLine(caretLine);
 
-		for(int i = 0; i < selection.size(); i++)
+		// selections outside the visible area need not be repainted
+		for(int i = selection.findFirstLine(physFirstLine);
+			i < selection.size(); i++)
 		{
-			Selection s = (Selection)selection.elementAt(i);
+			Selection s = selection.get(i);
+			if(s.startLine > physLastLine)
+				break;
 			invalidateLineRange(s.startLine,s.endLine);
 		}
 	} //}}}
@@ -1409,9 +1485,6 @@ public class JEditTextArea extends JComponent
 	 */
 	public void selectBlock()
 	{
-		String openBrackets = "([{";
-		String closeBrackets = ")]}";
-
 		Selection s = getSelectionAtOffset(caret);
 		int start, end;
 		if(s == null)
@@ -1422,13 +1495,6 @@ public class JEditTextArea extends JComponent
 			end = s.end;
 		}
 
-		String text = getText(0,buffer.getLength());
-
-		// Scan backwards, trying to find a bracket
-		int count = 1;
-		char openBracket = '\0';
-		char closeBracket = '\0';
-
 		// We can't do the backward scan if start == 0
 		if(start == 0)
 		{
@@ -1436,50 +1502,26 @@ public class JEditTextArea extends JComponent
 			return;
 		}
 
-backward_scan:	while(--start > 0)
+		// Scan backwards, trying to find a bracket
+		int line = buffer.getLineOfOffset(start);
+		start = TextUtilities.findEnclosingBracket(buffer,line,
+			start - buffer.getLineStartOffset(line));
+		if(start == -1)
 		{
-			char c = text.charAt(start);
-			int index = openBrackets.indexOf(c);
-			if(index != -1)
-			{
-				if(--count == 0)
-				{
-					openBracket = c;
-					closeBracket = closeBrackets.charAt(index);
-					break backward_scan;
-				}
-			}
-			else if(closeBrackets.indexOf(c) != -1)
-				count++;
+			getToolkit().beep();
+			return;
 		}
 
-		// Reset count
-		count = 1;
+		char openBracket = buffer.getText(start,1).charAt(0);
 
 		// Scan forward, matching that bracket
-		if(openBracket == '\0')
-		{
-			getToolkit().beep();
-			return;
-		}
+		line = buffer.getLineOfOffset(end);
+		end = TextUtilities.findClosingBracket(buffer,line,
+			end - buffer.getLineStartOffset(line),openBracket);
+		if(end == -1)
+			end = buffer.getLength();
 		else
-		{
-forward_scan:		do
-			{
-				char c = text.charAt(end);
-				if(c == closeBracket)
-				{
-					if(--count == 0)
-					{
-						end++;
-						break forward_scan;
-					}
-				}
-				else if(c == openBracket)
-					count++;
-			}
-			while(++end < buffer.getLength());
-		}
+			end++;
 
 		s = new Selection.Range(start,end);
 		if(multi)
@@ -1500,7 +1542,7 @@ forward_scan:		do
 		int lastOffset = 0;
 		for(int i = 0; i < selection.size(); i++)
 		{
-			Selection s = (Selection)selection.elementAt(i);
+			Selection s = selection.get(i);
 			newSelection[i] = new Selection.Range(lastOffset,
 				s.getStart());
 			lastOffset = s.getEnd();
@@ -1528,9 +1570,7 @@ forward_scan:		do
 	 */
 	public Selection[] getSelection()
 	{
-		Selection[] sel = new Selection[selection.size()];
-		selection.copyInto(sel);
-		return sel;
+		return selection.toArray();
 	} //}}}
 
 	//{{{ selectNone() method
@@ -1553,7 +1593,7 @@ forward_scan:		do
 		// invalidate the old selection
 		invalidateSelectedLines();
 
-		this.selection.removeAllElements();
+		this.selection.clear();
 
 		if(selection != null)
 		{
@@ -1573,7 +1613,7 @@ forward_scan:		do
 	public void setSelection(Selection selection)
 	{
 		invalidateSelectedLines();
-		this.selection.removeAllElements();
+		this.selection.clear();
 
 		if(selection != null)
 			_addToSelection(selection);
@@ -1626,17 +1666,7 @@ forward_scan:		do
 	 */
 	public Selection getSelectionAtOffset(int offset)
 	{
-		if(selection != null)
-		{
-			for(int i = 0; i < selection.size(); i++)
-			{
-				Selection s = (Selection)selection.elementAt(i);
-				if(offset >= s.start && offset <= s.end)
-					return s;
-			}
-		}
-
-		return null;
+		return selection.getSelectionAtOffset(offset);
 	} //}}}
 
 	//{{{ removeFromSelection() method
@@ -1647,7 +1677,7 @@ forward_scan:		do
 	 */
 	public void removeFromSelection(Selection sel)
 	{
-		selection.removeElement(sel);
+		selection.remove(sel);
 		invalidateLineRange(sel.startLine,sel.endLine);
 
 		// to hide current line highlight
@@ -1669,7 +1699,7 @@ forward_scan:		do
 		if(sel == null)
 			return;
 
-		selection.removeElement(sel);
+		selection.remove(sel);
 		invalidateLineRange(sel.startLine,sel.endLine);
 
 		// to hide current line highlight
@@ -1696,7 +1726,7 @@ forward_scan:		do
 		if(s != null)
 		{
 			invalidateLineRange(s.startLine,s.endLine);
-			selection.removeElement(s);
+			selection.remove(s);
 		}
 
 		if(end < offset)
@@ -1733,7 +1763,7 @@ forward_scan:		do
 		if(s != null)
 		{
 			invalidateLineRange(s.startLine,s.endLine);
-			selection.removeElement(s);
+			selection.remove(s);
 
 			if(offset == s.start)
 			{
@@ -1788,7 +1818,7 @@ forward_scan:		do
 			if(i != 0)
 				buf.append(separator);
 
-			getSelectedText((Selection)selection.elementAt(i),buf);
+			getSelectedText(selection.get(i),buf);
 		}
 
 		return buf.toString();
@@ -1913,11 +1943,20 @@ forward_scan:		do
 		}
 		else
 		{
+			// the selections are all removed at the end anyway,
+			// so forget about them now rather than having the
+			// buffer change handler move every one of them after
+			// each edit. Replacing them from last to first means
+			// that each edit leaves the offsets of the remaining
+			// ones alone.
+			invalidateSelectedLines();
+			this.selection.clear();
+
 			try
 			{
 				buffer.beginCompoundEdit();
 
-				for(int i = 0; i < selection.length; i++)
+				for(int i = selection.length - 1; i >= 0; i--)
 				{
 					setSelectedText(selection[i],selectedText);
 				}
@@ -1943,35 +1982,35 @@ forward_scan:		do
 		if(selection.size() == 0)
 			return new int[] { caretLine };
 
-		Integer line;
-
-		Hashtable hash = new Hashtable();
+		// the selections are sorted, so the lines come out sorted
+		// and only need to be checked against the last one added
+		int[] lines = new int[selection.size()];
+		int count = 0;
 		for(int i = 0; i < selection.size(); i++)
 		{
-			Selection s = (Selection)selection.elementAt(i);
+			Selection s = selection.get(i);
 			int endLine = (s.end == getLineStartOffset(s.endLine)
 				? s.endLine - 1
 				: s.endLine);
 
 			for(int j = s.startLine; j <= endLine; j++)
 			{
-				line = new Integer(j);
-				hash.put(line,line);
-			}
-		}
+				if(count != 0 && lines[count - 1] >= j)
+					continue;
 
-		int[] returnValue = new int[hash.size()];
-		int i = 0;
+				if(count == lines.length)
+				{
+					int[] newLines = new int[lines.length * 2];
+					System.arraycopy(lines,0,newLines,0,count);
+					lines = newLines;
+				}
 
-		Enumeration keys = hash.keys();
-		while(keys.hasMoreElements())
-		{
-			line = (Integer)keys.nextElement();
-			returnValue[i++] = line.intValue();
+				lines[count++] = j;
+			}
 		}
 
-		Arrays.sort(returnValue);
-
+		int[] returnValue = new int[count];
+		System.arraycopy(lines,0,returnValue,0,count);
 		return returnValue;
 	} //}}}
 
@@ -2027,7 +2066,7 @@ forward_scan:		do
 	public void setCaretPosition(int newCaret)
 	{
 		invalidateSelectedLines();
-		selection.removeAllElements();
+		selection.clear();
 		moveCaretPosition(newCaret,true);
 	} //}}}
 
@@ -2040,7 +2079,7 @@ forward_scan:		do
 	public void setCaretPosition(int newCaret, boolean doElectricScroll)
 	{
 		invalidateSelectedLines();
-		selection.removeAllElements();
+		selection.clear();
 		moveCaretPosition(newCaret,doElectricScroll);
 	} //}}}
 
@@ -3176,7 +3215,7 @@ loop:		for(int i = lineNo - 1; i >= 0; i--)
 		{
 			if(selection.size() == 1)
 			{
-				Selection sel = (Selection)selection.elementAt(0);
+				Selection sel = selection.get(0);
 				if(sel.startLine == sel.endLine
 					&& sel.start != buffer.getLineStartOffset(sel.startLine)
 					&& sel.end != buffer.getLineEndOffset(sel.startLine) - 1)
@@ -3913,7 +3952,7 @@ loop:		for(int i = caretLine + 1; i < getLineCount(); i++)
 			return;
 		}
 
-		Selection sel = (Selection)selection.elementAt(0);
+		Selection sel = selection.get(0);
 		foldVisibilityManager.narrow(sel.getStartLine(),sel.getEndLine());
 
 		selectNone();
@@ -3977,7 +4016,7 @@ loop:		for(int i = caretLine + 1; i < getLineCount(); i++)
 
 				for(int i = 0; i < selection.size(); i++)
 				{
-					Selection s = (Selection)selection.elementAt(i);
+					Selection s = selection.get(i);
 					String line = buffer.getLineText(s.startLine);
 					String whitespace = line.substring(0,
 						MiscUtilities.getLeadingWhiteSpace(line));
@@ -4608,6 +4647,22 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 				.getWidth();
 		}
 
+		if(softWrap)
+		{
+			screenLineCountKey = wrapMargin + "," + tabSize + ","
+				+ painter.getFont() + ","
+				+ painter.isAntiAliasEnabled() + ","
+				+ painter.isFractionalFontMetricsEnabled();
+			foldVisibilityManager.setScreenLineCountKey(
+				screenLineCountKey);
+			screenLineUpdater.start(0);
+		}
+		else
+		{
+			screenLineCountKey = null;
+			screenLineUpdater.stop();
+		}
+
 		maxHorizontalScrollWidth = 0;
 		updateScrollBars();
 
@@ -4670,7 +4725,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	public int offsetToX(int line, int offset)
 	{
 		ChunkCache.Chunk chunks = chunkCache.getLineInfoBackwardsCompatibility(line).chunks;
-		return (int)(horizontalOffset + chunkCache.offsetToX(chunks,offset));
+		return chunkCache.offsetToScreenX(chunks,offset);
 	} //}}}
 
 	//{{{ xToOffset() method
@@ -4683,9 +4738,8 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	 */
 	public int xToOffset(int line, int x)
 	{
-		x -= horizontalOffset;
 		ChunkCache.Chunk chunks = chunkCache.getLineInfoBackwardsCompatibility(line).chunks;
-		int offset = chunkCache.xToOffset(chunks,x,true);
+		int offset = chunkCache.screenXToOffset(chunks,x,true);
 		if(offset == -1)
 			offset = getLineLength(line);
 		return offset;
@@ -4703,9 +4757,8 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	 */
 	public int xToOffset(int line, int x, boolean round)
 	{
-		x -= horizontalOffset;
 		ChunkCache.Chunk chunks = chunkCache.getLineInfoBackwardsCompatibility(line).chunks;
-		int offset = chunkCache.xToOffset(chunks,x,round);
+		int offset = chunkCache.screenXToOffset(chunks,x,round);
 		if(offset == -1)
 			offset = getLineLength(line);
 		return offset;
@@ -4721,7 +4774,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getStart();
+		return selection.get(0).getStart();
 	} //}}}
 
 	//{{{ getSelectionStart() method
@@ -4734,7 +4787,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getStart(
+		return selection.get(0).getStart(
 			buffer,line);
 	} //}}}
 
@@ -4748,7 +4801,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getStartLine();
+		return selection.get(0).getStartLine();
 	} //}}}
 
 	//{{{ setSelectionStart() method
@@ -4770,7 +4823,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getEnd();
+		return selection.get(0).getEnd();
 	} //}}}
 
 	//{{{ getSelectionEnd() method
@@ -4783,7 +4836,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getEnd(
+		return selection.get(0).getEnd(
 			buffer,line);
 	} //}}}
 
@@ -4797,7 +4850,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caret;
 
-		return ((Selection)selection.elementAt(0)).getEndLine();
+		return selection.get(0).getEndLine();
 	} //}}}
 
 	//{{{ setSelectionEnd() method
@@ -4836,7 +4889,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		if(selection.size() != 1)
 			return caretLine;
 
-		Selection s = (Selection)selection.elementAt(0);
+		Selection s = selection.get(0);
 		if(s.start == caret)
 			return s.endLine;
 		else if(s.end == caret)
@@ -4916,7 +4969,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 
 	// this is package-private so that the painter can use it without
 	// having to call getSelection() (which involves an array copy)
-	Vector selection;
+	SelectionList selection;
 
 	// used to store offsetToXY() results
 	Point returnValue;
@@ -4990,6 +5043,11 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		// have changed even if first line didn't change
 		updateScrollBars();
 
+		// lines that were just expanded might not have screen line
+		// counts yet
+		if(softWrap)
+			screenLineUpdater.start(0);
+
 		recalculateLastPhysicalLine();
 
 		// repaint gutter and painter
@@ -4997,6 +5055,39 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		painter.repaint();
 	} //}}}
 
+	//{{{ setScreenLineCount() method
+	/**
+	 * Called by the chunk cache when a line has been laid out with
+	 * soft wrap.
+	 */
+	void setScreenLineCount(int line, int count)
+	{
+		if(screenLineCountKey == null)
+			return;
+
+		if(foldVisibilityManager.setScreenLineCount(line,count,
+			screenLineCountKey))
+		{
+			// don't update the scroll bar while painting
+			screenLineUpdater.screenLineCountsChanged = true;
+			screenLineUpdater.start(line);
+		}
+	} //}}}
+
+	//{{{ isScreenLineCountOwner() method
+	/**
+	 * Returns if this text area's settings are used to compute the
+	 * screen line counts stored in the buffer. If several text areas
+	 * with different widths show the same buffer, the one that last
+	 * had focus computes them; the others scroll by virtual lines.
+	 */
+	private boolean isScreenLineCountOwner()
+	{
+		return softWrap && screenLineCountKey != null
+			&& foldVisibilityManager.isScreenLineCountKey(
+			screenLineCountKey);
+	} //}}}
+
 	//{{{ getSubregionOfOffset() method
 	/**
 	 * Returns the subregion containing the specified offset. A subregion
@@ -5033,8 +5124,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	/* public */ int xToSubregionOffset(ChunkCache.LineInfo info, float x,
 		boolean round)
 	{
-		int offset = chunkCache.xToOffset(info.chunks,
-			x - horizontalOffset,round);
+		int offset = chunkCache.screenXToOffset(info.chunks,x,round);
 		if(offset == -1 || offset == info.offset + info.length)
 			offset = info.offset + info.length - 1;
 
@@ -5051,8 +5141,7 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	// not public yet
 	/* public */ int subregionOffsetToX(ChunkCache.LineInfo info, int offset)
 	{
-		return (int)(horizontalOffset + chunkCache.offsetToX(
-			info.chunks,offset));
+		return chunkCache.offsetToScreenX(info.chunks,offset);
 	} //}}}
 
 	//{{{ getSubregionStartOffset() method
@@ -5156,6 +5245,11 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 	private boolean queuedScrollToElectric;
 	private boolean queuedFireCaretEvent;
 	private ArrayList runnables;
+
+	// see setScreenLineCount()
+	private String screenLineCountKey;
+	private ScreenLineUpdater screenLineUpdater;
+	private LayoutPrefetcher layoutPrefetcher;
 	//}}}
 
 	//{{{ _addToSelection() method
@@ -5176,53 +5270,15 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		else if(addMe.start == addMe.end)
 			return;
 
-		for(int i = 0; i < selection.size(); i++)
-		{
-			// try and merge existing selections one by
-			// one with the new selection
-			Selection s = (Selection)selection.elementAt(i);
-			if(_selectionsOverlap(s,addMe))
-			{
-				addMe.start = Math.min(s.start,addMe.start);
-				addMe.end = Math.max(s.end,addMe.end);
-
-				selection.removeElement(s);
-				i--;
-			}
-		}
+		// merges overlapping selections into addMe
+		selection.add(addMe);
 
 		addMe.startLine = getLineOfOffset(addMe.start);
 		addMe.endLine = getLineOfOffset(addMe.end);
 
-		boolean added = false;
-
-		for(int i = 0; i < selection.size(); i++)
-		{
-			Selection s = (Selection)selection.elementAt(i);
-			if(addMe.start < s.start)
-			{
-				selection.insertElementAt(addMe,i);
-				added = true;
-				break;
-			}
-		}
-
-		if(!added)
-			selection.addElement(addMe);
-
 		invalidateLineRange(addMe.startLine,addMe.endLine);
 	} //}}}
 
-	//{{{ _selectionsOverlap() method
-	private boolean _selectionsOverlap(Selection s1, Selection s2)
-	{
-		if((s1.start >= s2.start && s1.start <= s2.end)
-			|| (s1.end >= s2.start && s1.end <= s2.end))
-			return true;
-		else
-			return false;
-	} //}}}
-
 	//{{{ getSelectedText() method
 	private void getSelectedText(Selection s, StringBuffer buf)
 	{
@@ -5823,7 +5879,16 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 				return;
 
 			if(evt.getAdjustable() == vertical)
-				setFirstLine(vertical.getValue());
+			{
+				if(isScreenLineCountOwner())
+				{
+					setFirstLine(physicalToVirtual(
+						foldVisibilityManager.screenToPhysical(
+						vertical.getValue())));
+				}
+				else
+					setFirstLine(vertical.getValue());
+			}
 			else
 				setHorizontalOffset(-horizontal.getValue());
 		} //}}}
@@ -5872,30 +5937,33 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 			if(!buffer.isLoaded())
 				return;
 
+			if(softWrap)
+				screenLineUpdater.start(startLine);
+
 			repaintAndScroll(startLine,numLines);
 
-			// loop through all selections, resizing them if
-			// necessary
-			for(int i = 0; i < selection.size(); i++)
+			// loop through all selections that do not end before
+			// the insertion, resizing them. An offset moved by the
+			// insertion moves down by the number of lines inserted,
+			// and selections starting after the first changed line
+			// look the same as before, since lines after it have
+			// been repainted already if they moved at all
+			for(int i = selection.findFirst(start);
+				i < selection.size(); i++)
 			{
-				Selection s = (Selection)selection.elementAt(i);
+				Selection s = selection.get(i);
 
-				boolean changed = false;
+				boolean changed = (s.startLine <= startLine);
 
 				if((s instanceof Selection.Rect && s.start > start)
 					|| (s instanceof Selection.Range && s.start >= start))
 				{
 					s.start += length;
-					s.startLine = getLineOfOffset(s.start);
-					changed = true;
+					s.startLine += numLines;
 				}
 
-				if(s.end >= start)
-				{
-					s.end += length;
-					s.endLine = getLineOfOffset(s.end);
-					changed = true;
-				}
+				s.end += length;
+				s.endLine += numLines;
 
 				if(changed)
 					invalidateLineRange(s.startLine,s.endLine);
@@ -5920,6 +5988,9 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 
 			chunkCache.invalidateChunksFromPhys(startLine);
 
+			if(softWrap)
+				screenLineUpdater.start(startLine);
+
 			// -lineCount because they are removed.
 			repaintAndScroll(startLine,-numLines);
 
@@ -5953,48 +6024,48 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 
 			int end = start + length;
 
-			// loop through all selections, resizing them if
-			// necessary
-			for(int i = 0; i < selection.size(); i++)
+			// loop through all selections that do not end before
+			// the removed text, resizing them. As above, only
+			// selections starting on or before the first changed
+			// line need to be repainted
+			for(int i = selection.findFirst(start + 1);
+				i < selection.size(); i++)
 			{
-				Selection s = (Selection)selection.elementAt(i);
+				Selection s = selection.get(i);
 
-				boolean changed = false;
+				boolean changed = (s.startLine <= startLine
+					+ numLines);
 
 				if(s.start > start && s.start <= end)
 				{
 					s.start = start;
-					changed = true;
+					s.startLine = startLine;
 				}
 				else if(s.start > end)
 				{
 					s.start -= length;
-					changed = true;
+					s.startLine -= numLines;
 				}
 
-				if(s.end > start && s.end <= end)
+				if(s.end <= end)
 				{
 					s.end = start;
-					changed = true;
+					s.endLine = startLine;
 				}
-				else if(s.end > end)
+				else
 				{
 					s.end -= length;
-					changed = true;
+					s.endLine -= numLines;
 				}
 
 				if(s.start == s.end)
 				{
-					selection.removeElement(s);
+					selection.remove(i);
 					invalidateLineRange(s.startLine,s.endLine);
 					i--;
 				}
 				else if(changed)
-				{
-					s.startLine = getLineOfOffset(s.start);
-					s.endLine = getLineOfOffset(s.end);
 					invalidateLineRange(s.startLine,s.endLine);
-				}
 			}
 
 			if(caret > start && caret <= end)
@@ -6040,6 +6111,94 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 		} //}}}
 	} //}}}
 
+	//{{{ ScreenLineUpdater class
+	/**
+	 * Computes the screen line counts of lines that have not been laid
+	 * out yet, for at most a few milliseconds at a time so that the text
+	 * area stays responsive. The token marker and chunk cache are not
+	 * thread safe, so this is done from a Swing timer rather than
+	 * another thread. The lines are laid out without going through the
+	 * token and chunk list caches, which are kept for painting.
+	 */
+	class ScreenLineUpdater implements ActionListener
+	{
+		boolean screenLineCountsChanged;
+
+		//{{{ ScreenLineUpdater constructor
+		ScreenLineUpdater()
+		{
+			timer = new Timer(DELAY,this);
+		} //}}}
+
+		//{{{ start() method
+		void start(int line)
+		{
+			if(timer.isRunning())
+				nextLine = Math.min(nextLine,line);
+			else
+			{
+				nextLine = line;
+				timer.start();
+			}
+		} //}}}
+
+		//{{{ stop() method
+		void stop()
+		{
+			timer.stop();
+			screenLineCountsChanged = false;
+		} //}}}
+
+		//{{{ actionPerformed() method
+		public void actionPerformed(ActionEvent evt)
+		{
+			if(buffer == null || !buffer.isLoaded()
+				|| !isScreenLineCountOwner())
+			{
+				stop();
+				return;
+			}
+
+			long start = System.currentTimeMillis();
+
+			int lineCount = buffer.getLineCount();
+			while(nextLine < lineCount)
+			{
+				if(foldVisibilityManager.isLineVisible(nextLine)
+					&& foldVisibilityManager
+					.getScreenLineCount(nextLine) == 0)
+				{
+					chunkCache.updateScreenLineCount(nextLine,
+						tokens,chunks);
+				}
+
+				nextLine++;
+
+				if(System.currentTimeMillis() - start >= TIME_SLICE)
+					break;
+			}
+
+			if(screenLineCountsChanged)
+			{
+				screenLineCountsChanged = false;
+				updateVerticalScrollBar();
+			}
+
+			if(nextLine >= lineCount)
+				timer.stop();
+		} //}}}
+
+		//{{{ Private members
+		private static final int DELAY = 50;
+		private static final int TIME_SLICE = 25;
+
+		private Timer timer;
+		private int nextLine;
+		private ArrayList chunks = new ArrayList();
+		private Buffer.TokenList tokens = new Buffer.TokenList();
+		//}}}
+	} //}}}
+
 	//{{{ FocusHandler class
 	class FocusHandler implements FocusListener
 	{
@@ -6057,6 +6216,17 @@ loop:			for(int i = lineNo + 1; i < getLineCount(); i++)
 			// repaint the gutter so that the border color
 			// reflects the focus state
 			view.updateGutterBorders();
+
+			// if another text area showing this buffer with a
+			// different width computed the screen line counts,
+			// compute them again for this one
+			if(softWrap && screenLineCountKey != null
+				&& foldVisibilityManager.setScreenLineCountKey(
+				screenLineCountKey))
+			{
+				screenLineUpdater.start(0);
+				updateVerticalScrollBar();
+			}
 		} //}}}
 
 		//{{{ focusLost() method
@@ -0,0 +1,298 @@
+/*
+ * LayoutPrefetcher.java - Lays out lines before they are scrolled into view
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.textarea;
+
+//{{{ Imports
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import java.awt.font.FontRenderContext;
+import org.gjt.sp.jedit.syntax.*;
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.util.Log;
+//}}}
+
+/**
+ * Tokenizes and lays out the lines that are about to be scrolled into
+ * view, so that painting them only has to look up their chunk lists in
+ * the cache shared by all text areas.<p>
+ *
+ * Each time a text area scrolls, the lines following the visible area
+ * in the direction of the scroll are handed to a background thread. The
+ * faster the text area is being scrolled, the more lines are handed
+ * over, up to a few screens. Only the most recent request is kept, so
+ * the thread never falls behind the scrolling.<p>
+ *
+ * Folds are only looked at by the text area, in the event dispatch
+ * thread. The background thread holds the buffer's write lock while it
+ * tokenizes a line and copies its text, and lays the line out after
+ * releasing the lock.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class LayoutPrefetcher
+{
+	//{{{ LayoutPrefetcher constructor
+	LayoutPrefetcher(JEditTextArea textArea)
+	{
+		this.textArea = textArea;
+	} //}}}
+
+	//{{{ scrolled() method
+	/**
+	 * Called by the text area after it scrolls.
+	 * @param oldFirstLine The first screen line before the scroll
+	 * @param firstLine The first screen line after the scroll
+	 */
+	void scrolled(int oldFirstLine, int firstLine)
+	{
+		Buffer buffer = textArea.getBuffer();
+		TextAreaPainter painter = textArea.getPainter();
+		if(firstLine == oldFirstLine || !buffer.isLoaded()
+			|| painter.getFontRenderContext() == null)
+			return;
+
+		//{{{ Work out how fast the text area is scrolling
+		long now = System.currentTimeMillis();
+		int direction = (firstLine > oldFirstLine ? 1 : -1);
+		float lines = Math.abs(firstLine - oldFirstLine);
+
+		if(direction != lastDirection
+			|| now - lastScrollTime > SCROLL_TIMEOUT)
+		{
+			speed = 0.0f;
+		}
+		else
+		{
+			float currentSpeed = lines / Math.max(1L,
+				now - lastScrollTime);
+			speed = (speed + currentSpeed) / 2;
+		}
+
+		lastDirection = direction;
+		lastScrollTime = now;
+		//}}}
+
+		int visibleLines = Math.max(1,textArea.getVisibleLines());
+		int lookahead = Math.max(visibleLines,Math.min(
+			visibleLines * MAX_SCREENS,
+			(int)(speed * LOOKAHEAD_TIME)));
+
+		//{{{ Find the lines that will be scrolled into view next
+		FoldVisibilityManager foldVisibilityManager
+			= textArea.getFoldVisibilityManager();
+
+		int[] physicalLines = new int[lookahead];
+		int count = 0;
+
+		int line = (direction == 1
+			? textArea.getLastPhysicalLine()
+			: textArea.getFirstPhysicalLine());
+		if(line < 0 || line >= buffer.getLineCount())
+			return;
+
+		while(count < lookahead)
+		{
+			if(direction == 1)
+				line = foldVisibilityManager.getNextVisibleLine(line);
+			else
+				line = foldVisibilityManager.getPrevVisibleLine(line);
+
+			if(line == -1)
+				break;
+
+			physicalLines[count++] = line;
+		}
+
+		if(count == 0)
+			return;
+		//}}}
+
+		Request request = new Request();
+		request.buffer = buffer;
+		request.physicalLines = physicalLines;
+		request.count = count;
+		request.styles = painter.getStyles();
+		request.fontRenderContext = painter.getFontRenderContext();
+		request.expander = painter;
+		request.wrapMargin = (textArea.softWrap
+			? textArea.wrapMargin : 0.0f);
+		request.tabWidth = painter.nextTabStop(0.0f,0);
+
+		synchronized(lock)
+		{
+			pending = request;
+
+			if(worker == null)
+			{
+				worker = new Worker();
+				worker.start();
+			}
+
+			lock.notify();
+		}
+	} //}}}
+
+	//{{{ Private members
+
+	// scrolls further apart than this are not considered part of the
+	// same movement
+	private static final int SCROLL_TIMEOUT = 500;
+
+	// lay out enough lines to keep up with this many milliseconds of
+	// scrolling at the current speed
+	private static final int LOOKAHEAD_TIME = 1000;
+
+	// never look further ahead than this many screens
+	private static final int MAX_SCREENS = 4;
+
+	private static Object lock = new Object();
+	private static Request pending;
+	private static Worker worker;
+
+	private JEditTextArea textArea;
+	private int lastDirection;
+	private long lastScrollTime;
+
+	// in lines per millisecond
+	private float speed;
+
+	//{{{ layOut() method
+	/**
+	 * Tokenizes and lays out the lines of a request, unless a newer
+	 * request comes in.
+	 */
+	private static void layOut(Request request)
+	{
+		Buffer buffer = request.buffer;
+		Segment lineSegment = new Segment();
+
+		for(int i = 0; i < request.count; i++)
+		{
+			synchronized(lock)
+			{
+				if(pending != null)
+					return;
+			}
+
+			int physicalLine = request.physicalLines[i];
+
+			Token tokens;
+			Segment seg;
+
+			try
+			{
+				buffer.writeLock();
+
+				// the buffer might have changed since the
+				// request was made
+				if(!buffer.isLoaded()
+					|| physicalLine >= buffer.getLineCount()
+					|| buffer.isLongLine(physicalLine))
+					continue;
+
+				tokens = buffer.markTokens(physicalLine)
+					.getFirstToken();
+
+				// the text is copied, since the buffer can be
+				// changed as soon as the lock is released
+				buffer.getLineText(physicalLine,lineSegment);
+				char[] text = new char[lineSegment.count];
+				System.arraycopy(lineSegment.array,
+					lineSegment.offset,text,0,
+					lineSegment.count);
+				seg = new Segment(text,0,text.length);
+			}
+			finally
+			{
+				buffer.writeUnlock();
+			}
+
+			ChunkCache.prefetchChunkList(seg,tokens,request.styles,
+				request.fontRenderContext,request.expander,
+				request.wrapMargin,request.tabWidth);
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ Request class
+	static class Request
+	{
+		Buffer buffer;
+		int[] physicalLines;
+		int count;
+		SyntaxStyle[] styles;
+		FontRenderContext fontRenderContext;
+		TabExpander expander;
+		float wrapMargin;
+		float tabWidth;
+	} //}}}
+
+	//{{{ Worker class
+	static class Worker extends Thread
+	{
+		Worker()
+		{
+			super("Text area layout prefetcher");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+		public void run()
+		{
+			for(;;)
+			{
+				Request request;
+
+				synchronized(lock)
+				{
+					while(pending == null)
+					{
+						try
+						{
+							lock.wait();
+						}
+						catch(InterruptedException e)
+						{
+							return;
+						}
+					}
+
+					request = pending;
+					pending = null;
+				}
+
+				try
+				{
+					layOut(request);
+				}
+				catch(Throwable t)
+				{
+					Log.log(Log.ERROR,LayoutPrefetcher.class,t);
+				}
+			}
+		}
+	} //}}}
+}
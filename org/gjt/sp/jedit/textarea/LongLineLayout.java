@@ -0,0 +1,181 @@
+/*
+ * LongLineLayout.java - Maps offsets to columns in long lines
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.textarea;
+
+import javax.swing.text.Segment;
+
+/**
+ * Converts between offsets and columns in a line that is too long to be
+ * laid out as a whole. Every character is assumed to take up one column,
+ * except for tabs, which extend to the next tab stop. Only the positions
+ * of the tabs are stored, so both conversions take logarithmic time and
+ * the line text is not needed after the layout has been created.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class LongLineLayout
+{
+	//{{{ LongLineLayout constructor
+	/**
+	 * Creates a new layout.
+	 * @param seg The line text
+	 * @param tabSize The tab size, in columns
+	 */
+	LongLineLayout(Segment seg, int tabSize)
+	{
+		this.tabSize = tabSize;
+		length = seg.count;
+
+		int count = 0;
+		char[] array = seg.array;
+		int end = seg.offset + seg.count;
+		for(int i = seg.offset; i < end; i++)
+		{
+			if(array[i] == '\t')
+				count++;
+		}
+
+		tabs = new int[count];
+		tabColumns = new int[count];
+
+		int column = 0;
+		int last = 0;
+		count = 0;
+		for(int i = 0; i < length; i++)
+		{
+			if(array[seg.offset + i] != '\t')
+				continue;
+
+			column += i - last;
+			tabs[count] = i;
+			tabColumns[count] = column;
+			count++;
+
+			column = (column / tabSize + 1) * tabSize;
+			last = i + 1;
+		}
+
+		columnCount = column + length - last;
+	} //}}}
+
+	//{{{ getLength() method
+	int getLength()
+	{
+		return length;
+	} //}}}
+
+	//{{{ getTabSize() method
+	int getTabSize()
+	{
+		return tabSize;
+	} //}}}
+
+	//{{{ getColumnCount() method
+	/**
+	 * Returns the number of columns taken up by the whole line.
+	 */
+	int getColumnCount()
+	{
+		return columnCount;
+	} //}}}
+
+	//{{{ offsetToColumn() method
+	/**
+	 * Returns the column where the character at the specified offset
+	 * starts.
+	 */
+	int offsetToColumn(int offset)
+	{
+		// the last tab before the offset
+		int tab = findTab(tabs,offset - 1);
+		if(tab == -1)
+			return offset;
+
+		return nextTabStop(tabColumns[tab]) + offset - tabs[tab] - 1;
+	} //}}}
+
+	//{{{ columnToOffset() method
+	/**
+	 * Returns the offset of the character that takes up the specified
+	 * column, or the length of the line if the column is past its end.
+	 */
+	int columnToOffset(int column)
+	{
+		if(column <= 0)
+			return 0;
+		else if(column >= columnCount)
+			return length;
+
+		// the last tab starting at or before the column
+		int tab = findTab(tabColumns,column);
+		if(tab == -1)
+			return column;
+
+		int tabEnd = nextTabStop(tabColumns[tab]);
+		if(column < tabEnd)
+			return tabs[tab];
+		else
+			return tabs[tab] + 1 + column - tabEnd;
+	} //}}}
+
+	//{{{ Private members
+	private int tabSize;
+	private int length;
+	private int columnCount;
+
+	// offsets of the tabs, and the columns they start at
+	private int[] tabs;
+	private int[] tabColumns;
+
+	//{{{ nextTabStop() method
+	private int nextTabStop(int column)
+	{
+		return (column / tabSize + 1) * tabSize;
+	} //}}}
+
+	//{{{ findTab() method
+	/**
+	 * Returns the index of the last element of the sorted array that is
+	 * not greater than the specified value, or -1 if there is none.
+	 */
+	private static int findTab(int[] array, int value)
+	{
+		int start = 0;
+		int end = array.length - 1;
+
+		while(start <= end)
+		{
+			int mid = (start + end) >>> 1;
+			if(array[mid] <= value)
+				start = mid + 1;
+			else
+				end = mid - 1;
+		}
+
+		return end;
+	} //}}}
+
+	//}}}
+}
@@ -0,0 +1,406 @@
+/*
+ * PainterProfiler.java - Collects text area repaint statistics
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.textarea;
+
+//{{{ Imports
+import javax.swing.SwingUtilities;
+import java.io.*;
+import org.gjt.sp.util.Log;
+//}}}
+
+/**
+ * Collects statistics about text area repaints, to help find out where
+ * the time goes when typing or scrolling feels slow.<p>
+ *
+ * When enabled, the time taken by each repaint and the number of lines
+ * painted are recorded, along with the time spent tokenizing lines,
+ * laying out chunk lists and drawing them, and the number of times the
+ * chunk lists of a line were found in the cache. A background thread
+ * also checks how long it takes the event dispatch thread to respond;
+ * if it is blocked for longer than {@link #STALL_THRESHOLD}, the stall
+ * is recorded, and a warning is written to the activity log if it is
+ * blocked for more than a second.<p>
+ *
+ * Times are measured with <code>System.currentTimeMillis()</code>, which
+ * is too coarse to time a single line, but adds up to the right total
+ * over many lines.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+public class PainterProfiler
+{
+	/**
+	 * The event dispatch thread is considered stalled if it does not
+	 * respond for this many milliseconds.
+	 */
+	public static final int STALL_THRESHOLD = 100;
+
+	//{{{ isEnabled() method
+	/**
+	 * Returns if statistics are being collected.
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	} //}}}
+
+	//{{{ setEnabled() method
+	/**
+	 * Starts or stops collecting statistics. Statistics collected so
+	 * far are kept.
+	 * @param enabled True to start collecting, false to stop
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		synchronized(lock)
+		{
+			PainterProfiler.enabled = enabled;
+
+			if(enabled && stallMonitor == null)
+			{
+				stallMonitor = new StallMonitor();
+				stallMonitor.start();
+			}
+			else if(!enabled && stallMonitor != null)
+			{
+				stallMonitor.interrupt();
+				stallMonitor = null;
+			}
+		}
+	} //}}}
+
+	//{{{ reset() method
+	/**
+	 * Discards all collected statistics.
+	 */
+	public static void reset()
+	{
+		synchronized(lock)
+		{
+			frames = lines = 0;
+			paintTime = maxFrameTime = 0L;
+			lastFrameTime = 0L;
+			lastFrameLines = 0;
+			tokenizeTime = layoutTime = drawTime = 0L;
+			chunkListHits = chunkListMisses = 0;
+			stalls = 0;
+			stallTime = maxStallTime = 0L;
+			frameHistogram = new int[HISTOGRAM_BOUNDS.length + 1];
+			stallHistogram = new int[HISTOGRAM_BOUNDS.length + 1];
+		}
+	} //}}}
+
+	//{{{ getLastFrameTime() method
+	/**
+	 * Returns the time taken by the most recent repaint, in
+	 * milliseconds.
+	 */
+	public static long getLastFrameTime()
+	{
+		return lastFrameTime;
+	} //}}}
+
+	//{{{ getLastFrameLines() method
+	/**
+	 * Returns the number of lines painted by the most recent repaint.
+	 */
+	public static int getLastFrameLines()
+	{
+		return lastFrameLines;
+	} //}}}
+
+	//{{{ getAverageFrameTime() method
+	/**
+	 * Returns the average time taken by a repaint, in milliseconds.
+	 */
+	public static float getAverageFrameTime()
+	{
+		synchronized(lock)
+		{
+			if(frames == 0)
+				return 0.0f;
+			else
+				return (float)paintTime / frames;
+		}
+	} //}}}
+
+	//{{{ getStallCount() method
+	/**
+	 * Returns the number of times the event dispatch thread was
+	 * blocked for longer than {@link #STALL_THRESHOLD}.
+	 */
+	public static int getStallCount()
+	{
+		return stalls;
+	} //}}}
+
+	//{{{ dump() method
+	/**
+	 * Writes a human-readable report of the collected statistics,
+	 * including histograms of repaint and stall times.
+	 * @param out The writer
+	 */
+	public static void dump(Writer out) throws IOException
+	{
+		String lineSep = System.getProperty("line.separator");
+
+		synchronized(lock)
+		{
+			out.write("Repaints: " + frames + " (" + lines
+				+ " lines)" + lineSep);
+			out.write("  Time: " + paintTime + " ms (average "
+				+ getAverageFrameTime() + " ms, maximum "
+				+ maxFrameTime + " ms)" + lineSep);
+			out.write("  Tokenizing: " + tokenizeTime + " ms"
+				+ lineSep);
+			out.write("  Laying out: " + layoutTime + " ms"
+				+ lineSep);
+			out.write("  Drawing: " + drawTime + " ms" + lineSep);
+			out.write("  Chunk list cache: " + chunkListHits
+				+ " hits, " + chunkListMisses + " misses"
+				+ lineSep);
+			out.write("  Chunk list cache (all text areas): "
+				+ ChunkCache.getChunkListCacheStatistics()
+				+ lineSep);
+
+			out.write(lineSep);
+			out.write("Event dispatch thread stalls: " + stalls
+				+ " (" + stallTime + " ms, maximum "
+				+ maxStallTime + " ms)" + lineSep);
+
+			out.write(lineSep);
+			out.write("Repaint times (time, repaints, percent):"
+				+ lineSep);
+			dumpHistogram(out,frameHistogram,frames,lineSep);
+
+			out.write(lineSep);
+			out.write("Stall times (time, stalls, percent):"
+				+ lineSep);
+			dumpHistogram(out,stallHistogram,stalls,lineSep);
+		}
+	} //}}}
+
+	//{{{ Package-private members
+
+	// checked by the text area before calling the methods below
+	static boolean enabled;
+
+	//{{{ framePainted() method
+	/**
+	 * Records a repaint.
+	 * @param lines The number of lines painted
+	 * @param time The time taken by the repaint
+	 * @param drawTime The part of that time spent drawing lines
+	 */
+	static void framePainted(int lines, long time, long drawTime)
+	{
+		synchronized(lock)
+		{
+			frames++;
+			PainterProfiler.lines += lines;
+			paintTime += time;
+			if(time > maxFrameTime)
+				maxFrameTime = time;
+			PainterProfiler.drawTime += drawTime;
+			frameHistogram[getBucket(time)]++;
+
+			lastFrameTime = time;
+			lastFrameLines = lines;
+		}
+	} //}}}
+
+	//{{{ lineLaidOut() method
+	/**
+	 * Records the time spent creating the chunk lists of a line.
+	 * @param tokenizeTime The time spent tokenizing the line
+	 * @param layoutTime The time spent creating chunks
+	 * @param cached True if the chunk lists were found in the cache
+	 */
+	static void lineLaidOut(long tokenizeTime, long layoutTime,
+		boolean cached)
+	{
+		synchronized(lock)
+		{
+			PainterProfiler.tokenizeTime += tokenizeTime;
+			PainterProfiler.layoutTime += layoutTime;
+			if(cached)
+				chunkListHits++;
+			else
+				chunkListMisses++;
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ Private members
+
+	// upper bounds (exclusive) of the histogram buckets, in
+	// milliseconds; the last bucket has no upper bound
+	private static final int[] HISTOGRAM_BOUNDS = { 1, 2, 5, 10, 20,
+		50, 100, 200, 500, 1000 };
+
+	// how often the stall monitor checks the event dispatch thread
+	private static final int STALL_CHECK_INTERVAL = 50;
+
+	// longer stalls are logged
+	private static final int STALL_LOG_THRESHOLD = 1000;
+
+	private static Object lock = new Object();
+	private static StallMonitor stallMonitor;
+
+	private static int frames;
+	private static int lines;
+	private static long paintTime;
+	private static long maxFrameTime;
+	private static long lastFrameTime;
+	private static int lastFrameLines;
+	private static int[] frameHistogram = new int[
+		HISTOGRAM_BOUNDS.length + 1];
+
+	private static long tokenizeTime;
+	private static long layoutTime;
+	private static long drawTime;
+	private static int chunkListHits;
+	private static int chunkListMisses;
+
+	private static int stalls;
+	private static long stallTime;
+	private static long maxStallTime;
+	private static int[] stallHistogram = new int[
+		HISTOGRAM_BOUNDS.length + 1];
+
+	private PainterProfiler() {}
+
+	//{{{ getBucket() method
+	private static int getBucket(long time)
+	{
+		for(int i = 0; i < HISTOGRAM_BOUNDS.length; i++)
+		{
+			if(time < HISTOGRAM_BOUNDS[i])
+				return i;
+		}
+
+		return HISTOGRAM_BOUNDS.length;
+	} //}}}
+
+	//{{{ dumpHistogram() method
+	private static void dumpHistogram(Writer out, int[] histogram,
+		int total, String lineSep) throws IOException
+	{
+		for(int i = 0; i < histogram.length; i++)
+		{
+			String label;
+			if(i == 0)
+				label = "0 ms";
+			else if(i == histogram.length - 1)
+				label = ">= " + HISTOGRAM_BOUNDS[i - 1] + " ms";
+			else if(HISTOGRAM_BOUNDS[i] - HISTOGRAM_BOUNDS[i - 1] == 1)
+				label = HISTOGRAM_BOUNDS[i - 1] + " ms";
+			else
+			{
+				label = HISTOGRAM_BOUNDS[i - 1] + "-"
+					+ (HISTOGRAM_BOUNDS[i] - 1) + " ms";
+			}
+
+			int percent = (total == 0 ? 0
+				: (int)((long)histogram[i] * 100 / total));
+
+			out.write("  " + label + "\t" + histogram[i] + "\t"
+				+ percent + "%" + lineSep);
+		}
+	} //}}}
+
+	//{{{ stallDetected() method
+	private static void stallDetected(long time)
+	{
+		synchronized(lock)
+		{
+			stalls++;
+			stallTime += time;
+			if(time > maxStallTime)
+				maxStallTime = time;
+			stallHistogram[getBucket(time)]++;
+		}
+
+		if(time >= STALL_LOG_THRESHOLD)
+		{
+			Log.log(Log.WARNING,PainterProfiler.class,
+				"Event dispatch thread was blocked for "
+				+ time + " ms");
+		}
+	} //}}}
+
+	//}}}
+
+	//{{{ StallMonitor class
+	/**
+	 * Posts a request to the event dispatch thread, waits for it to
+	 * run, and records how long it took.
+	 */
+	static class StallMonitor extends Thread
+	{
+		StallMonitor()
+		{
+			super("Event dispatch thread stall monitor");
+			setDaemon(true);
+		}
+
+		public void run()
+		{
+			while(enabled)
+			{
+				if(!pending)
+				{
+					pending = true;
+					posted = System.currentTimeMillis();
+					SwingUtilities.invokeLater(probe);
+				}
+
+				try
+				{
+					Thread.sleep(STALL_CHECK_INTERVAL);
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+			}
+		}
+
+		private volatile boolean pending;
+		private volatile long posted;
+
+		private Runnable probe = new Runnable()
+		{
+			public void run()
+			{
+				long time = System.currentTimeMillis() - posted;
+				pending = false;
+				if(time >= STALL_THRESHOLD)
+					stallDetected(time);
+			}
+		};
+	} //}}}
+}
@@ -0,0 +1,359 @@
+/*
+ * PrefixSumIndex.java - Sums of per-line values in logarithmic time
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.gjt.sp.jedit.textarea;
+
+/**
+ * A binary indexed (Fenwick) tree holding one non-negative value per
+ * physical line. Changing a value, summing the values of all lines before
+ * a line, and finding the line where a running sum is reached all take
+ * logarithmic time.<p>
+ *
+ * The values are stored with a gap of unused, zero slots at the last
+ * place lines were inserted or removed, so inserting or removing lines
+ * only has to move the values between the previous edit and this one.
+ * Edits near each other, such as typing, therefore stay cheap even in
+ * large buffers. When the gap is used up, or has to move a long way, the
+ * values are copied and the tree is filled in again, which takes linear
+ * time; the arrays are then grown with some room to spare.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class PrefixSumIndex
+{
+	//{{{ reset() method
+	/**
+	 * Resizes the index and sets all values to zero. Values should then
+	 * be set with <code>init()</code>, followed by a call to
+	 * <code>build()</code>.
+	 * @param size The number of lines
+	 */
+	void reset(int size)
+	{
+		if(values == null || values.length < size)
+		{
+			int capacity = size + getSlack(size);
+			values = new int[capacity];
+			tree = new int[capacity + 1];
+		}
+		else
+		{
+			for(int i = 0; i < values.length; i++)
+				values[i] = 0;
+		}
+
+		this.size = size;
+		gapStart = size;
+		gapEnd = values.length;
+	} //}}}
+
+	//{{{ init() method
+	/**
+	 * Sets a value while the index is being filled in.
+	 */
+	void init(int line, int value)
+	{
+		values[line] = value;
+	} //}}}
+
+	//{{{ build() method
+	/**
+	 * Computes the sums after the values have been filled in.
+	 */
+	void build()
+	{
+		int capacity = values.length;
+
+		for(int i = 1; i <= capacity; i++)
+			tree[i] = values[i - 1];
+
+		for(int i = 1; i <= capacity; i++)
+		{
+			int parent = i + (i & -i);
+			if(parent <= capacity)
+				tree[parent] += tree[i];
+		}
+
+		total = 0;
+		for(int i = 0; i < capacity; i++)
+			total += values[i];
+	} //}}}
+
+	//{{{ getSize() method
+	int getSize()
+	{
+		return size;
+	} //}}}
+
+	//{{{ get() method
+	int get(int line)
+	{
+		return values[getSlot(line)];
+	} //}}}
+
+	//{{{ set() method
+	/**
+	 * Changes the value of a line.
+	 */
+	void set(int line, int value)
+	{
+		int slot = getSlot(line);
+		int delta = value - values[slot];
+		if(delta == 0)
+			return;
+
+		values[slot] = value;
+		add(slot,delta);
+	} //}}}
+
+	//{{{ insert() method
+	/**
+	 * Inserts lines with a value of zero. Their values should then be
+	 * changed with <code>set()</code>.
+	 * @param line The first inserted line
+	 * @param count The number of lines to insert
+	 */
+	void insert(int line, int count)
+	{
+		if(gapEnd - gapStart < count)
+			resize(line,size + count);
+		else
+			moveGap(line);
+
+		gapStart += count;
+		size += count;
+	} //}}}
+
+	//{{{ remove() method
+	/**
+	 * Removes lines.
+	 * @param line The first removed line
+	 * @param count The number of lines to remove
+	 */
+	void remove(int line, int count)
+	{
+		moveGap(line);
+
+		for(int i = gapEnd; i < gapEnd + count; i++)
+		{
+			if(values[i] != 0)
+			{
+				add(i,-values[i]);
+				values[i] = 0;
+			}
+		}
+
+		gapEnd += count;
+		size -= count;
+	} //}}}
+
+	//{{{ getTotal() method
+	/**
+	 * Returns the sum of all values.
+	 */
+	int getTotal()
+	{
+		return total;
+	} //}}}
+
+	//{{{ sumBefore() method
+	/**
+	 * Returns the sum of the values of all lines before the specified
+	 * line.
+	 */
+	int sumBefore(int line)
+	{
+		// the slots in the gap are zero, so the sum of the slots before
+		// the gap is the same as the sum of the slots before its end
+		int sum = 0;
+		for(int i = getSlot(line); i > 0; i -= (i & -i))
+			sum += tree[i];
+		return sum;
+	} //}}}
+
+	//{{{ find() method
+	/**
+	 * Returns the line whose range of running sums contains the
+	 * specified sum; that is, the line <i>n</i> such that
+	 * <code>sumBefore(n) &lt;= sum &lt; sumBefore(n) + get(n)</code>.
+	 * Lines with a value of zero are never returned. If the sum is not
+	 * less than the total, returns the size of the index.
+	 */
+	int find(int sum)
+	{
+		if(sum < 0)
+			return 0;
+
+		int capacity = values.length;
+		int slot = 0;
+
+		int bit = 1;
+		while(bit <= capacity)
+			bit <<= 1;
+
+		for(bit >>= 1; bit != 0; bit >>= 1)
+		{
+			int next = slot + bit;
+			if(next <= capacity && tree[next] <= sum)
+			{
+				slot = next;
+				sum -= tree[next];
+			}
+		}
+
+		if(slot >= gapEnd)
+			return slot - (gapEnd - gapStart);
+		else if(slot > gapStart)
+			return gapStart;
+		else
+			return slot;
+	} //}}}
+
+	//{{{ Private members
+	private int size;
+	private int total;
+
+	// values[gapStart] ... values[gapEnd - 1] are unused, and zero
+	private int[] values;
+	private int gapStart;
+	private int gapEnd;
+
+	// tree[i] is the sum of values[i - (i & -i)] ... values[i - 1]
+	private int[] tree;
+
+	//{{{ getSlack() method
+	private static int getSlack(int size)
+	{
+		return size / 8 + 64;
+	} //}}}
+
+	//{{{ getSlot() method
+	private int getSlot(int line)
+	{
+		if(line < gapStart)
+			return line;
+		else
+			return line + (gapEnd - gapStart);
+	} //}}}
+
+	//{{{ add() method
+	private void add(int slot, int delta)
+	{
+		total += delta;
+
+		for(int i = slot + 1; i <= values.length; i += (i & -i))
+			tree[i] += delta;
+	} //}}}
+
+	//{{{ moveGap() method
+	/**
+	 * Moves the gap so that it starts at the specified line. Each moved
+	 * value takes two logarithmic updates, so if many values would have
+	 * to move, the values are copied and the tree is built again.
+	 */
+	private void moveGap(int line)
+	{
+		if(line == gapStart)
+			return;
+
+		int gap = gapEnd - gapStart;
+
+		if(Math.abs(line - gapStart) > values.length / 32)
+		{
+			resize(line,size);
+			return;
+		}
+
+		if(line < gapStart)
+		{
+			for(int i = gapStart - 1; i >= line; i--)
+				moveSlot(i,i + gap);
+		}
+		else
+		{
+			for(int i = gapStart; i < line; i++)
+				moveSlot(i + gap,i);
+		}
+
+		gapStart = line;
+		gapEnd = line + gap;
+	} //}}}
+
+	//{{{ moveSlot() method
+	private void moveSlot(int from, int to)
+	{
+		int value = values[from];
+		if(value == 0)
+			return;
+
+		values[from] = 0;
+		add(from,-value);
+		values[to] = value;
+		add(to,value);
+	} //}}}
+
+	//{{{ resize() method
+	/**
+	 * Moves the gap so that it starts at the specified line by copying
+	 * the values, growing the arrays first if they cannot hold the
+	 * specified number of lines, and builds the tree again.
+	 */
+	private void resize(int line, int newSize)
+	{
+		if(values.length < newSize)
+		{
+			int[] oldValues = values;
+			int after = oldValues.length - gapEnd;
+
+			int capacity = newSize + getSlack(newSize);
+			values = new int[capacity];
+			tree = new int[capacity + 1];
+
+			System.arraycopy(oldValues,0,values,0,gapStart);
+			System.arraycopy(oldValues,gapEnd,values,
+				capacity - after,after);
+			gapEnd = capacity - after;
+		}
+
+		int gap = gapEnd - gapStart;
+		if(line < gapStart)
+		{
+			System.arraycopy(values,line,values,line + gap,
+				gapStart - line);
+		}
+		else if(line > gapStart)
+		{
+			System.arraycopy(values,gapEnd,values,gapStart,
+				line - gapStart);
+		}
+
+		gapStart = line;
+		gapEnd = line + gap;
+		for(int i = gapStart; i < gapEnd; i++)
+			values[i] = 0;
+
+		build();
+	} //}}}
+
+	//}}}
+}
@@ -0,0 +1,216 @@
+/*
+ * SelectionList.java - Holds the selections of a text area
+ * :tabSize=8:indentSize=8:noTabs=false:
+ * :folding=explicit:collapseFolds=1:
+ *
+ * Copyright (C) 2002 Slava Pestov
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gjt.sp.jedit.textarea;
+
+/**
+ * Holds the selections of a text area, sorted by offset.<p>
+ *
+ * Overlapping selections are merged when they are added, so the
+ * selections never contain each other, and sorting them by start offset
+ * also sorts them by end offset. Editing the buffer moves the offsets of
+ * all selections in the same direction, so this remains true as the
+ * buffer changes. This means the selections containing an offset, or
+ * intersecting a range, can be found with a binary search, instead of
+ * looking at every selection.
+ *
+ * @author Slava Pestov
+ * @version $Id$
+ * @since jEdit 4.1pre1
+ */
+class SelectionList
+{
+	//{{{ SelectionList constructor
+	SelectionList()
+	{
+		selections = new Selection[16];
+	} //}}}
+
+	//{{{ size() method
+	int size()
+	{
+		return count;
+	} //}}}
+
+	//{{{ get() method
+	Selection get(int index)
+	{
+		return selections[index];
+	} //}}}
+
+	//{{{ toArray() method
+	Selection[] toArray()
+	{
+		Selection[] array = new Selection[count];
+		System.arraycopy(selections,0,array,0,count);
+		return array;
+	} //}}}
+
+	//{{{ clear() method
+	void clear()
+	{
+		for(int i = 0; i < count; i++)
+			selections[i] = null;
+		count = 0;
+	} //}}}
+
+	//{{{ findFirst() method
+	/**
+	 * Returns the index of the first selection that does not end before
+	 * the specified offset, or the number of selections if there is
+	 * none.
+	 */
+	int findFirst(int offset)
+	{
+		int start = 0;
+		int end = count - 1;
+
+		while(start <= end)
+		{
+			int mid = (start + end) >>> 1;
+			if(selections[mid].end < offset)
+				start = mid + 1;
+			else
+				end = mid - 1;
+		}
+
+		return start;
+	} //}}}
+
+	//{{{ findFirstLine() method
+	/**
+	 * Returns the index of the first selection that does not end before
+	 * the specified line, or the number of selections if there is none.
+	 */
+	int findFirstLine(int line)
+	{
+		int start = 0;
+		int end = count - 1;
+
+		while(start <= end)
+		{
+			int mid = (start + end) >>> 1;
+			if(selections[mid].endLine < line)
+				start = mid + 1;
+			else
+				end = mid - 1;
+		}
+
+		return start;
+	} //}}}
+
+	//{{{ getSelectionAtOffset() method
+	/**
+	 * Returns the selection containing the specified offset, or null.
+	 */
+	Selection getSelectionAtOffset(int offset)
+	{
+		int index = findFirst(offset);
+		if(index != count && selections[index].start <= offset)
+			return selections[index];
+		else
+			return null;
+	} //}}}
+
+	//{{{ add() method
+	/**
+	 * Adds a selection, merging it with any selections it overlaps or
+	 * touches. The offsets of the new selection are updated to cover
+	 * the merged selections, but its line numbers are not.
+	 */
+	void add(Selection addMe)
+	{
+		int first = findFirst(addMe.start);
+		int last = first;
+		while(last < count && selections[last].start <= addMe.end)
+		{
+			Selection s = selections[last];
+			addMe.start = Math.min(s.start,addMe.start);
+			addMe.end = Math.max(s.end,addMe.end);
+			last++;
+		}
+
+		if(last == first)
+		{
+			if(count == selections.length)
+			{
+				Selection[] newSelections = new Selection[
+					count * 2];
+				System.arraycopy(selections,0,newSelections,0,
+					count);
+				selections = newSelections;
+			}
+
+			System.arraycopy(selections,first,selections,first + 1,
+				count - first);
+			count++;
+		}
+		else if(last != first + 1)
+		{
+			System.arraycopy(selections,last,selections,first + 1,
+				count - last);
+			for(int i = count - (last - first - 1); i < count; i++)
+				selections[i] = null;
+			count -= last - first - 1;
+		}
+
+		selections[first] = addMe;
+	} //}}}
+
+	//{{{ remove() method
+	/**
+	 * Removes the selection at the specified index.
+	 */
+	void remove(int index)
+	{
+		count--;
+		System.arraycopy(selections,index + 1,selections,index,
+			count - index);
+		selections[count] = null;
+	} //}}}
+
+	//{{{ remove() method
+	/**
+	 * Removes the specified selection, if it is in the list.
+	 */
+	void remove(Selection s)
+	{
+		// selections before this index end before s starts, and
+		// there can only be a few empty selections with the same
+		// offsets while the buffer is being edited
+		for(int i = findFirst(s.start); i < count; i++)
+		{
+			if(selections[i] == s)
+			{
+				remove(i);
+				return;
+			}
+			else if(selections[i].start > s.end)
+				break;
+		}
+	} //}}}
+
+	//{{{ Private members
+	private Selection[] selections;
+	private int count;
+	//}}}
+}
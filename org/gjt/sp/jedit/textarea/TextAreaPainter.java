@@ -519,6 +519,35 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		return fracFontMetrics;
 	} //}}}
 
+	//{{{ setScrollBlittingEnabled() method
+	/**
+	 * Sets if the painter should keep the painted text in an off-screen
+	 * image. When enabled, scrolling copies the text that is still
+	 * visible within that image, and only the newly exposed lines are
+	 * painted; other repaints that do not invalidate any lines, such as
+	 * those caused by windows being moved on top of the text area, do
+	 * not paint any text at all.
+	 * @since jEdit 4.1pre1
+	 */
+	public void setScrollBlittingEnabled(boolean scrollBlitting)
+	{
+		this.scrollBlitting = scrollBlitting;
+		backBuffer = null;
+		damage = null;
+		repaint();
+	} //}}}
+
+	//{{{ isScrollBlittingEnabled() method
+	/**
+	 * Returns if the painter keeps the painted text in an off-screen
+	 * image.
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean isScrollBlittingEnabled()
+	{
+		return scrollBlitting;
+	} //}}}
+
 	//{{{ getFontRenderContext() method
 	/**
 	 * Returns the font render context.
@@ -627,16 +656,78 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		textArea.recalculateVisibleLines();
 	} //}}}
 
+	//{{{ repaint() method
+	/**
+	 * Marks the specified area as needing a repaint. This is overridden
+	 * to record which parts of the off-screen image are out of date.
+	 */
+	public void repaint(long tm, int x, int y, int width, int height)
+	{
+		if(scrollBlitting)
+		{
+			Rectangle rect = new Rectangle(x,y,width,height);
+			if(damage == null)
+				damage = rect;
+			else
+				damage = damage.union(rect);
+		}
+
+		super.repaint(tm,x,y,width,height);
+	} //}}}
+
 	//{{{ paintComponent() method
 	/**
 	 * Repaints the text.
 	 * @param g The graphics context
 	 */
 	public void paintComponent(Graphics _gfx)
+	{
+		if(!scrollBlitting)
+		{
+			paintText((Graphics2D)_gfx);
+			return;
+		}
+
+		int width = getWidth();
+		int height = getHeight();
+		if(width <= 0 || height <= 0)
+			return;
+
+		if(backBuffer == null || backBuffer.getWidth(null) != width
+			|| backBuffer.getHeight(null) != height)
+		{
+			backBuffer = createImage(width,height);
+			if(backBuffer == null)
+			{
+				paintText((Graphics2D)_gfx);
+				return;
+			}
+			damage = new Rectangle(0,0,width,height);
+		}
+
+		if(damage != null)
+		{
+			Rectangle rect = damage.intersection(
+				new Rectangle(0,0,width,height));
+			damage = null;
+
+			if(!rect.isEmpty())
+			{
+				Graphics2D gfx = (Graphics2D)backBuffer.getGraphics();
+				gfx.clipRect(rect.x,rect.y,rect.width,rect.height);
+				paintText(gfx);
+				gfx.dispose();
+			}
+		}
+
+		_gfx.drawImage(backBuffer,0,0,null);
+	} //}}}
+
+	//{{{ paintText() method
+	private void paintText(Graphics2D gfx)
 	{
 		long start = System.currentTimeMillis();
 
-		Graphics2D gfx = (Graphics2D)_gfx;
 		gfx.setRenderingHints(renderingHints);
 		fontRenderContext = gfx.getFontRenderContext();
 
@@ -664,6 +755,8 @@ public class TextAreaPainter extends JComponent implements TabExpander
 
 		int y = (clipRect.y - clipRect.y % height);
 
+		long drawTime = 0L;
+
 		try
 		{
 			boolean updateMaxHorizontalScrollWidth = false;
@@ -675,7 +768,17 @@ public class TextAreaPainter extends JComponent implements TabExpander
 				if(!lineInfo.chunksValid)
 					System.err.println("text area painter: not valid");
 
+				long drawStart = (PainterProfiler.enabled
+					? System.currentTimeMillis() : 0L);
+
 				lineInfo.width = paintLine(gfx,buffer,lineInfo,line,x,y) - x;
+
+				if(PainterProfiler.enabled)
+				{
+					drawTime += System.currentTimeMillis()
+						- drawStart;
+				}
+
 				if(lineInfo.width > textArea.maxHorizontalScrollWidth)
 					updateMaxHorizontalScrollWidth = true;
 
@@ -700,8 +803,11 @@ public class TextAreaPainter extends JComponent implements TabExpander
 			Log.log(Log.ERROR,this,e);
 		}
 
-		//System.err.println((System.currentTimeMillis() - start)
-		//	+ ": " + (lastInvalid - firstInvalid + 1));
+		if(PainterProfiler.enabled)
+		{
+			PainterProfiler.framePainted(lastInvalid - firstInvalid + 1,
+				System.currentTimeMillis() - start,drawTime);
+		}
 	} //}}}
 
 	//{{{ nextTabStop() method
@@ -744,6 +850,62 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		return getPreferredSize();
 	} //}}}
 
+	//{{{ Package-private members
+
+	//{{{ scrollRepaint() method
+	/**
+	 * Moves the text that is already painted by the specified amount, and
+	 * marks the area that was scrolled into view as needing a repaint.
+	 * Returns false, without doing anything, if there is no off-screen
+	 * image to copy from; the caller must then repaint everything.
+	 * @param dx The horizontal distance, in pixels
+	 * @param dy The vertical distance, in pixels
+	 */
+	boolean scrollRepaint(int dx, int dy)
+	{
+		int width = getWidth();
+		int height = getHeight();
+
+		if(backBuffer == null || (dx == 0 && dy == 0)
+			|| Math.abs(dx) >= width || Math.abs(dy) >= height
+			|| backBuffer.getWidth(null) != width
+			|| backBuffer.getHeight(null) != height)
+		{
+			return false;
+		}
+
+		Graphics gfx = backBuffer.getGraphics();
+		gfx.copyArea(Math.max(0,-dx),Math.max(0,-dy),
+			width - Math.abs(dx),height - Math.abs(dy),dx,dy);
+		gfx.dispose();
+
+		// areas that were out of date are now out of date in both
+		// their old and new locations
+		if(damage != null)
+		{
+			Rectangle moved = new Rectangle(damage);
+			moved.translate(dx,dy);
+			damage = damage.union(moved);
+		}
+
+		if(dx > 0)
+			repaint(0,0,dx,height);
+		else if(dx < 0)
+			repaint(width + dx,0,-dx,height);
+
+		if(dy > 0)
+			repaint(0,0,width,dy);
+		else if(dy < 0)
+			repaint(0,height + dy,width,-dy);
+
+		// the whole image must be copied to the screen
+		super.repaint(0L,0,0,width,height);
+
+		return true;
+	} //}}}
+
+	//}}}
+
 	//{{{ Private members
 
 	//{{{ Instance variables
@@ -765,6 +927,12 @@ public class TextAreaPainter extends JComponent implements TabExpander
 	private boolean wrapGuide;
 	private boolean antiAlias;
 	private boolean fracFontMetrics;
+	private boolean scrollBlitting;
+
+	// off-screen copy of the painted text, and the part of it that is
+	// out of date
+	private Image backBuffer;
+	private Rectangle damage;
 
 	// should try to use this as little as possible.
 	private FontMetrics fm;
@@ -832,7 +1000,17 @@ public class TextAreaPainter extends JComponent implements TabExpander
 			float baseLine = y + fm.getHeight()
 				- fm.getLeading() - fm.getDescent();
 
-			if(lineInfo.chunks != null)
+			if(lineInfo.chunks instanceof ChunkCache.LongLineChunk)
+			{
+				// only the window that was laid out is painted
+				ChunkCache.LongLineChunk chunks
+					= (ChunkCache.LongLineChunk)lineInfo.chunks;
+				ChunkCache.paintChunkList(chunks.next,gfx,
+					x + chunks.startX,baseLine,
+					lineBackground.bgColor,true);
+				x += chunks.lineWidth;
+			}
+			else if(lineInfo.chunks != null)
 			{
 				x += ChunkCache.paintChunkList(
 					lineInfo.chunks,gfx,x,baseLine,
@@ -972,17 +1150,21 @@ public class TextAreaPainter extends JComponent implements TabExpander
 		public void paintValidLine(Graphics2D gfx, int screenLine,
 			int physicalLine, int start, int end, int y)
 		{
-			if(textArea.selection.size() == 0)
+			SelectionList selection = textArea.selection;
+			if(selection.size() == 0)
 				return;
 
+			// only look at the selections intersecting this line
 			gfx.setColor(getSelectionColor());
-			for(int i = textArea.selection.size() - 1;
-				i >= 0; i--)
+			for(int i = selection.findFirst(start);
+				i < selection.size(); i++)
 			{
+				Selection s = selection.get(i);
+				if(s.start >= end)
+					break;
+
 				paintSelection(gfx,screenLine,
-					physicalLine,start,end,y,
-					(Selection)textArea.selection
-					.get(i));
+					physicalLine,start,end,y,s);
 			}
 		} //}}}
 
@@ -25,6 +25,33 @@ package org.gjt.sp.util;
  */
 public abstract class WorkRequest implements Runnable
 {
+	/**
+	 * Returns the category of this request, which decides when it is
+	 * run relative to other requests. The default implementation
+	 * returns {@link WorkThreadPool#INTERACTIVE}.
+	 * @since jEdit 4.1pre1
+	 */
+	public int getCategory()
+	{
+		return WorkThreadPool.INTERACTIVE;
+	}
+
+	/**
+	 * Returns if the user has asked to abort this request. Requests
+	 * can check this at convenient points, instead of, or as well as,
+	 * being made abortable.
+	 * @see #setAbortable(boolean)
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean isAborted()
+	{
+		Thread thread = Thread.currentThread();
+		if(thread instanceof WorkThread)
+			return ((WorkThread)thread).isAborted();
+		else
+			return false;
+	}
+
 	/**
 	 * Sets if the request can be aborted.
 	 */
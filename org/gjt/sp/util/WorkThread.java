@@ -57,6 +57,20 @@ public class WorkThread extends Thread
 		return requestRunning;
 	}
 
+	/**
+	 * Returns if the user has asked to abort the current request.
+	 * Requests that are not abortable can check this from time to
+	 * time, and stop at a convenient point.
+	 * @since jEdit 4.1pre1
+	 */
+	public boolean isAborted()
+	{
+		synchronized(abortLock)
+		{
+			return aborted;
+		}
+	}
+
 	/**
 	 * Returns the status text.
 	 */
@@ -135,10 +149,20 @@ public class WorkThread extends Thread
 		}
 	}
 
+	/**
+	 * Returns the category of the current request, or -1 if no request
+	 * is running.
+	 */
+	int getRequestCategory()
+	{
+		return category;
+	}
+
 	// private members
 	private WorkThreadPool pool;
 	private Object abortLock = new Object();
 	private boolean requestRunning;
+	private int category = -1;
 	private boolean abortable;
 	private boolean aborted;
 	private String status;
@@ -156,8 +180,10 @@ public class WorkThread extends Thread
 			else
 			{
 				requestRunning = true;
+				category = request.category;
 				pool.fireStatusChanged(this);
 				doRequest(request);
+				category = -1;
 				requestRunning = false;
 			}
 		}
@@ -172,10 +198,13 @@ public class WorkThread extends Thread
 
 		synchronized(pool.lock)
 		{
-			// wait for more requests
+			// wait for more requests. A request might have been
+			// added since getNextRequest() returned null, in
+			// which case the notification has been missed
 			try
 			{
-				pool.lock.wait();
+				if(!pool.isRequestAvailable())
+					pool.lock.wait();
 			}
 			catch(InterruptedException ie)
 			{
@@ -210,7 +239,7 @@ public class WorkThread extends Thread
 			}
 			status = null;
 			progressValue = progressMaximum = 0;
-			pool.requestDone();
+			pool.requestDone(request);
 			pool.fireStatusChanged(this);
 		}
 	}
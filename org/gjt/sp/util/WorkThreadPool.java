@@ -28,7 +28,25 @@ import javax.swing.SwingUtilities;
 //}}}
 
 /**
- * A pool of work threads.
+ * A pool of work threads.<p>
+ *
+ * Each work request belongs to a category, returned by
+ * {@link WorkRequest#getCategory()}; runnables that are not work
+ * requests are {@link #INTERACTIVE}. Requests are started in order of
+ * category, and in the order they were added within a category, so a
+ * long background search does not hold up a file the user has just
+ * opened. The number of threads that can run requests of a category at
+ * once can be limited; by default, one thread is always kept free of
+ * {@link #BACKGROUND} requests.<p>
+ *
+ * Requests to run in the AWT thread are run once all work requests
+ * added before them are complete. If they were added by a
+ * {@link #BACKGROUND} request, they also wait for other background
+ * requests; otherwise, they only wait for the other categories.<p>
+ *
+ * The number of queued requests, and the time requests spend waiting
+ * and running, is recorded for each category.
+ *
  * @author Slava Pestov
  * @version $Id$
  * @see org.gjt.sp.util.WorkThread
@@ -36,6 +54,34 @@ import javax.swing.SwingUtilities;
  */
 public class WorkThreadPool
 {
+	//{{{ Request categories
+	/**
+	 * Requests the user is waiting for, such as loading a file or
+	 * listing a directory. This is the default category.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final int INTERACTIVE = 0;
+
+	/**
+	 * Requests that save files.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final int SAVE = 1;
+
+	/**
+	 * Long-running requests the user is not waiting for, such as
+	 * searching a directory.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final int BACKGROUND = 2;
+
+	/**
+	 * The number of request categories.
+	 * @since jEdit 4.1pre1
+	 */
+	public static final int CATEGORY_COUNT = 3;
+	//}}}
+
 	//{{{ WorkThreadPool constructor
 	/**
 	 * Creates a new work thread pool with the specified number of
@@ -47,6 +93,20 @@ public class WorkThreadPool
 	{
 		listenerList = new EventListenerList();
 
+		firstRequest = new Request[CATEGORY_COUNT];
+		lastRequest = new Request[CATEGORY_COUNT];
+		queuedCount = new int[CATEGORY_COUNT];
+		runningCount = new int[CATEGORY_COUNT];
+		completedCount = new int[CATEGORY_COUNT];
+		waitTime = new long[CATEGORY_COUNT];
+		maxWaitTime = new long[CATEGORY_COUNT];
+		runTime = new long[CATEGORY_COUNT];
+
+		categoryLimit = new int[CATEGORY_COUNT];
+		for(int i = 0; i < CATEGORY_COUNT; i++)
+			categoryLimit[i] = count;
+		categoryLimit[BACKGROUND] = Math.max(1,count - 1);
+
 		if(count != 0)
 		{
 			threadGroup = new ThreadGroup(name);
@@ -70,7 +130,7 @@ public class WorkThreadPool
 		{
 			started = true;
 
-			if(awtRequestCount != 0 && requestCount == 0)
+			if(isAWTRequestReady())
 				queueAWTRunner();
 		}
 
@@ -100,29 +160,51 @@ public class WorkThreadPool
 
 		synchronized(lock)
 		{
-			//{{{ if there are no requests, execute AWT requests immediately
-			if(started && inAWT && requestCount == 0 && awtRequestCount == 0)
+			//{{{ Add to AWT queue...
+			if(inAWT)
 			{
-//				Log.log(Log.DEBUG,this,"AWT immediate: " + run);
+				// requests added by a background request
+				// also wait for other background requests
+				boolean background = false;
+				Thread thread = Thread.currentThread();
+				if(thread instanceof WorkThread)
+				{
+					background = (((WorkThread)thread)
+						.getRequestCategory() == BACKGROUND);
+				}
 
-				if(SwingUtilities.isEventDispatchThread())
-					run.run();
-				else
-					SwingUtilities.invokeLater(run);
+				//{{{ if there are no requests, execute AWT requests immediately
+				if(started && firstAWTRequest == null
+					&& firstBackgroundAWTRequest == null
+					&& (background ? requestCount
+					: getForegroundRequestCount()) == 0)
+				{
+//					Log.log(Log.DEBUG,this,"AWT immediate: " + run);
 
-				return;
-			} //}}}
+					if(SwingUtilities.isEventDispatchThread())
+						run.run();
+					else
+						SwingUtilities.invokeLater(run);
 
-			Request request = new Request(run);
+					return;
+				} //}}}
 
-			//{{{ Add to AWT queue...
-			if(inAWT)
-			{
-				if(firstAWTRequest == null && lastAWTRequest == null)
-					firstAWTRequest = lastAWTRequest = request;
+				Request request = new Request(run,INTERACTIVE);
+
+				if(background)
+				{
+					if(firstBackgroundAWTRequest == null)
+						firstBackgroundAWTRequest = request;
+					else
+						lastBackgroundAWTRequest.next = request;
+					lastBackgroundAWTRequest = request;
+				}
 				else
 				{
-					lastAWTRequest.next = request;
+					if(firstAWTRequest == null)
+						firstAWTRequest = request;
+					else
+						lastAWTRequest.next = request;
 					lastAWTRequest = request;
 				}
 
@@ -131,24 +213,33 @@ public class WorkThreadPool
 				// if no requests are running, requestDone()
 				// will not be called, so we must queue the
 				// AWT runner ourselves.
-				if(started && requestCount == 0)
+				if(started && isAWTRequestReady())
 					queueAWTRunner();
 			} //}}}
 			//{{{ Add to work thread queue...
 			else
 			{
-				if(firstRequest == null && lastRequest == null)
-					firstRequest = lastRequest = request;
-				else
+				int category = INTERACTIVE;
+				if(run instanceof WorkRequest)
 				{
-					lastRequest.next = request;
-					lastRequest = request;
+					category = ((WorkRequest)run).getCategory();
+					if(category < 0 || category >= CATEGORY_COUNT)
+						category = INTERACTIVE;
 				}
 
+				Request request = new Request(run,category);
+
+				if(firstRequest[category] == null)
+					firstRequest[category] = request;
+				else
+					lastRequest[category].next = request;
+				lastRequest[category] = request;
+
+				queuedCount[category]++;
 				requestCount++;
-			} //}}}
 
-			lock.notify();
+				lock.notify();
+			} //}}}
 		}
 	} //}}}
 
@@ -203,6 +294,130 @@ public class WorkThreadPool
 		return requestCount;
 	} //}}}
 
+	//{{{ getRequestCount() method
+	/**
+	 * Returns the number of requests of a category that are queued or
+	 * running.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public int getRequestCount(int category)
+	{
+		synchronized(lock)
+		{
+			return queuedCount[category] + runningCount[category];
+		}
+	} //}}}
+
+	//{{{ getQueuedRequestCount() method
+	/**
+	 * Returns the number of requests of a category that are waiting
+	 * for a thread.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public int getQueuedRequestCount(int category)
+	{
+		synchronized(lock)
+		{
+			return queuedCount[category];
+		}
+	} //}}}
+
+	//{{{ getCompletedRequestCount() method
+	/**
+	 * Returns the number of requests of a category that have been run.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public int getCompletedRequestCount(int category)
+	{
+		synchronized(lock)
+		{
+			return completedCount[category];
+		}
+	} //}}}
+
+	//{{{ getAverageWaitTime() method
+	/**
+	 * Returns the average time requests of a category spent waiting
+	 * for a thread, in milliseconds.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public long getAverageWaitTime(int category)
+	{
+		synchronized(lock)
+		{
+			int started = completedCount[category]
+				+ runningCount[category];
+			return (started == 0 ? 0L : waitTime[category] / started);
+		}
+	} //}}}
+
+	//{{{ getMaximumWaitTime() method
+	/**
+	 * Returns the longest time a request of a category spent waiting
+	 * for a thread, in milliseconds.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public long getMaximumWaitTime(int category)
+	{
+		synchronized(lock)
+		{
+			return maxWaitTime[category];
+		}
+	} //}}}
+
+	//{{{ getAverageRunTime() method
+	/**
+	 * Returns the average time taken by a request of a category, in
+	 * milliseconds.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public long getAverageRunTime(int category)
+	{
+		synchronized(lock)
+		{
+			return (completedCount[category] == 0 ? 0L
+				: runTime[category] / completedCount[category]);
+		}
+	} //}}}
+
+	//{{{ getCategoryLimit() method
+	/**
+	 * Returns the number of threads that can run requests of a
+	 * category at once.
+	 * @param category The category
+	 * @since jEdit 4.1pre1
+	 */
+	public int getCategoryLimit(int category)
+	{
+		synchronized(lock)
+		{
+			return categoryLimit[category];
+		}
+	} //}}}
+
+	//{{{ setCategoryLimit() method
+	/**
+	 * Sets the number of threads that can run requests of a category
+	 * at once. Requests that are already running are not affected.
+	 * @param category The category
+	 * @param limit The number of threads; at least one
+	 * @since jEdit 4.1pre1
+	 */
+	public void setCategoryLimit(int category, int limit)
+	{
+		synchronized(lock)
+		{
+			categoryLimit[category] = Math.max(1,limit);
+			lock.notifyAll();
+		}
+	} //}}}
+
 	//{{{ getThreadCount() method
 	/**
 	 * Returns the number of threads in this pool.
@@ -304,29 +519,76 @@ public class WorkThreadPool
 	} //}}}
 
 	//{{{ requestDone() method
-	void requestDone()
+	void requestDone(Request request)
 	{
 		synchronized(lock)
 		{
+			int category = request.category;
+			runningCount[category]--;
+			completedCount[category]++;
+			runTime[category] += System.currentTimeMillis()
+				- request.startTime;
+
 			requestCount--;
 
-			if(requestCount == 0 && firstAWTRequest != null)
+			if(isAWTRequestReady())
 				queueAWTRunner();
 		}
 	} //}}}
 
+	//{{{ isRequestAvailable() method
+	/**
+	 * Returns if a queued request can be started. Must be called with
+	 * the lock held.
+	 */
+	boolean isRequestAvailable()
+	{
+		for(int i = 0; i < CATEGORY_COUNT; i++)
+		{
+			if(firstRequest[i] != null
+				&& runningCount[i] < categoryLimit[i])
+				return true;
+		}
+
+		return false;
+	} //}}}
+
 	//{{{ getNextRequest() method
+	/**
+	 * Returns the first request of the most important category that
+	 * has not reached its limit, or null if there is none.
+	 */
 	Request getNextRequest()
 	{
 		synchronized(lock)
 		{
-			Request request = firstRequest;
+			Request request = null;
+			for(int i = 0; i < CATEGORY_COUNT; i++)
+			{
+				if(firstRequest[i] != null
+					&& runningCount[i] < categoryLimit[i])
+				{
+					request = firstRequest[i];
+					firstRequest[i] = request.next;
+					if(firstRequest[i] == null)
+						lastRequest[i] = null;
+					request.next = null;
+					break;
+				}
+			}
+
 			if(request == null)
 				return null;
 
-			firstRequest = firstRequest.next;
-			if(firstRequest == null)
-				lastRequest = null;
+			int category = request.category;
+			queuedCount[category]--;
+			runningCount[category]++;
+
+			request.startTime = System.currentTimeMillis();
+			long wait = request.startTime - request.queueTime;
+			waitTime[category] += wait;
+			if(wait > maxWaitTime[category])
+				maxWaitTime[category] = wait;
 
 			if(request.alreadyRun)
 				throw new InternalError("AIEE!!! Request run twice!!! " + request.run);
@@ -356,26 +618,91 @@ public class WorkThreadPool
 	private ThreadGroup threadGroup;
 	private WorkThread[] threads;
 
-	// Request queue
-	private Request firstRequest;
-	private Request lastRequest;
+	// Request queues, one for each category
+	private Request[] firstRequest;
+	private Request[] lastRequest;
+	private int[] queuedCount;
+	private int[] runningCount;
+	private int[] categoryLimit;
+
+	// queued and running requests of all categories
 	private int requestCount;
 
+	// Statistics
+	private int[] completedCount;
+	private long[] waitTime;
+	private long[] maxWaitTime;
+	private long[] runTime;
+
 	// AWT thread magic
 	private boolean awtRunnerQueued;
 	private Request firstAWTRequest;
 	private Request lastAWTRequest;
+
+	// AWT requests added by background requests
+	private Request firstBackgroundAWTRequest;
+	private Request lastBackgroundAWTRequest;
+
 	private int awtRequestCount;
 
 	private EventListenerList listenerList;
 	//}}}
 
+	//{{{ getForegroundRequestCount() method
+	/**
+	 * Returns the number of queued and running requests that are not
+	 * background requests. Must be called with the lock held.
+	 */
+	private int getForegroundRequestCount()
+	{
+		return requestCount - queuedCount[BACKGROUND]
+			- runningCount[BACKGROUND];
+	} //}}}
+
+	//{{{ isAWTRequestReady() method
+	/**
+	 * Returns if any AWT requests can be run. Must be called with the
+	 * lock held.
+	 */
+	private boolean isAWTRequestReady()
+	{
+		return (firstAWTRequest != null
+			&& getForegroundRequestCount() == 0)
+			|| (firstBackgroundAWTRequest != null
+			&& requestCount == 0);
+	} //}}}
+
 	//{{{ doAWTRequests() method
+	/**
+	 * Runs the AWT requests whose work requests are complete. Must be
+	 * called without the lock held; each request is taken off the
+	 * queue with the lock held, and run after releasing it, so that
+	 * work threads are not held up while a request shows a dialog
+	 * box, for example.
+	 */
 	private void doAWTRequests()
 	{
-		while(firstAWTRequest != null)
+		for(;;)
 		{
-			doAWTRequest(getNextAWTRequest());
+			Request request;
+
+			synchronized(lock)
+			{
+				if(firstAWTRequest != null
+					&& getForegroundRequestCount() == 0)
+				{
+					request = getNextAWTRequest(false);
+				}
+				else if(firstBackgroundAWTRequest != null
+					&& requestCount == 0)
+				{
+					request = getNextAWTRequest(true);
+				}
+				else
+					return;
+			}
+
+			doAWTRequest(request);
 		}
 	} //}}}
 
@@ -395,7 +722,10 @@ public class WorkThreadPool
 			Log.log(Log.ERROR,WorkThread.class,t);
 		}
 
-		awtRequestCount--;
+		synchronized(lock)
+		{
+			awtRequestCount--;
+		}
 	} //}}}
 
 	//{{{ queueAWTRunner() method
@@ -410,12 +740,23 @@ public class WorkThreadPool
 	} //}}}
 
 	//{{{ getNextAWTRequest() method
-	private Request getNextAWTRequest()
+	private Request getNextAWTRequest(boolean background)
 	{
-		Request request = firstAWTRequest;
-		firstAWTRequest = firstAWTRequest.next;
-		if(firstAWTRequest == null)
-			lastAWTRequest = null;
+		Request request;
+		if(background)
+		{
+			request = firstBackgroundAWTRequest;
+			firstBackgroundAWTRequest = request.next;
+			if(firstBackgroundAWTRequest == null)
+				lastBackgroundAWTRequest = null;
+		}
+		else
+		{
+			request = firstAWTRequest;
+			firstAWTRequest = request.next;
+			if(firstAWTRequest == null)
+				lastAWTRequest = null;
+		}
 
 		if(request.alreadyRun)
 			throw new InternalError("AIEE!!! Request run twice!!! " + request.run);
@@ -445,19 +786,27 @@ public class WorkThreadPool
 		int id = ++ID;
 
 		Runnable run;
+		int category;
+
+		// for statistics
+		long queueTime;
+		long startTime;
 
 		boolean alreadyRun;
 
 		Request next;
 
-		Request(Runnable run)
+		Request(Runnable run, int category)
 		{
 			this.run = run;
+			this.category = category;
+			queueTime = System.currentTimeMillis();
 		}
 
 		public String toString()
 		{
-			return "[id=" + id + ",run=" + run + "]";
+			return "[id=" + id + ",category=" + category
+				+ ",run=" + run + "]";
 		}
 	} //}}}
 
@@ -469,9 +818,9 @@ public class WorkThreadPool
 			synchronized(lock)
 			{
 				awtRunnerQueued = false;
-				if(requestCount == 0)
-					doAWTRequests();
 			}
+
+			doAWTRequests();
 		}
 	} //}}}
 }